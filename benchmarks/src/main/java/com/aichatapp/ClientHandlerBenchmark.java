@@ -0,0 +1,163 @@
+package com.aichatapp;
+
+import com.aichatapp.benchmarks.BenchmarkDatabase;
+import com.aichatapp.events.EventBus;
+import com.aichatapp.network.ClientConnection;
+import com.aichatapp.protocol.ProtocolCodec;
+import com.aichatapp.services.AIService;
+import com.aichatapp.services.AuthTokenService;
+import com.aichatapp.services.BootstrapService;
+import com.aichatapp.services.ChatService;
+import com.aichatapp.services.CompletionCache;
+import com.aichatapp.services.CompletionCoalescer;
+import com.aichatapp.services.ConversationContextStore;
+import com.aichatapp.services.MessageSearchService;
+import com.aichatapp.services.SessionService;
+import com.aichatapp.services.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One request line through {@link ClientHandler}: parse, dispatch to the service, serialize the reply.
+ * Requests carry no requestId so they are handled inline on the benchmark thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientHandlerBenchmark {
+
+    private ClientHandler handler;
+    private CapturingConnection connection;
+    private String getSessionIdRequest;
+    private String getHistoryPageRequest;
+    private String unknownActionRequest;
+    private String loginRequest;
+    private String bootstrapRequest;
+    private String resumeRequest;
+    private String searchRequest;
+
+    @Setup
+    public void setUp() {
+        BenchmarkDatabase.init();
+        UserService userService = new UserService();
+        SessionService sessionService = new SessionService();
+        ChatService chatService = new ChatService(sessionService, null, null, null);
+
+        int userId = BenchmarkDatabase.createUser(userService, "handler-bench");
+        int sessionId = BenchmarkDatabase.createSession(userId, "handler-bench-session", 100);
+
+        AuthTokenService tokenService = new AuthTokenService(new byte[32], 3600, 1_000);
+        MessageSearchService searchService = new MessageSearchService("", 1000, 10_000, 60_000, 8);
+        searchService.catchUp();
+        connection = new CapturingConnection();
+        // send_message is not measured, so the AI service never makes a call
+        handler = new ClientHandler(connection, userService, tokenService, chatService, sessionService,
+                searchService, new BootstrapService(userService, sessionService, chatService, 2, 64), new EventBus(1, 64), new AIService(null, "http://localhost/unused", "", "unused"),
+                new ConversationContextStore(chatService), new CompletionCache(false, 0, 0, "", 0),
+                new CompletionCoalescer(false), Runnable::run, Runnable::run, new ProtocolCodec());
+
+        getSessionIdRequest = "{\"action\":\"get_session_id\",\"username\":\"handler-bench\","
+                + "\"sessionName\":\"handler-bench-session\"}";
+        getHistoryPageRequest = "{\"action\":\"get_history\",\"sessionId\":" + sessionId + ",\"limit\":50}";
+        unknownActionRequest = "{\"action\":\"no_such_action\"}";
+        loginRequest = "{\"action\":\"login\",\"username\":\"handler-bench\",\"password\":\""
+                + BenchmarkDatabase.PASSWORD + "\"}";
+        bootstrapRequest = "{\"action\":\"bootstrap\",\"username\":\"handler-bench\",\"password\":\""
+                + BenchmarkDatabase.PASSWORD + "\",\"limit\":50}";
+        resumeRequest = "{\"action\":\"resume\",\"authToken\":\"" + tokenService.issue("handler-bench") + "\"}";
+        searchRequest = "{\"action\":\"search_messages\",\"username\":\"handler-bench\","
+                + "\"query\":\"benchmark question\",\"limit\":20}";
+        // get_session_id and search_messages act for the user logged in on the connection
+        handler.onMessage(resumeRequest);
+    }
+
+    /** Cached lookups only, mostly JSON and dispatch overhead */
+    @Benchmark
+    public String getSessionId() {
+        handler.onMessage(getSessionIdRequest);
+        return connection.last;
+    }
+
+    /** One database query plus serializing 50 messages */
+    @Benchmark
+    public String getHistoryPage() {
+        handler.onMessage(getHistoryPageRequest);
+        return connection.last;
+    }
+
+    /** Parse and error reply without any service call */
+    @Benchmark
+    public String unknownAction() {
+        handler.onMessage(unknownActionRequest);
+        return connection.last;
+    }
+
+    /** Password login: a database lookup plus a BCrypt check */
+    @Benchmark
+    public String login() {
+        handler.onMessage(loginRequest);
+        return connection.last;
+    }
+
+    /** Login plus sessions and the newest 50 messages, the lookups overlapping the BCrypt check */
+    @Benchmark
+    public String bootstrap() {
+        handler.onMessage(bootstrapRequest);
+        return connection.last;
+    }
+
+    /** Token login on reconnect: one HMAC, no database or BCrypt */
+    @Benchmark
+    public String resume() {
+        handler.onMessage(resumeRequest);
+        return connection.last;
+    }
+
+    /** Index lookup plus loading the 20 messages of the page */
+    @Benchmark
+    public String searchMessages() {
+        handler.onMessage(searchRequest);
+        return connection.last;
+    }
+
+    private static class CapturingConnection implements ClientConnection {
+        String last;
+        byte[] lastFrame;
+
+        @Override
+        public void send(String message) {
+            last = message;
+        }
+
+        @Override
+        public void sendFrame(byte[] payload) {
+            lastFrame = payload;
+        }
+
+        @Override
+        public void enableBinaryFraming() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "benchmark";
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.aichatapp.benchmarks;
+
+import com.aichatapp.models.DatabaseConnection;
+import com.aichatapp.services.ChatService;
+import com.aichatapp.services.SessionService;
+import com.aichatapp.services.UserService;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Points the server's connection pool at the benchmark database and fills it.
+ * Defaults to an in-memory H2 database in MySQL mode; pass -Daichat.db.url (and user/password)
+ * to measure against a real MySQL schema instead.
+ */
+public final class BenchmarkDatabase {
+    public static final String PASSWORD = "benchmark-password";
+
+    private static boolean initialized;
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * Must run before anything touches {@link DatabaseConnection}, whose settings are read once
+     */
+    public static synchronized void init() {
+        if (initialized) {
+            return;
+        }
+        if (System.getProperty("aichat.db.url") == null) {
+            System.setProperty("aichat.db.url", "jdbc:h2:mem:aichat;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+            System.setProperty("aichat.db.user", "sa");
+        }
+        System.setProperty("aichat.db.pool.statsIntervalSec", "0");
+        System.setProperty("aichat.db.pool.leakDetectionMs", "0");
+
+        if (System.getProperty("aichat.db.url").startsWith("jdbc:h2:")) {
+            createSchema();
+        }
+        initialized = true;
+    }
+
+    private static void createSchema() {
+        try (Connection conn = DatabaseConnection.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS users (" +
+                    "user_id INT AUTO_INCREMENT PRIMARY KEY, " +
+                    "username VARCHAR(50) NOT NULL UNIQUE, " +
+                    "email VARCHAR(100) NOT NULL UNIQUE, " +
+                    "password_hash VARCHAR(255) NOT NULL, " +
+                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS chat_sessions (" +
+                    "session_id INT AUTO_INCREMENT PRIMARY KEY, " +
+                    "user_id INT NOT NULL REFERENCES users(user_id), " +
+                    "session_name VARCHAR(100) NOT NULL, " +
+                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS chat_messages (" +
+                    "message_id INT AUTO_INCREMENT PRIMARY KEY, " +
+                    "session_id INT NOT NULL REFERENCES chat_sessions(session_id), " +
+                    "user_message TEXT, " +
+                    "ai_response TEXT, " +
+                    "is_user_message BOOLEAN NOT NULL, " +
+                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_session ON chat_messages (session_id, message_id)");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not create benchmark schema", e);
+        }
+    }
+
+    /**
+     * Registers a user with {@link #PASSWORD} unless it already exists
+     * @return the user's id
+     */
+    public static int createUser(UserService userService, String username) {
+        userService.registerUser(username, username + "@bench.local", PASSWORD);
+        return userService.getUserIdByUsername(username);
+    }
+
+    /**
+     * Creates a session holding {@code exchanges} question/answer pairs
+     * @return the session's id
+     */
+    public static int createSession(int userId, String sessionName, int exchanges) {
+        ChatService chatService = new ChatService(new SessionService(), null, null, null);
+        int sessionId = chatService.createChatSession(userId, sessionName);
+        for (int i = 0; i < exchanges; i++) {
+            chatService.saveMessage(sessionId, "Question number " + i + " about the benchmark data set",
+                    "Answer number " + i + ": a reply of typical length that the assistant might produce "
+                            + "for a short question, a sentence or two of plain text.");
+        }
+        return sessionId;
+    }
+}
@@ -0,0 +1,32 @@
+package com.aichatapp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar. Same options as the plain JMH launcher, but results
+ * are written as JSON to jmh-result.json unless -rf/-rff say otherwise, so runs from
+ * different releases can be diffed.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar                   # everything
+ * java -jar benchmarks/target/benchmarks.jar ChatService -f 1  # one class, one fork
+ * java -Daichat.db.url=jdbc:mysql://... -jar benchmarks.jar    # against a real MySQL
+ * </pre>
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.add(0, "-rf");
+            options.add(1, "json");
+        }
+        if (!options.contains("-rff")) {
+            options.add(0, "-rff");
+            options.add(1, "jmh-result.json");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,80 @@
+package com.aichatapp.models;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Type;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChatMessage to JSON and back, with the same Gson setup as ClientHandler
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMessageGsonBenchmark {
+    private static final Type LIST_TYPE = new TypeToken<ArrayList<ChatMessage>>(){}.getType();
+
+    private Gson gson;
+    private ChatMessage message;
+    private String messageJson;
+    private List<ChatMessage> page;
+    private String pageJson;
+
+    @Setup
+    public void setUp() {
+        gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .create();
+        LocalDateTime now = LocalDateTime.of(2025, 4, 28, 1, 58, 30);
+        message = new ChatMessage(42, 7, null,
+                "The capital of Tunisia is Tunis, located on the Mediterranean coast.", false, now);
+        messageJson = gson.toJson(message);
+
+        page = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            boolean user = i % 2 == 0;
+            page.add(new ChatMessage(i, 7, user ? "Question " + i : null, user ? null : "Answer " + i,
+                    user, now.plusSeconds(i)));
+        }
+        pageJson = gson.toJson(page);
+    }
+
+    @Benchmark
+    public String serializeMessage() {
+        return gson.toJson(message);
+    }
+
+    @Benchmark
+    public ChatMessage deserializeMessage() {
+        return gson.fromJson(messageJson, ChatMessage.class);
+    }
+
+    /** A 50 message history page, as sent by get_history */
+    @Benchmark
+    public String serializePage() {
+        return gson.toJson(page);
+    }
+
+    @Benchmark
+    public List<ChatMessage> deserializePage() {
+        return gson.fromJson(pageJson, LIST_TYPE);
+    }
+}
@@ -0,0 +1,119 @@
+package com.aichatapp.protocol;
+
+import com.aichatapp.models.ChatMessage;
+import com.aichatapp.models.LocalDateTimeAdapter;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The typed codec against the JsonObject trees ClientHandler used before, under concurrent load.
+ * Run with the GC profiler to see the allocation side, e.g.
+ * {@code java -jar benchmarks.jar ProtocolCodec -prof gc} and compare gc.alloc.rate.norm (bytes per op).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ProtocolCodecBenchmark {
+
+    /** Messages in the history response */
+    @Param({"50"})
+    public int messages;
+
+    private final ProtocolCodec codec = new ProtocolCodec();
+    private Gson gson;
+    private String requestLine;
+    private List<ChatMessage> history;
+
+    @Setup
+    public void setUp() {
+        gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .create();
+        requestLine = "{\"action\":\"get_history\",\"sessionId\":7,\"limit\":50,\"beforeId\":1200,\"requestId\":31}";
+
+        history = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2025, 4, 28, 1, 58, 30);
+        for (int i = 0; i < messages; i++) {
+            boolean user = i % 2 == 0;
+            history.add(new ChatMessage(1000 + i, 7, user ? "What about question " + i + "?" : null,
+                    user ? null : "A reply of a few sentences, the kind the assistant gives to a short question.",
+                    user, start.plusSeconds(i)));
+        }
+    }
+
+    @Benchmark
+    public void decodeRequestTree(Blackhole bh) {
+        JsonObject request = gson.fromJson(requestLine, JsonObject.class);
+        bh.consume(request.get("action").getAsString());
+        bh.consume(request.get("sessionId").getAsInt());
+        bh.consume(request.get("limit").getAsInt());
+        bh.consume(request.get("beforeId").getAsInt());
+        bh.consume(request.get("requestId"));
+    }
+
+    @Benchmark
+    public void decodeRequestTyped(Blackhole bh) {
+        Request request = codec.decodeLine(requestLine);
+        bh.consume(request.getAction());
+        bh.consume(request.getSessionId());
+        bh.consume(request.getLimit());
+        bh.consume(request.getBeforeId());
+        bh.consume(request.getRequestId());
+    }
+
+    /** What get_history did before: list to tree, tree into a response tree, tree to text */
+    @Benchmark
+    public String encodeHistoryTree() {
+        JsonObject response = new JsonObject();
+        response.add("history", gson.toJsonTree(history));
+        response.addProperty("hasMore", true);
+        response.addProperty("beforeId", 1000);
+        response.addProperty("success", true);
+        response.addProperty("requestId", 31);
+        return gson.toJson(response);
+    }
+
+    @Benchmark
+    public String encodeHistoryTyped() {
+        return codec.encodeLine(historyResponse());
+    }
+
+    @Benchmark
+    public byte[] encodeHistoryTypedFrame() {
+        return codec.encodeFrame(historyResponse());
+    }
+
+    private Response historyResponse() {
+        Response response = new Response();
+        response.setHistory(history);
+        response.setHasMore(true);
+        response.setBeforeId(1000);
+        response.setSuccess(true);
+        response.setRequestId(new JsonPrimitive(31));
+        return response;
+    }
+}
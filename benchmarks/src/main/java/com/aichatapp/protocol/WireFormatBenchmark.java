@@ -0,0 +1,99 @@
+package com.aichatapp.protocol;
+
+import com.aichatapp.models.ChatMessage;
+import com.aichatapp.models.LocalDateTimeAdapter;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON lines against binary frames for one response, both ways.
+ * Encoding covers tree to bytes on the wire, decoding bytes back to a tree, as ClientHandler
+ * and ClientController do. The payload sizes are printed once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    /** Messages in the history response */
+    @Param({"1", "50", "500"})
+    public int messages;
+
+    /** Characters per AI reply */
+    @Param({"200", "4000"})
+    public int replyLength;
+
+    private Gson gson;
+    private JsonObject response;
+    private byte[] jsonBytes;
+    private byte[] binaryBytes;
+
+    @Setup
+    public void setUp() {
+        gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .create();
+
+        StringBuilder reply = new StringBuilder();
+        while (reply.length() < replyLength) {
+            reply.append("Here is a \"quoted\" line of the reply,\nwith a newline and some text. ");
+        }
+        List<ChatMessage> history = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2025, 4, 28, 1, 58, 30);
+        for (int i = 0; i < messages; i++) {
+            boolean user = i % 2 == 0;
+            history.add(new ChatMessage(1000 + i, 7, user ? "What about question " + i + "?" : null,
+                    user ? null : reply.substring(0, replyLength), user, start.plusSeconds(i)));
+        }
+        response = new JsonObject();
+        response.add("history", gson.toJsonTree(history));
+        response.addProperty("success", true);
+        response.addProperty("requestId", 12);
+
+        jsonBytes = encodeJson();
+        binaryBytes = encodeBinary();
+        System.out.printf("%nwire size: json=%d bytes, binary=%d bytes (%.0f%%)%n",
+                jsonBytes.length, binaryBytes.length, 100.0 * binaryBytes.length / jsonBytes.length);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return (gson.toJson(response) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return BinaryJson.encode(gson, response);
+    }
+
+    @Benchmark
+    public JsonObject decodeJson() {
+        return gson.fromJson(new String(jsonBytes, 0, jsonBytes.length - 1, StandardCharsets.UTF_8), JsonObject.class);
+    }
+
+    @Benchmark
+    public JsonObject decodeBinary() {
+        return BinaryJson.decodeObject(gson, binaryBytes);
+    }
+}
@@ -0,0 +1,78 @@
+package com.aichatapp.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency of the in-memory search index, without the database round trip for the page.
+ * Messages are 12 words drawn from a Zipf-like vocabulary and spread evenly over the users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class InvertedIndexBenchmark {
+    private static final int VOCABULARY = 20_000;
+    private static final int WORDS_PER_MESSAGE = 12;
+
+    @Param({"2000000"})
+    public int messages;
+
+    @Param({"1000"})
+    public int users;
+
+    private InvertedIndex index;
+
+    @Setup
+    public void setUp() {
+        index = new InvertedIndex();
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for (int m = 0; m < messages; m++) {
+            text.setLength(0);
+            for (int w = 0; w < WORDS_PER_MESSAGE; w++) {
+                text.append(word(random)).append(' ');
+            }
+            int user = m % users;
+            index.add(m + 1, user, user * 10 + m % 10, text.toString());
+        }
+    }
+
+    // Rank r is picked with probability about 1/r, so a few words are in most messages
+    private static String word(Random random) {
+        int rank = (int) Math.pow(VOCABULARY, random.nextDouble());
+        return "word" + rank;
+    }
+
+    /** Two of the most common words: long postings on both sides */
+    @Benchmark
+    public SearchResult commonTerms() {
+        return index.search(7, null, "word1 word2", 0, 20);
+    }
+
+    /** A common and a rare word: the rare one drives, the common one is skipped through */
+    @Benchmark
+    public SearchResult mixedTerms() {
+        return index.search(7, null, "word1 word5000", 0, 20);
+    }
+
+    /** A deep page of a single common word */
+    @Benchmark
+    public SearchResult deepPage() {
+        return index.search(7, null, "word3", 500, 20);
+    }
+}
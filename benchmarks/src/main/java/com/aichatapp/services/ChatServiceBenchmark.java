@@ -0,0 +1,86 @@
+package com.aichatapp.services;
+
+import com.aichatapp.benchmarks.BenchmarkDatabase;
+import com.aichatapp.models.ChatMessage;
+import com.aichatapp.models.HistoryPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History reads and message writes against the benchmark database
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatServiceBenchmark {
+
+    /** Exchanges stored in the session that is read, each is two rows */
+    @Param({"100", "1000"})
+    public int historySize;
+
+    /** "direct" writes on the calling thread, "batched" goes through the group-commit MessageWriter */
+    @Param({"direct", "batched"})
+    public String writeMode;
+
+    private ChatService chatService;
+    private MessageWriter messageWriter;
+    private int readSessionId;
+    private int writeSessionId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkDatabase.init();
+        int userId = BenchmarkDatabase.createUser(new UserService(), "chat-bench");
+        readSessionId = BenchmarkDatabase.createSession(userId, "read-" + historySize + "-" + writeMode, historySize);
+        writeSessionId = BenchmarkDatabase.createSession(userId, "write-" + historySize + "-" + writeMode, 0);
+
+        if ("batched".equals(writeMode)) {
+            messageWriter = new MessageWriter(10_000, MessageWriter.DurabilityMode.ACK_AFTER_COMMIT, 500, 2, 1_000);
+        }
+        chatService = new ChatService(new SessionService(), messageWriter, null, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (messageWriter != null) {
+            messageWriter.shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<ChatMessage> getChatHistory() {
+        return chatService.getChatHistory(readSessionId);
+    }
+
+    @Benchmark
+    public HistoryPage getChatHistoryPage() throws SQLException {
+        return chatService.getChatHistoryPage(readSessionId, 0, 50);
+    }
+
+    /** Concurrent writers, which is where group commit pays off */
+    @Benchmark
+    @Threads(8)
+    public boolean saveMessage() {
+        return chatService.saveMessage(writeSessionId, "How long does a save take?",
+                "About as long as one commit, unless it shares the commit with others.");
+    }
+}
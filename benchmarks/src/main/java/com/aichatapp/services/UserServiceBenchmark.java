@@ -0,0 +1,47 @@
+package com.aichatapp.services;
+
+import com.aichatapp.benchmarks.BenchmarkDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login cost, dominated by the BCrypt check
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    private UserService userService;
+
+    @Setup
+    public void setUp() {
+        BenchmarkDatabase.init();
+        userService = new UserService();
+        BenchmarkDatabase.createUser(userService, "login-bench");
+    }
+
+    @Benchmark
+    public boolean authenticateUser() {
+        return userService.authenticateUser("login-bench", BenchmarkDatabase.PASSWORD);
+    }
+
+    /** Unknown users skip BCrypt entirely */
+    @Benchmark
+    public boolean authenticateUnknownUser() {
+        return userService.authenticateUser("no-such-user", BenchmarkDatabase.PASSWORD);
+    }
+}
@@ -1,13 +1,20 @@
 package com.aichatapp;
 
-import com.aichatapp.controllers.ClientController;
-import com.aichatapp.models.ChatMessage;
+import com.aichatapp.controllers.AsyncClientController;
+import com.aichatapp.models.Bootstrap;
+import com.aichatapp.models.ChatSession;
+import com.aichatapp.models.HistoryPage;
 import com.aichatapp.views.ChatView;
 import com.aichatapp.views.LoginView;
+import com.google.gson.JsonObject;
 
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Hello world!
@@ -19,10 +26,29 @@ public class App {
     private JPanel cards;
     private LoginView loginView;
     private ChatView chatView;
-    private ClientController controller;
+    // Never blocks: network and disk work happen off the EDT, callbacks run on it
+    private AsyncClientController controller;
+
+    private static final int HISTORY_PAGE_SIZE = 50;
+    // Sessions after the first whose history is downloaded right after login
+    private static final int PREFETCH_SESSIONS = Integer.parseInt(System.getProperty("aichat.prefetchSessions", "5"));
+    // Paging state of the displayed session, only touched on the EDT
+    private int historySessionId = -1;
+    private int historyBeforeId;
+    private boolean historyHasMore;
+    private boolean historyLoading;
+    // A reply is streaming into the transcript
+    private boolean sending;
+    private boolean replyStreamed;
+    private CompletableFuture<String> pendingReply;
+    // The server pushed a change to the displayed session while it could not be shown yet
+    private boolean historyStale;
+    // Syncs of the displayed session run one after another, so no message is shown twice
+    private CompletableFuture<?> historySync = CompletableFuture.completedFuture(null);
 
     public App() {
-        controller = new ClientController();
+        controller = new AsyncClientController();
+        controller.setEventListener(this::handleServerEvent);
         initializeUI();
     }
 
@@ -47,6 +73,8 @@ public class App {
                 e -> handleNewSession(),
                 e -> handleSessionSelection()
         );
+        chatView.setLoadOlderAction(this::loadOlderHistory);
+        chatView.setCancelAction(e -> cancelReply());
 
         cards.add(loginView, "LOGIN");
         cards.add(chatView, "CHAT");
@@ -59,45 +87,62 @@ public class App {
         String username = loginView.getUsername();
         String password = loginView.getPassword();
 
-        if (controller.login(username, password)) {
-            // Load user sessions
-            ArrayList<String> sessions = (ArrayList<String>) controller.getUserSessions();
-            if (sessions.isEmpty()) {
-                // Create a default session if user has none
-                System.out.println("No sessions found for user, creating default session");
-                int sessionId = controller.createNewSession("Default Session");
-                if (sessionId != -1) {
-                    chatView.addSession("Default Session", sessionId); // Pass both name and ID
-                    controller.selectSession(sessionId); // Make sure it's selected
-                    System.out.println("Default session created with ID: " + sessionId);
-                } else {
+        loginView.setBusy(true);
+        // Sessions and the newest messages come with the login
+        controller.bootstrap(username, password, HISTORY_PAGE_SIZE).whenComplete((bootstrap, error) -> {
+            loginView.setBusy(false);
+            if (error != null || bootstrap == null) {
+                JOptionPane.showMessageDialog(frame, "Login failed. Please check your credentials.");
+                return;
+            }
+            // Changes made on the user's other devices show up without polling
+            controller.subscribe();
+            showBootstrap(bootstrap);
+            cardLayout.show(cards, "CHAT");
+        });
+    }
+
+    /**
+     * Fills the session list and shows the most recent session, creating a default session if the user has none
+     */
+    private void showBootstrap(Bootstrap bootstrap) {
+        List<ChatSession> sessions = bootstrap.getSessions();
+        if (sessions.isEmpty()) {
+            System.out.println("No sessions found for user, creating default session");
+            controller.createNewSession("Default Session").thenAccept(sessionId -> {
+                if (sessionId == -1) {
                     System.err.println("Failed to create default session");
+                    return;
                 }
-            } else {
-                // Add all existing sessions to the view
-                System.out.println("Found " + sessions.size() + " existing sessions");
-                for (String sessionName : sessions) {
-                    int sessionId = controller.getSessionIdByName(sessionName);
-                    if (sessionId != -1) {
-                        chatView.addSession(sessionName, sessionId);
-                        System.out.println("Added session: " + sessionName + " with ID: " + sessionId);
-                    } else {
-                        System.err.println("Could not get ID for session: " + sessionName);
-                    }
-                }
+                chatView.addSession("Default Session", sessionId);
+                System.out.println("Default session created with ID: " + sessionId);
+                historySessionId = sessionId;
+            });
+            return;
+        }
 
-                // Select the first session
-                if (!sessions.isEmpty()) {
-                    String firstSession = sessions.get(0);
-                    int sessionId = controller.getSessionIdByName(firstSession);
-                    controller.selectSession(sessionId);
-                    System.out.println("Selected first session: " + firstSession + " with ID: " + sessionId);
-                }
+        System.out.println("Found " + sessions.size() + " existing sessions");
+        List<Integer> prefetch = new ArrayList<>();
+        for (ChatSession session : sessions) {
+            chatView.addSession(session.getName(), session.getId());
+            if (session.getId() != bootstrap.getSessionId() && prefetch.size() < PREFETCH_SESSIONS) {
+                prefetch.add(session.getId());
             }
-            cardLayout.show(cards, "CHAT");
-        } else {
-            JOptionPane.showMessageDialog(frame, "Login failed. Please check your credentials.");
         }
+        // The next sessions open from the cache, fetched in one batch
+        controller.prefetchHistory(prefetch, HISTORY_PAGE_SIZE);
+
+        HistoryPage page = bootstrap.getHistory();
+        if (page == null) {
+            // The cache is behind by more than the page, catch it up the usual way
+            showSession(bootstrap.getSessionId());
+            return;
+        }
+        historySessionId = bootstrap.getSessionId();
+        historyStale = false;
+        chatView.showHistory(page.getMessages());
+        historyBeforeId = page.getBeforeId();
+        historyHasMore = page.hasMore();
     }
 
     private void handleSignup() {
@@ -105,55 +150,258 @@ public class App {
         String email = loginView.getEmail();
         String password = loginView.getPassword();
 
-        if (controller.register(username, email, password)) {
-            JOptionPane.showMessageDialog(frame, "Registration successful. Please login.");
-            cardLayout.show(cards, "LOGIN");
-        } else {
-            JOptionPane.showMessageDialog(frame, "Registration failed. Username or email may already exist.");
-        }
+        loginView.setBusy(true);
+        controller.register(username, email, password).whenComplete((success, error) -> {
+            loginView.setBusy(false);
+            if (error == null && success) {
+                JOptionPane.showMessageDialog(frame, "Registration successful. Please login.");
+                cardLayout.show(cards, "LOGIN");
+            } else {
+                JOptionPane.showMessageDialog(frame, "Registration failed. Username or email may already exist.");
+            }
+        });
     }
 
     private void handleSendMessage() {
         String message = chatView.getInputText();
         if (!message.isEmpty()) {
+            sending = true;
+            replyStreamed = false;
             chatView.appendMessage("You", message);
-            String aiResponse = controller.sendMessage(message);
-            chatView.appendMessage("AI Assistant", aiResponse);
+            chatView.beginMessage("AI Assistant");
+            chatView.setReplyPending(true);
+            chatView.setStatus("Waiting for the reply...");
+
+            int sessionId = historySessionId;
+            AtomicBoolean cancelled = new AtomicBoolean();
+            // Tokens show up as they arrive, all of them before the future completes
+            CompletableFuture<String> reply = controller.sendMessage(message, token -> {
+                replyStreamed = true;
+                chatView.appendToMessage(token);
+            }, () -> {
+                // A cancelled reply is saved only now, and the push about it skips this connection
+                if (cancelled.get() && historySessionId == sessionId && !sending && !historyLoading) {
+                    showSession(sessionId);
+                } else if (cancelled.get()) {
+                    syncHistory(false);
+                }
+            });
+            pendingReply = reply;
+            reply.whenComplete((aiResponse, error) -> {
+                if (error instanceof CancellationException) {
+                    cancelled.set(true);
+                    chatView.appendToMessage(" [cancelled]");
+                } else if (error != null) {
+                    chatView.appendToMessage("Error: Could not get AI response");
+                } else if (!replyStreamed) {
+                    chatView.appendToMessage(aiResponse);
+                }
+                chatView.endMessage();
+                chatView.setReplyPending(false);
+                chatView.setStatus(null);
+                pendingReply = null;
+                sending = false;
+                if (!cancelled.get()) {
+                    // The exchange is shown already, only the cache needs it
+                    syncHistory(false);
+                }
+                refreshIfStale();
+            });
+        }
+    }
+
+    /**
+     * Stops waiting for the reply; the server still finishes it, and the session is reloaded with it then
+     */
+    private void cancelReply() {
+        CompletableFuture<String> reply = pendingReply;
+        if (reply != null) {
+            reply.cancel(false);
         }
     }
 
     private void handleNewSession() {
         String sessionName = JOptionPane.showInputDialog(frame, "Enter session name:");
-        int sessionId = controller.createNewSession(sessionName);
-        if (sessionId != -1) {
-            chatView.addSession(sessionName, sessionId);
-            chatView.clearChat();
-            controller.selectSession(sessionId);
-        }
+        controller.createNewSession(sessionName).thenAccept(sessionId -> {
+            if (sessionId != -1) {
+                chatView.addSession(sessionName, sessionId);
+                chatView.clearChat();
+                historySessionId = sessionId;
+                historyHasMore = false;
+                historyStale = false;
+                controller.selectSession(sessionId);
+            }
+        });
     }
+
     private void handleSessionSelection() {
         int selectedIndex = chatView.getSelectedSessionIndex();
         if (selectedIndex != -1) {
             String sessionName = chatView.getSelectedSessionName();
-            int sessionId = controller.getSessionIdByName(sessionName);
-
-            if (sessionId != -1) {
-                // This line is crucial - ensure the controller knows which session is selected
-                if (controller.selectSession(sessionId)) {
-                    chatView.clearChat();
-
-                    // Load chat history for this session
-                    ArrayList<ChatMessage> history = (ArrayList<ChatMessage>) controller.getChatHistory(sessionId);
-                    for (ChatMessage message : history) {
-                        if (message.isUserMessage()) {
-                            chatView.appendMessage("You", message.getUserMessage());
-                        } else {
-                            chatView.appendMessage("AI Assistant", message.getAiResponse());
+            controller.getSessionIdByName(sessionName).thenAccept(sessionId -> {
+                if (sessionId != -1) {
+                    // This line is crucial - ensure the controller knows which session is selected
+                    controller.selectSession(sessionId).thenAccept(selected -> {
+                        if (selected) {
+                            showSession(sessionId);
                         }
+                    });
+                }
+            });
+        }
+    }
+
+    private void showSession(int sessionId) {
+        chatView.clearChat();
+
+        // Show the cached messages first, then only download what is newer.
+        // Older pages come in as the user scrolls up
+        historySessionId = sessionId;
+        historyHasMore = false;
+        historyLoading = true;
+        historyStale = false;
+        chatView.setStatus("Loading history...");
+        controller.getCachedHistoryPage(sessionId, HISTORY_PAGE_SIZE)
+                .thenCompose(cached -> {
+                    if (historySessionId == sessionId && !cached.getMessages().isEmpty()) {
+                        chatView.showHistory(cached.getMessages());
+                        historyBeforeId = cached.getBeforeId();
+                        historyHasMore = cached.hasMore();
+                    }
+                    return controller.syncHistory(sessionId, HISTORY_PAGE_SIZE)
+                            .thenApply(newer -> new HistoryPage[]{cached, newer});
+                })
+                .whenComplete((pages, error) -> {
+                    if (historySessionId != sessionId) {
+                        return;
                     }
+                    historyLoading = false;
+                    chatView.setStatus(null);
+                    if (error != null) {
+                        return;
+                    }
+                    if (pages[0].getMessages().isEmpty()) {
+                        // Nothing was cached, this is the newest page with its cursor
+                        chatView.showHistory(pages[1].getMessages());
+                        historyBeforeId = pages[1].getBeforeId();
+                        historyHasMore = pages[1].hasMore();
+                    } else {
+                        chatView.appendHistory(pages[1].getMessages());
+                    }
+                    refreshIfStale();
+                });
+    }
+
+    private void loadOlderHistory() {
+        if (historyLoading || !historyHasMore) {
+            return;
+        }
+        int sessionId = historySessionId;
+        historyLoading = true;
+        chatView.setStatus("Loading older messages...");
+        controller.loadOlderHistory(sessionId, historyBeforeId, HISTORY_PAGE_SIZE)
+                .whenComplete((page, error) -> {
+                    // Ignore pages of a session the user already left
+                    if (historySessionId != sessionId) {
+                        return;
+                    }
+                    historyLoading = false;
+                    chatView.setStatus(null);
+                    if (error == null) {
+                        chatView.prependHistory(page.getMessages());
+                        historyBeforeId = page.getBeforeId();
+                        historyHasMore = page.hasMore();
+                    }
+                    refreshIfStale();
+                });
+    }
+
+    /**
+     * A change the server pushed because it was made elsewhere, e.g. on another device
+     */
+    private void handleServerEvent(JsonObject event) {
+        switch (event.get("event").getAsString()) {
+            case "session_created":
+                int sessionId = event.get("sessionId").getAsInt();
+                if (!chatView.hasSession(sessionId)) {
+                    chatView.addSession(event.get("sessionName").getAsString(), sessionId);
                 }
+                break;
+            case "messages_appended":
+                if (event.get("sessionId").getAsInt() == historySessionId) {
+                    refreshHistory();
+                }
+                break;
+            case "resync":
+                // Some events were missed, reload what is shown
+                refreshSessions();
+                refreshHistory();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void refreshSessions() {
+        controller.getUserSessions().thenAccept(names -> {
+            for (String name : names) {
+                // Known to the controller now, answered without a request
+                controller.getSessionIdByName(name).thenAccept(sessionId -> {
+                    if (sessionId != -1 && !chatView.hasSession(sessionId)) {
+                        chatView.addSession(name, sessionId);
+                    }
+                });
+            }
+        });
+    }
+
+    private void refreshHistory() {
+        if (historySessionId <= 0) {
+            return;
+        }
+        if (historyLoading || sending) {
+            // The transcript is changing, shown once that is done
+            historyStale = true;
+            return;
+        }
+        syncHistory(true);
+    }
+
+    private void refreshIfStale() {
+        if (historyStale) {
+            historyStale = false;
+            refreshHistory();
+        }
+    }
+
+    /**
+     * Downloads the displayed session's new messages into the cache
+     * @param show also append them to the transcript; without a cache, reload its newest page instead
+     */
+    private void syncHistory(boolean show) {
+        int sessionId = historySessionId;
+        if (sessionId <= 0) {
+            return;
+        }
+        if (!controller.hasHistoryCache()) {
+            if (show) {
+                controller.getChatHistoryPage(sessionId, 0, HISTORY_PAGE_SIZE).whenComplete((page, error) -> {
+                    if (error == null && historySessionId == sessionId && !historyLoading && !sending) {
+                        chatView.showHistory(page.getMessages());
+                        historyBeforeId = page.getBeforeId();
+                        historyHasMore = page.hasMore();
+                    }
+                });
             }
+            return;
         }
+        historySync = historySync.handle((ignored, error) -> null)
+                .thenCompose(ignored -> controller.syncHistory(sessionId, HISTORY_PAGE_SIZE))
+                .whenComplete((page, error) -> {
+                    if (show && error == null && historySessionId == sessionId) {
+                        chatView.appendHistory(page.getMessages());
+                    }
+                });
     }
 
     public static void main(String[] args) {
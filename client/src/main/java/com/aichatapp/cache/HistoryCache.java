@@ -0,0 +1,313 @@
+package com.aichatapp.cache;
+
+import com.aichatapp.models.ChatMessage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Local on-disk copy of chat history, so opening a session only asks the server for
+ * messages newer than the cached ones.
+ * <p>
+ * Each session is an append-only log file of message records, read into memory the first
+ * time the session is opened; the most recently used sessions stay there, keyed by id.
+ * A session's cache always holds a contiguous run of its messages: newer ones are only
+ * appended after a delta read from the newest cached id, older ones only from a page right
+ * before the oldest cached id, so there is never a hole to fill. Messages never change
+ * once stored, which is what makes this safe without any invalidation.
+ * A record cut off by a crash is dropped, and the log truncated, on the next load; a log
+ * that cannot be truncated is deleted, as records appended after the torn one would be misread.
+ */
+public class HistoryCache {
+    private static final byte MESSAGE = 'M';
+    // The oldest cached message is the first of the session
+    private static final byte START = 'S';
+    private static final int MAX_LOADED_SESSIONS = 32;
+
+    private final Path dir;
+    private final Map<Integer, Session> sessions = new LinkedHashMap<Integer, Session>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Session> eldest) {
+            return size() > MAX_LOADED_SESSIONS;
+        }
+    };
+
+    /**
+     * @param dir directory of this user's session logs, created on the first write
+     */
+    public HistoryCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return the cache of the user configured by aichat.historyCache.*, or null when it is disabled
+     */
+    public static HistoryCache forUser(String username) {
+        if (!Boolean.parseBoolean(System.getProperty("aichat.historyCache.enabled", "true"))) {
+            return null;
+        }
+        Path root = Paths.get(System.getProperty("aichat.historyCache.dir",
+                Paths.get(System.getProperty("user.home"), ".aichat", "history").toString()));
+        // Keep the user's directory name to characters every file system accepts
+        return new HistoryCache(root.resolve(username.replaceAll("[^A-Za-z0-9._-]", "_")));
+    }
+
+    /**
+     * @return the cached messages of the session, oldest first, and whether they reach its start
+     */
+    public synchronized Snapshot get(int sessionId) {
+        Session session = load(sessionId);
+        return new Snapshot(new ArrayList<>(session.messages.values()), session.complete);
+    }
+
+    /**
+     * @return the newest cached message id of the session, 0 when nothing is cached
+     */
+    public synchronized int getNewestId(int sessionId) {
+        Session session = load(sessionId);
+        return session.messages.isEmpty() ? 0 : session.messages.lastKey();
+    }
+
+    /**
+     * @return the oldest cached message id of the session, 0 when nothing is cached
+     */
+    public synchronized int getOldestId(int sessionId) {
+        Session session = load(sessionId);
+        return session.messages.isEmpty() ? 0 : session.messages.firstKey();
+    }
+
+    /**
+     * Stores messages read from the server. They must be contiguous with what is cached:
+     * a delta read after {@link #getNewestId}, or the page right before {@link #getOldestId}.
+     * @param reachedStart true when the server has no messages older than these
+     */
+    public synchronized void add(int sessionId, List<ChatMessage> messages, boolean reachedStart) throws IOException {
+        Session session = load(sessionId);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        List<ChatMessage> added = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            if (!session.messages.containsKey(message.getMessageId())) {
+                writeMessage(out, message);
+                added.add(message);
+            }
+        }
+        boolean markStart = reachedStart && !session.complete;
+        if (markStart) {
+            out.writeByte(START);
+        }
+        if (buffer.size() == 0) {
+            return;
+        }
+        if (session.readOnly) {
+            for (ChatMessage message : added) {
+                session.messages.put(message.getMessageId(), message);
+            }
+            session.complete |= markStart;
+            return;
+        }
+        // One write per call, so a crash loses at most the tail of that call
+        try {
+            Files.createDirectories(dir);
+            try (OutputStream file = Files.newOutputStream(logOf(sessionId),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                buffer.writeTo(file);
+            }
+        } catch (IOException e) {
+            // A later append would leave a hole in the log, start the session over instead
+            sessions.remove(sessionId);
+            Files.deleteIfExists(logOf(sessionId));
+            throw e;
+        }
+        for (ChatMessage message : added) {
+            session.messages.put(message.getMessageId(), message);
+        }
+        session.complete |= markStart;
+    }
+
+    private Path logOf(int sessionId) {
+        return dir.resolve("session-" + sessionId + ".log");
+    }
+
+    private Session load(int sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            session = read(logOf(sessionId));
+            sessions.put(sessionId, session);
+        }
+        return session;
+    }
+
+    private static Session read(Path log) {
+        Session session = new Session();
+        if (!Files.exists(log)) {
+            return session;
+        }
+        long fileLength;
+        try {
+            fileLength = Files.size(log);
+        } catch (IOException e) {
+            return discard(log);
+        }
+        long validLength = 0;
+        try (InputStream file = Files.newInputStream(log);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            while (true) {
+                int type = in.read();
+                if (type == -1) {
+                    break;
+                }
+                long length;
+                if (type == MESSAGE) {
+                    // No text can be longer than what is left of the file
+                    ChatMessage message = readMessage(in, fileLength - validLength);
+                    session.messages.put(message.getMessageId(), message);
+                    length = recordLength(message);
+                } else if (type == START) {
+                    session.complete = true;
+                    length = 1;
+                } else {
+                    throw new IOException("Unknown record type " + type);
+                }
+                validLength += length;
+            }
+            return session;
+        } catch (EOFException e) {
+            // Torn last record: keep the complete ones
+        } catch (IOException e) {
+            // Unreadable from here on, keep what came before
+        }
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(validLength);
+        } catch (IOException e) {
+            // Appends would land behind the torn record, start the session over instead
+            return discard(log);
+        }
+        return session;
+    }
+
+    /**
+     * @return an empty session in place of the deleted log; one that cannot even be deleted
+     * is not appended to, its messages are then only kept in memory
+     */
+    private static Session discard(Path log) {
+        Session session = new Session();
+        try {
+            Files.deleteIfExists(log);
+        } catch (IOException e) {
+            session.readOnly = true;
+        }
+        return session;
+    }
+
+    private static void writeMessage(DataOutputStream out, ChatMessage message) throws IOException {
+        out.writeByte(MESSAGE);
+        out.writeInt(message.getMessageId());
+        out.writeInt(message.getSessionId());
+        out.writeBoolean(message.isUserMessage());
+        LocalDateTime timestamp = message.getTimestamp();
+        out.writeLong(timestamp != null ? timestamp.toEpochSecond(ZoneOffset.UTC) : Long.MIN_VALUE);
+        out.writeInt(timestamp != null ? timestamp.getNano() : 0);
+        writeText(out, message.isUserMessage() ? message.getUserMessage() : message.getAiResponse());
+    }
+
+    private static ChatMessage readMessage(DataInputStream in, long maxTextBytes) throws IOException {
+        int messageId = in.readInt();
+        int sessionId = in.readInt();
+        boolean isUserMessage = in.readBoolean();
+        long seconds = in.readLong();
+        int nanos = in.readInt();
+        String text = readText(in, maxTextBytes);
+        LocalDateTime timestamp = seconds == Long.MIN_VALUE ? null : LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+        return new ChatMessage(messageId, sessionId, isUserMessage ? text : null, isUserMessage ? null : text,
+                isUserMessage, timestamp);
+    }
+
+    // Length prefixed instead of writeUTF, replies can be longer than 64KB
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText(DataInputStream in, long maxBytes) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > maxBytes) {
+            throw new IOException("Bad text length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long recordLength(ChatMessage message) {
+        String text = message.isUserMessage() ? message.getUserMessage() : message.getAiResponse();
+        int textBytes = text == null ? 0 : text.getBytes(StandardCharsets.UTF_8).length;
+        // type, id, session, flag, seconds, nanos, text length, text
+        return 1 + 4 + 4 + 1 + 8 + 4 + 4 + textBytes;
+    }
+
+    /**
+     * In-memory state of one loaded session log
+     */
+    private static class Session {
+        final TreeMap<Integer, ChatMessage> messages = new TreeMap<>();
+        boolean complete;
+        // The log could not be repaired nor deleted, nothing more is written to it
+        boolean readOnly;
+    }
+
+    /**
+     * What the cache holds for one session
+     */
+    public static class Snapshot {
+        private final List<ChatMessage> messages;
+        private final boolean complete;
+
+        Snapshot(List<ChatMessage> messages, boolean complete) {
+            this.messages = Collections.unmodifiableList(messages);
+            this.complete = complete;
+        }
+
+        /**
+         * @return the cached messages, oldest first
+         */
+        public List<ChatMessage> getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return true when no older messages exist on the server
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+}
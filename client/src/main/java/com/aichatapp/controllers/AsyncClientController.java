@@ -0,0 +1,211 @@
+package com.aichatapp.controllers;
+
+import com.aichatapp.models.Bootstrap;
+import com.aichatapp.models.HistoryPage;
+import com.aichatapp.models.SearchPage;
+import com.google.gson.JsonObject;
+
+import javax.net.SocketFactory;
+import javax.swing.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * What the Swing code talks to instead of {@link ClientController}. Every call returns at once:
+ * connecting, writing requests and reading the history cache happen on one I/O thread, in call
+ * order, and results, errors, streamed tokens and pushed events are handed back on the event
+ * dispatch thread, so callbacks can update the UI directly. A future cancelled by the caller
+ * drops whatever arrives for it afterwards.
+ */
+public class AsyncClientController {
+    private final ClientController controller;
+    private final ExecutorService io;
+
+    public AsyncClientController() {
+        this(SocketFactory.getDefault());
+    }
+
+    /**
+     * @param socketFactory creates the connection to the server, used on the I/O thread only
+     */
+    public AsyncClientController(SocketFactory socketFactory) {
+        this.io = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "client-io");
+            t.setDaemon(true);
+            return t;
+        });
+        // The history cache too is only touched on the I/O thread
+        this.controller = new ClientController(socketFactory, io);
+        // First in the queue, the requests behind it go out on the open connection
+        io.execute(controller::open);
+    }
+
+    public CompletableFuture<Boolean> login(String username, String password) {
+        return call(() -> controller.loginAsync(username, password));
+    }
+
+    /**
+     * @see ClientController#bootstrapAsync
+     */
+    public CompletableFuture<Bootstrap> bootstrap(String username, String password, int limit) {
+        return call(() -> controller.bootstrapAsync(username, password, limit));
+    }
+
+    public CompletableFuture<Boolean> register(String username, String email, String password) {
+        return call(() -> controller.registerAsync(username, email, password));
+    }
+
+    public CompletableFuture<Boolean> logout() {
+        return call(controller::logoutAsync);
+    }
+
+    /**
+     * @param onToken receives the streamed reply piece by piece, on the EDT; may be null
+     * @return future with the full reply; cancelling it stops the tokens, the server still finishes and saves the reply
+     */
+    public CompletableFuture<String> sendMessage(String message, Consumer<String> onToken) {
+        return sendMessage(message, onToken, null);
+    }
+
+    /**
+     * @param onFinished runs on the EDT once the server answered, so the reply is saved, even when the
+     *                   returned future was cancelled before; may be null
+     * @see #sendMessage(String, Consumer)
+     */
+    public CompletableFuture<String> sendMessage(String message, Consumer<String> onToken, Runnable onFinished) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        Consumer<String> tokens = onToken == null ? null : token -> SwingUtilities.invokeLater(() -> {
+            if (!reply.isDone()) {
+                onToken.accept(token);
+            }
+        });
+        return call(reply, () -> {
+            CompletableFuture<String> response = controller.sendMessageAsync(message, tokens);
+            if (onFinished != null) {
+                response.whenComplete((aiResponse, error) -> SwingUtilities.invokeLater(onFinished));
+            }
+            return response;
+        });
+    }
+
+    public CompletableFuture<Integer> createNewSession(String sessionName) {
+        return call(() -> controller.createNewSessionAsync(sessionName));
+    }
+
+    public CompletableFuture<List<String>> getUserSessions() {
+        return call(controller::getUserSessionsAsync);
+    }
+
+    public CompletableFuture<Boolean> selectSession(int sessionId) {
+        return call(() -> controller.selectSessionAsync(sessionId));
+    }
+
+    public CompletableFuture<Integer> getSessionIdByName(String sessionName) {
+        return call(() -> controller.getSessionIdByNameAsync(sessionName));
+    }
+
+    public CompletableFuture<HistoryPage> getChatHistoryPage(int sessionId, int beforeId, int limit) {
+        return call(() -> controller.getChatHistoryPageAsync(sessionId, beforeId, limit));
+    }
+
+    /**
+     * @see ClientController#getCachedHistoryPage
+     */
+    public CompletableFuture<HistoryPage> getCachedHistoryPage(int sessionId, int limit) {
+        // Reads the session's log from disk the first time
+        return call(() -> CompletableFuture.completedFuture(controller.getCachedHistoryPage(sessionId, limit)));
+    }
+
+    /**
+     * @see ClientController#syncHistoryAsync
+     */
+    public CompletableFuture<HistoryPage> syncHistory(int sessionId, int limit) {
+        return call(() -> controller.syncHistoryAsync(sessionId, limit));
+    }
+
+    /**
+     * @see ClientController#loadOlderHistoryAsync
+     */
+    public CompletableFuture<HistoryPage> loadOlderHistory(int sessionId, int beforeId, int limit) {
+        return call(() -> controller.loadOlderHistoryAsync(sessionId, beforeId, limit));
+    }
+
+    /**
+     * @see ClientController#prefetchHistoryAsync
+     */
+    public CompletableFuture<Void> prefetchHistory(List<Integer> sessionIds, int limit) {
+        return call(() -> controller.prefetchHistoryAsync(sessionIds, limit));
+    }
+
+    public CompletableFuture<SearchPage> searchMessages(String query, int offset, int limit) {
+        return call(() -> controller.searchMessagesAsync(query, offset, limit));
+    }
+
+    /**
+     * @see ClientController#subscribeAsync
+     */
+    public CompletableFuture<Boolean> subscribe() {
+        return call(controller::subscribeAsync);
+    }
+
+    /**
+     * @param listener receives the events the server pushes once subscribed, on the EDT
+     */
+    public void setEventListener(Consumer<JsonObject> listener) {
+        controller.setEventListener(listener == null ? null
+                : event -> SwingUtilities.invokeLater(() -> listener.accept(event)));
+    }
+
+    public boolean hasHistoryCache() {
+        return controller.hasHistoryCache();
+    }
+
+    /**
+     * Closes the connection for good, after the requests already queued went out
+     */
+    public void close() {
+        io.execute(controller::close);
+        io.shutdown();
+    }
+
+    private <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> request) {
+        return call(new CompletableFuture<>(), request);
+    }
+
+    /**
+     * Sends the request on the I/O thread and completes {@code result} with its outcome on the EDT
+     */
+    private <T> CompletableFuture<T> call(CompletableFuture<T> result, Supplier<CompletableFuture<T>> request) {
+        try {
+            io.execute(() -> {
+                if (result.isDone()) {
+                    // Cancelled before it went out
+                    return;
+                }
+                CompletableFuture<T> response;
+                try {
+                    response = request.get();
+                } catch (RuntimeException e) {
+                    response = CompletableFuture.failedFuture(e);
+                }
+                response.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> {
+                    if (error != null) {
+                        result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error);
+                    } else {
+                        result.complete(value);
+                    }
+                }));
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+}
@@ -1,124 +1,665 @@
 package com.aichatapp.controllers;
 
+import com.aichatapp.cache.HistoryCache;
+import com.aichatapp.models.Bootstrap;
 import com.aichatapp.models.ChatMessage;
+import com.aichatapp.models.ChatSession;
+import com.aichatapp.models.HistoryPage;
+import com.aichatapp.models.SearchPage;
+import com.aichatapp.models.LocalDateTimeAdapter;
+import com.aichatapp.protocol.BinaryJson;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
 
-import java.io.BufferedReader;
+import javax.net.SocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Talks to the server over a single socket.
+ * Every request carries a requestId so several can be in flight at once; a reader
+ * thread matches responses (which may arrive out of order) back to their futures.
+ * Once subscribed, events the server pushes without a requestId go to the event listener.
+ */
 public class ClientController {
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+    // Largest delta page the server sends, see get_history with afterId
+    private static final int DELTA_PAGE_SIZE = 500;
+    // Lets the server answer repeated prompts from its completion cache
+    private static final boolean CACHE_REPLIES = Boolean.parseBoolean(System.getProperty("aichat.cache", "false"));
+
+    private final SocketFactory socketFactory;
+    private volatile Socket socket;
+    private volatile OutputStream out;
+    private InputStream in;
+    private volatile boolean binaryFraming;
     private Gson gson;
-    private String currentUsername;
-    private int currentSessionId = -1;
-
+    private volatile String currentUsername;
+    // Issued at login, lets a new connection resume the login without the password
+    private volatile String authToken;
+    private volatile boolean closed;
+    private volatile int currentSessionId = -1;
+    // Local copy of the logged in user's history, null when disabled
+    private volatile HistoryCache historyCache;
+    // Receives pushed events on the reader thread, null to ignore them
+    private volatile Consumer<JsonObject> eventListener;
+    // Renewed after a reconnect, the server forgets subscriptions with the connection
+    private volatile boolean subscribed;
+
+    private final AtomicInteger nextRequestId = new AtomicInteger(1);
+    private final Map<Integer, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+    private final Map<String, Integer> sessionIdMap = new ConcurrentHashMap<>();
+    // Reads and writes the history cache, off the reader thread that completes the responses
+    private final Executor cacheExecutor;
+
+    /**
+     * Connects right away, on the calling thread
+     */
     public ClientController() {
-        this.gson = new Gson();
-        connectToServer();
+        this(SocketFactory.getDefault());
+        open();
+    }
+
+    /**
+     * Does not connect yet, see {@link #open()}. The history cache is read and written on the common pool.
+     * @param socketFactory creates the connection to the server, and the ones after a reconnect
+     */
+    public ClientController(SocketFactory socketFactory) {
+        this(socketFactory, ForkJoinPool.commonPool());
     }
 
-    private void connectToServer() {
+    /**
+     * Does not connect yet, see {@link #open()}
+     * @param socketFactory creates the connection to the server, and the ones after a reconnect
+     * @param cacheExecutor where the history cache is read and written once a response arrived
+     */
+    public ClientController(SocketFactory socketFactory, Executor cacheExecutor) {
+        this.socketFactory = socketFactory;
+        this.cacheExecutor = cacheExecutor;
+        this.gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .create();
+    }
+
+    /**
+     * Connects and negotiates the framing, blocking until the server answered.
+     * Requests sent before it fail with "Not connected to server".
+     */
+    public void open() {
         try {
-            socket = new Socket("localhost", 8080);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            connect();
         } catch (IOException e) {
             e.printStackTrace();
+            out = null;
         }
     }
 
-    public boolean login(String username, String password) {
+    private void connect() throws IOException {
+        socket = socketFactory.createSocket("localhost", 8080);
+        in = new BufferedInputStream(socket.getInputStream());
+        OutputStream stream = new BufferedOutputStream(socket.getOutputStream());
+        binaryFraming = false;
+        negotiateFraming(stream);
+        // Only now visible to senders, nothing may go out before the handshake is answered
+        out = stream;
+
+        Thread reader = new Thread(this::readResponses, "server-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Reader thread, once the connection dropped: reconnects with a jittered, growing delay,
+     * so clients cut off together do not all come back in the same instant, then resumes
+     * the login with the token instead of the password
+     */
+    private void reconnect() {
+        out = null;
+        long delayMs = 1_000;
+        while (!closed) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(delayMs / 2, delayMs + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                connect();
+                System.out.println("Reconnected to server");
+                break;
+            } catch (IOException e) {
+                out = null;
+                delayMs = Math.min(delayMs * 2, 30_000);
+            }
+        }
+        if (!closed && authToken != null) {
+            resumeAsync().thenAccept(resumed -> {
+                if (resumed && subscribed) {
+                    resubscribe();
+                }
+            });
+        }
+    }
+
+    private void resubscribe() {
+        subscribeAsync().thenAccept(success -> {
+            Consumer<JsonObject> listener = eventListener;
+            if (success && listener != null) {
+                // Whatever was pushed while disconnected is lost, have the listener reload
+                JsonObject resync = new JsonObject();
+                resync.addProperty("type", "event");
+                resync.addProperty("event", "resync");
+                listener.accept(resync);
+            }
+        });
+    }
+
+    /**
+     * Restores the login on the current connection from the token of the last one
+     * @return future with true when the server accepted the token
+     */
+    public CompletableFuture<Boolean> resumeAsync() {
+        String token = authToken;
+        if (token == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        JsonObject request = new JsonObject();
+        request.addProperty("action", "resume");
+        request.addProperty("authToken", token);
+        return sendRequest(request, null).thenApply(response -> {
+            if (isSuccess(response)) {
+                currentUsername = response.get("username").getAsString();
+                return true;
+            }
+            System.err.println("Could not resume login, please log in again");
+            authToken = null;
+            return false;
+        });
+    }
+
+    /**
+     * Offers binary framing before anything else is sent. Servers that do not know
+     * the hello action answer with an error and the connection stays on JSON lines.
+     */
+    private void negotiateFraming(OutputStream stream) throws IOException {
+        if (!Boolean.parseBoolean(System.getProperty("aichat.protocol.binary", "true"))) {
+            return;
+        }
+        JsonObject hello = new JsonObject();
+        hello.addProperty("action", "hello");
+        JsonArray formats = new JsonArray();
+        formats.add(BinaryJson.FORMAT);
+        formats.add("json");
+        hello.add("formats", formats);
+        writeLine(stream, gson.toJson(hello));
+
+        String line = readLine();
+        if (line == null) {
+            throw new IOException("Connection closed during handshake");
+        }
+        JsonObject response = gson.fromJson(line, JsonObject.class);
+        binaryFraming = isSuccess(response) && response.has("format")
+                && BinaryJson.FORMAT.equals(response.get("format").getAsString());
+        System.out.println("Connected using " + (binaryFraming ? "binary frames" : "JSON lines"));
+    }
+
+    /**
+     * Reader thread: routes each incoming message to the request it answers
+     */
+    private void readResponses() {
+        try {
+            JsonObject frame;
+            while ((frame = readMessage()) != null) {
+                if (frame.has("type") && "event".equals(frame.get("type").getAsString())) {
+                    onEvent(frame);
+                    continue;
+                }
+                if (!frame.has("requestId")) {
+                    System.err.println("Dropping response without requestId: " + frame);
+                    continue;
+                }
+
+                int requestId = frame.get("requestId").getAsInt();
+                if (frame.has("type") && "token".equals(frame.get("type").getAsString())) {
+                    PendingRequest pending = pendingRequests.get(requestId);
+                    if (pending != null && pending.onToken != null) {
+                        pending.onToken.accept(frame.get("delta").getAsString());
+                    }
+                    continue;
+                }
+
+                PendingRequest pending = pendingRequests.remove(requestId);
+                if (pending != null) {
+                    pending.future.complete(frame);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        failPendingRequests(new IOException("Connection to server closed"));
+        reconnect();
+    }
+
+    private void onEvent(JsonObject event) {
+        if ("session_created".equals(event.get("event").getAsString()) && event.has("sessionName")) {
+            // Lets getSessionIdByName find the new session without asking the server
+            sessionIdMap.put(event.get("sessionName").getAsString(), event.get("sessionId").getAsInt());
+        }
+        Consumer<JsonObject> listener = eventListener;
+        if (listener != null) {
+            listener.accept(event);
+        }
+    }
+
+    /**
+     * @return the next message from the server, or null once the connection is closed
+     */
+    private JsonObject readMessage() throws IOException {
+        while (true) {
+            if (binaryFraming) {
+                byte[] payload = readFrame();
+                return payload == null ? null : BinaryJson.decodeObject(gson, payload);
+            }
+            String line = readLine();
+            if (line == null) {
+                return null;
+            }
+            JsonObject message = gson.fromJson(line, JsonObject.class);
+            if (message != null) {
+                return message;
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() >= MAX_MESSAGE_BYTES) {
+                throw new IOException("Response exceeds " + MAX_MESSAGE_BYTES + " bytes");
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private byte[] readFrame() throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int length;
+        try {
+            length = data.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > MAX_MESSAGE_BYTES) {
+            throw new IOException("Frame of " + length + " bytes exceeds " + MAX_MESSAGE_BYTES + " bytes");
+        }
+        byte[] payload = new byte[length];
+        data.readFully(payload);
+        return payload;
+    }
+
+    private void writeLine(OutputStream stream, String line) throws IOException {
+        synchronized (stream) {
+            stream.write(line.getBytes(StandardCharsets.UTF_8));
+            stream.write('\n');
+            stream.flush();
+        }
+    }
+
+    private void failPendingRequests(Throwable cause) {
+        for (Integer requestId : pendingRequests.keySet()) {
+            PendingRequest pending = pendingRequests.remove(requestId);
+            if (pending != null) {
+                pending.future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Sends a request without waiting for earlier ones to be answered
+     * @param onToken receives streamed reply pieces, may be null
+     * @return future completed with the server's response object
+     */
+    public CompletableFuture<JsonObject> sendRequest(JsonObject request, Consumer<String> onToken) {
+        int requestId = nextRequestId.getAndIncrement();
+        request.addProperty("requestId", requestId);
+
+        CompletableFuture<JsonObject> future = new CompletableFuture<>();
+        // Read once, a reconnect may swap the stream
+        OutputStream stream = out;
+        if (stream == null) {
+            future.completeExceptionally(new IOException("Not connected to server"));
+            return future;
+        }
+        pendingRequests.put(requestId, new PendingRequest(future, onToken));
+
+        try {
+            if (binaryFraming) {
+                byte[] payload = BinaryJson.encode(gson, request);
+                synchronized (stream) {
+                    new DataOutputStream(stream).writeInt(payload.length);
+                    stream.write(payload);
+                    stream.flush();
+                }
+            } else {
+                writeLine(stream, gson.toJson(request));
+            }
+        } catch (IOException e) {
+            pendingRequests.remove(requestId);
+            future.completeExceptionally(new IOException("Failed to send request", e));
+        }
+        return future;
+    }
+
+    /**
+     * Sends independent reads as one batch request, which the server answers with one response
+     * @return the response to each request, in their order. An older server, or one taking fewer
+     * requests per batch, gets them one by one; any other failure of the batch, such as a busy
+     * server, is the response to each of them.
+     */
+    public CompletableFuture<List<JsonObject>> sendBatchAsync(List<JsonObject> requests) {
+        JsonArray items = new JsonArray();
+        for (JsonObject request : requests) {
+            items.add(request);
+        }
+        JsonObject batch = new JsonObject();
+        batch.addProperty("action", "batch");
+        batch.add("requests", items);
+
+        return sendRequest(batch, null).thenCompose(response -> {
+            if (isSuccess(response)) {
+                List<JsonObject> responses = new ArrayList<>();
+                for (JsonElement item : response.getAsJsonArray("responses")) {
+                    responses.add(item.getAsJsonObject());
+                }
+                return CompletableFuture.completedFuture(responses);
+            }
+            if (!isBatchUnsupported(response)) {
+                return CompletableFuture.completedFuture(Collections.nCopies(requests.size(), response));
+            }
+            List<CompletableFuture<JsonObject>> each = new ArrayList<>();
+            for (JsonObject request : requests) {
+                each.add(sendRequest(request, null));
+            }
+            return CompletableFuture.allOf(each.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+                List<JsonObject> responses = new ArrayList<>();
+                for (CompletableFuture<JsonObject> future : each) {
+                    responses.add(future.join());
+                }
+                return responses;
+            });
+        });
+    }
+
+    /**
+     * @return whether the server does not know batches or takes fewer requests per batch
+     */
+    private static boolean isBatchUnsupported(JsonObject response) {
+        String error = errorOf(response);
+        return error.equals("Unknown action") || error.startsWith("Batch too large");
+    }
+
+    private static String errorOf(JsonObject response) {
+        return response.has("error") ? response.get("error").getAsString() : "unknown error";
+    }
+
+    private static boolean isSuccess(JsonObject response) {
+        return response.has("success") && response.get("success").getAsBoolean();
+    }
+
+    /**
+     * Waits for an async call, used by the blocking variants below
+     */
+    private static <T> T await(CompletableFuture<T> future, T fallback) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+        return fallback;
+    }
+
+    public CompletableFuture<Boolean> loginAsync(String username, String password) {
         JsonObject request = new JsonObject();
         request.addProperty("action", "login");
         request.addProperty("username", username);
         request.addProperty("password", password);
 
-        out.println(gson.toJson(request));
-
-        try {
-            String response = in.readLine();
-            JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
-            if (jsonResponse.get("success").getAsBoolean()) {
+        System.out.println("Sending login: User=" + username);
+        return sendRequest(request, null).thenApply(response -> {
+            if (isSuccess(response)) {
                 currentUsername = username;
-
-                System.out.println("Sending login: User=" + username);
+                authToken = response.has("authToken") ? response.get("authToken").getAsString() : null;
+                historyCache = HistoryCache.forUser(username);
                 return true;
             }
+            return false;
+        });
+    }
+
+    public boolean login(String username, String password) {
+        return await(loginAsync(username, password), false);
+    }
+
+    /**
+     * Logs in and gets the session list and the newest {@code limit} messages of the most recent
+     * session in one round trip; that session is selected. The page goes into the history cache
+     * when it continues what is cached there.
+     * @return null when the login failed
+     */
+    public CompletableFuture<Bootstrap> bootstrapAsync(String username, String password, int limit) {
+        JsonObject request = new JsonObject();
+        request.addProperty("action", "bootstrap");
+        request.addProperty("username", username);
+        request.addProperty("password", password);
+        request.addProperty("limit", limit);
+
+        System.out.println("Sending bootstrap: User=" + username);
+        // On the cache executor, the cache is read from disk
+        return sendRequest(request, null).thenApplyAsync(response -> {
+            if (!isSuccess(response)) {
+                return null;
+            }
+            currentUsername = username;
+            authToken = response.has("authToken") ? response.get("authToken").getAsString() : null;
+            HistoryCache cache = HistoryCache.forUser(username);
+            historyCache = cache;
+
+            Type sessionsType = new TypeToken<ArrayList<ChatSession>>(){}.getType();
+            List<ChatSession> sessions = gson.fromJson(response.get("sessions"), sessionsType);
+            for (ChatSession session : sessions) {
+                sessionIdMap.put(session.getName(), session.getId());
+            }
+            if (!response.has("sessionId")) {
+                return new Bootstrap(sessions, -1, null);
+            }
+
+            int sessionId = response.get("sessionId").getAsInt();
+            currentSessionId = sessionId;
+            Type listType = new TypeToken<ArrayList<ChatMessage>>(){}.getType();
+            List<ChatMessage> messages = gson.fromJson(response.get("history"), listType);
+            boolean hasMore = response.has("hasMore") && response.get("hasMore").getAsBoolean();
+            int cursor = response.has("beforeId") ? response.get("beforeId").getAsInt() : 0;
+            HistoryPage page = new HistoryPage(messages, hasMore, cursor);
+            return new Bootstrap(sessions, sessionId, cache != null ? merge(cache, sessionId, page, limit) : page);
+        }, cacheExecutor);
+    }
+
+    public Bootstrap bootstrap(String username, String password, int limit) {
+        return await(bootstrapAsync(username, password, limit), null);
+    }
+
+    /**
+     * Adds the newest page to the session's cache unless messages between the two may be missing
+     * @return the newest cached page, or null when there may be a gap, for {@link #syncHistoryAsync} to fill
+     */
+    private HistoryPage merge(HistoryCache cache, int sessionId, HistoryPage page, int limit) {
+        List<ChatMessage> messages = page.getMessages();
+        int newestId = cache.getNewestId(sessionId);
+        if (newestId == 0) {
+            store(cache, sessionId, messages, !page.hasMore());
+            return page;
+        }
+        // Overlapping the cached messages, or the whole session
+        if (page.hasMore() && (messages.isEmpty() || messages.get(0).getMessageId() > newestId)) {
+            return null;
+        }
+        store(cache, sessionId, messages, !page.hasMore());
+        return getCachedHistoryPage(sessionId, limit);
+    }
+
+    /**
+     * Forgets the login and has the server revoke its token
+     */
+    public CompletableFuture<Boolean> logoutAsync() {
+        String token = authToken;
+        authToken = null;
+        currentUsername = null;
+        subscribed = false;
+        if (token == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        JsonObject request = new JsonObject();
+        request.addProperty("action", "logout");
+        request.addProperty("authToken", token);
+        return sendRequest(request, null).thenApply(ClientController::isSuccess);
+    }
+
+    /**
+     * @param listener receives the events the server pushes once subscribed, e.g. {"type":"event",
+     * "event":"messages_appended","sessionId":7}; called on the reader thread, so it must not block
+     */
+    public void setEventListener(Consumer<JsonObject> listener) {
+        this.eventListener = listener;
+    }
+
+    /**
+     * Asks the server to push changes made to the user's chats from elsewhere: session_created,
+     * messages_appended and resync, the last when events were dropped. Renewed after a reconnect.
+     * @return future with true when the server accepted the subscription
+     */
+    public CompletableFuture<Boolean> subscribeAsync() {
+        JsonObject request = new JsonObject();
+        request.addProperty("action", "subscribe");
+        request.addProperty("username", currentUsername);
+
+        return sendRequest(request, null).thenApply(response -> {
+            boolean success = isSuccess(response);
+            subscribed |= success;
+            return success;
+        });
+    }
+
+    /**
+     * Closes the connection for good, no reconnect follows
+     */
+    public void close() {
+        closed = true;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return false;
     }
 
-    public boolean register(String username, String email, String password) {
+    public CompletableFuture<Boolean> registerAsync(String username, String email, String password) {
         JsonObject request = new JsonObject();
         request.addProperty("action", "register");
         request.addProperty("username", username);
         request.addProperty("email", email);
         request.addProperty("password", password);
 
-        out.println(gson.toJson(request));
-
         System.out.println("Sending registration: " +
                 "User=" + username + ", Email=" + email);
 
+        return sendRequest(request, null).thenApply(ClientController::isSuccess);
+    }
 
-
-        try {
-            String response = in.readLine();
-            JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
-            return jsonResponse.get("success").getAsBoolean();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return false;
+    public boolean register(String username, String email, String password) {
+        return await(registerAsync(username, email, password), false);
     }
 
-    public String sendMessage(String message) {
+    /**
+     * Sends a chat message to the currently selected session
+     * @param onToken when not null the server streams the reply and every piece is passed here as it arrives
+     * @return future with the full AI reply
+     */
+    public CompletableFuture<String> sendMessageAsync(String message, Consumer<String> onToken) {
         System.out.println("Sending message with session ID: " + currentSessionId);
 
+        CompletableFuture<Integer> session;
         if (currentSessionId == -1) {
             System.out.println("No session selected, creating new one");
-            createNewSession("New Chat");
+            session = createNewSessionAsync("New Chat");
+        } else {
+            session = CompletableFuture.completedFuture(currentSessionId);
         }
 
-        JsonObject request = new JsonObject();
-        request.addProperty("action", "send_message");
-        request.addProperty("sessionId", currentSessionId);
-        request.addProperty("message", message);
+        return session.thenCompose(sessionId -> {
+            JsonObject request = new JsonObject();
+            request.addProperty("action", "send_message");
+            request.addProperty("sessionId", sessionId);
+            request.addProperty("message", message);
+            if (onToken != null) {
+                request.addProperty("stream", true);
+            }
+            if (CACHE_REPLIES) {
+                request.addProperty("cache", true);
+            }
+            return sendRequest(request, onToken);
+        }).thenApply(response -> isSuccess(response)
+                ? response.get("aiResponse").getAsString()
+                : "Error: Could not get AI response");
+    }
 
-        out.println(gson.toJson(request));
+    public String sendMessage(String message) {
+        return sendMessage(message, null);
+    }
 
-        try {
-            String response = in.readLine();
-            JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
-            if (jsonResponse.get("success").getAsBoolean()) {
-                return jsonResponse.get("aiResponse").getAsString();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return "Error: Could not get AI response";
+    public String sendMessage(String message, Consumer<String> onToken) {
+        return await(sendMessageAsync(message, onToken), "Error: Could not get AI response");
     }
 
-    public int createNewSession(String sessionName) {
+    public CompletableFuture<Integer> createNewSessionAsync(String sessionName) {
         if (currentUsername == null || currentUsername.isEmpty()) {
             System.err.println("Cannot create session: Not logged in");
-            return -1;
+            return CompletableFuture.completedFuture(-1);
         }
 
         JsonObject request = new JsonObject();
@@ -126,27 +667,24 @@ public class ClientController {
         request.addProperty("username", currentUsername);
         request.addProperty("sessionName", sessionName);
 
-        System.out.println("sending create sess json for user: to server    " + currentUsername);//debug
-        out.println(gson.toJson(request));
-
-        try {
-            String response = in.readLine();
-            JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
-            System.out.println("Sess creation response: " + jsonResponse.toString());//debug
-            if (jsonResponse.get("success").getAsBoolean()) {
-                currentSessionId = jsonResponse.get("sessionId").getAsInt();
+        return sendRequest(request, null).thenApply(response -> {
+            if (isSuccess(response)) {
+                currentSessionId = response.get("sessionId").getAsInt();
+                sessionIdMap.put(sessionName, currentSessionId);
                 return currentSessionId;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return -1;
+            return -1;
+        });
     }
-    private Map<String, Integer> sessionIdMap = new HashMap<>();
-    public List<String> getUserSessions() {
+
+    public int createNewSession(String sessionName) {
+        return await(createNewSessionAsync(sessionName), -1);
+    }
+
+    public CompletableFuture<List<String>> getUserSessionsAsync() {
         if (currentUsername == null || currentUsername.isEmpty()) {
             System.err.println("Cannot get sessions: Not logged in");
-            return new ArrayList<>();
+            return CompletableFuture.completedFuture(new ArrayList<>());
         }
 
         JsonObject request = new JsonObject();
@@ -154,16 +692,11 @@ public class ClientController {
         request.addProperty("username", currentUsername);
 
         System.out.println("Sending get_sessions request for user: " + currentUsername);
-        out.println(gson.toJson(request));
-
-        try {
-            String response = in.readLine();
-            System.out.println("Received get_sessions response: " + response);
-            JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
-            if (jsonResponse.get("success").getAsBoolean()) {
+        return sendRequest(request, null).thenApply(response -> {
+            List<String> sessionNames = new ArrayList<>();
+            if (isSuccess(response)) {
                 // Server returns an array of JsonObjects, not just names
-                JsonArray sessionsArray = jsonResponse.getAsJsonArray("sessions");
-                List<String> sessionNames = new ArrayList<>();
+                JsonArray sessionsArray = response.getAsJsonArray("sessions");
 
                 // Extract session names and store session IDs
                 for (int i = 0; i < sessionsArray.size(); i++) {
@@ -175,37 +708,34 @@ public class ClientController {
                     sessionIdMap.put(sessionName, sessionId);
                     sessionNames.add(sessionName);
                 }
-
-                return sessionNames;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return new ArrayList<>();
+            return sessionNames;
+        });
     }
 
-    public boolean selectSession(int sessionId) {
+    public List<String> getUserSessions() {
+        return await(getUserSessionsAsync(), new ArrayList<>());
+    }
+
+    public CompletableFuture<Boolean> selectSessionAsync(int sessionId) {
         currentSessionId = sessionId;
 
         JsonObject request = new JsonObject();
         request.addProperty("action", "select_session");
         request.addProperty("sessionId", sessionId);
 
-        out.println(gson.toJson(request));
+        return sendRequest(request, null).thenApply(ClientController::isSuccess);
+    }
 
-        try {
-            String response = in.readLine();
-            JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
-            return jsonResponse.get("success").getAsBoolean();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return false;
+    public boolean selectSession(int sessionId) {
+        return await(selectSessionAsync(sessionId), false);
     }
-    public int getSessionIdByName(String sessionName) {
+
+    public CompletableFuture<Integer> getSessionIdByNameAsync(String sessionName) {
         // check locally
-        if (sessionIdMap.containsKey(sessionName)) {
-            return sessionIdMap.get(sessionName);
+        Integer cached = sessionIdMap.get(sessionName);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
         }
 
         // Otherwise query the server
@@ -214,42 +744,254 @@ public class ClientController {
         request.addProperty("username", currentUsername);
         request.addProperty("sessionName", sessionName);
 
-        out.println(gson.toJson(request));
-
-        try {
-            String response = in.readLine();
-            JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
-            if (jsonResponse.get("success").getAsBoolean()) {
-                int sessionId = jsonResponse.get("sessionId").getAsInt();
+        return sendRequest(request, null).thenApply(response -> {
+            if (isSuccess(response)) {
+                int sessionId = response.get("sessionId").getAsInt();
                 // Cache it for future use
                 sessionIdMap.put(sessionName, sessionId);
                 return sessionId;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return -1;
+            return -1;
+        });
+    }
+
+    public int getSessionIdByName(String sessionName) {
+        return await(getSessionIdByNameAsync(sessionName), -1);
+    }
+
+    public CompletableFuture<List<ChatMessage>> getChatHistoryAsync(int sessionId) {
+        JsonObject request = new JsonObject();
+        request.addProperty("action", "get_history");
+        request.addProperty("sessionId", sessionId);
+
+        return sendRequest(request, null).thenApply(response -> {
+            if (isSuccess(response)) {
+                JsonElement historyElement = response.get("history");
+                Type listType = new TypeToken<ArrayList<ChatMessage>>(){}.getType();
+                return gson.fromJson(historyElement, listType);
+            }
+            return new ArrayList<>();
+        });
     }
 
     public List<ChatMessage> getChatHistory(int sessionId) {
+        return await(getChatHistoryAsync(sessionId), new ArrayList<>());
+    }
+
+    /**
+     * Loads up to {@code limit} messages older than {@code beforeId}
+     * @param beforeId cursor from the previous page, 0 for the newest messages
+     * @return future with the page, failed with an IOException when the server could not answer it
+     */
+    public CompletableFuture<HistoryPage> getChatHistoryPageAsync(int sessionId, int beforeId, int limit) {
         JsonObject request = new JsonObject();
         request.addProperty("action", "get_history");
         request.addProperty("sessionId", sessionId);
+        request.addProperty("limit", limit);
+        if (beforeId > 0) {
+            request.addProperty("beforeId", beforeId);
+        }
 
-        out.println(gson.toJson(request));
+        return sendRequest(request, null).thenApply(response -> {
+            if (isSuccess(response)) {
+                Type listType = new TypeToken<ArrayList<ChatMessage>>(){}.getType();
+                List<ChatMessage> messages = gson.fromJson(response.get("history"), listType);
+                boolean hasMore = response.has("hasMore") && response.get("hasMore").getAsBoolean();
+                int cursor = response.has("beforeId") ? response.get("beforeId").getAsInt() : 0;
+                return new HistoryPage(messages, hasMore, cursor);
+            }
+            // Not an empty page: that would tell the cache the session starts here
+            throw new CompletionException(new IOException("History not loaded: " + errorOf(response)));
+        });
+    }
 
-        try {
-            String response = in.readLine();
-            JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
-            if (jsonResponse.get("success").getAsBoolean()) {
-                JsonElement historyElement = jsonResponse.get("history");
-                Type listType = new TypeToken<List<ChatMessage>>(){}.getType();
-                return gson.fromJson(historyElement, listType);
+    /**
+     * @return true when history is cached locally, so {@link #syncHistoryAsync} downloads only newer messages
+     */
+    public boolean hasHistoryCache() {
+        return historyCache != null;
+    }
+
+    /**
+     * @return the newest cached messages of the session, read from disk the first time; empty without a cache
+     */
+    public HistoryPage getCachedHistoryPage(int sessionId, int limit) {
+        HistoryCache cache = historyCache;
+        if (cache == null) {
+            return new HistoryPage(new ArrayList<>(), false, 0);
+        }
+        HistoryCache.Snapshot snapshot = cache.get(sessionId);
+        return olderPage(snapshot, snapshot.getMessages().size(), limit);
+    }
+
+    /**
+     * Brings the session's cache up to date with the server. When something is cached only
+     * the messages after the newest cached one are downloaded; otherwise the newest page is.
+     * @return the downloaded messages, oldest first; for an empty cache with the page's cursor
+     */
+    public CompletableFuture<HistoryPage> syncHistoryAsync(int sessionId, int limit) {
+        HistoryCache cache = historyCache;
+        int newestId = cache != null ? cache.getNewestId(sessionId) : 0;
+        if (newestId == 0) {
+            return getChatHistoryPageAsync(sessionId, 0, limit).thenApplyAsync(page -> {
+                store(cache, sessionId, page.getMessages(), !page.hasMore());
+                return page;
+            }, cacheExecutor);
+        }
+        return fetchAfter(cache, sessionId, newestId, new ArrayList<>())
+                .thenApply(newer -> new HistoryPage(newer, false, 0));
+    }
+
+    /**
+     * Delta reads until the server has nothing newer, each page stored as it arrives
+     */
+    private CompletableFuture<List<ChatMessage>> fetchAfter(HistoryCache cache, int sessionId, int afterId,
+                                                           List<ChatMessage> collected) {
+        JsonObject request = new JsonObject();
+        request.addProperty("action", "get_history");
+        request.addProperty("sessionId", sessionId);
+        request.addProperty("afterId", afterId);
+        request.addProperty("limit", DELTA_PAGE_SIZE);
+
+        return sendRequest(request, null).thenComposeAsync(response -> {
+            if (!isSuccess(response)) {
+                return CompletableFuture.completedFuture(collected);
+            }
+            Type listType = new TypeToken<ArrayList<ChatMessage>>(){}.getType();
+            List<ChatMessage> page = gson.fromJson(response.get("history"), listType);
+            boolean hasMore = response.has("hasMore") && response.get("hasMore").getAsBoolean();
+            store(cache, sessionId, page, false);
+            collected.addAll(page);
+            if (hasMore && !page.isEmpty()) {
+                return fetchAfter(cache, sessionId, page.get(page.size() - 1).getMessageId(), collected);
+            }
+            return CompletableFuture.completedFuture(collected);
+        }, cacheExecutor);
+    }
+
+    /**
+     * The page before {@code beforeId}: from the cache when it holds those messages,
+     * otherwise from the server, and then cached
+     */
+    public CompletableFuture<HistoryPage> loadOlderHistoryAsync(int sessionId, int beforeId, int limit) {
+        HistoryCache cache = historyCache;
+        if (cache == null) {
+            return getChatHistoryPageAsync(sessionId, beforeId, limit);
+        }
+        HistoryCache.Snapshot snapshot = cache.get(sessionId);
+        List<ChatMessage> cached = snapshot.getMessages();
+        int end = 0;
+        while (end < cached.size() && cached.get(end).getMessageId() < beforeId) {
+            end++;
+        }
+        if (end > 0) {
+            return CompletableFuture.completedFuture(olderPage(snapshot, end, limit));
+        }
+        // Only a page right before the oldest cached message keeps the cache contiguous
+        boolean cacheable = !cached.isEmpty() && cached.get(0).getMessageId() == beforeId;
+        return getChatHistoryPageAsync(sessionId, beforeId, limit).thenApplyAsync(page -> {
+            if (cacheable) {
+                store(cache, sessionId, page.getMessages(), !page.hasMore());
+            }
+            return page;
+        }, cacheExecutor);
+    }
+
+    /**
+     * Brings the cache of several sessions up to date with one batch request, so opening them
+     * later downloads nothing: the newest page of a session with nothing cached, the messages
+     * after the newest cached one otherwise. Nothing to do without a cache.
+     */
+    public CompletableFuture<Void> prefetchHistoryAsync(List<Integer> sessionIds, int limit) {
+        HistoryCache cache = historyCache;
+        if (cache == null || sessionIds.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<JsonObject> requests = new ArrayList<>();
+        int[] newestIds = new int[sessionIds.size()];
+        for (int i = 0; i < sessionIds.size(); i++) {
+            newestIds[i] = cache.getNewestId(sessionIds.get(i));
+            JsonObject request = new JsonObject();
+            request.addProperty("action", "get_history");
+            request.addProperty("sessionId", sessionIds.get(i));
+            if (newestIds[i] > 0) {
+                request.addProperty("afterId", newestIds[i]);
+                request.addProperty("limit", DELTA_PAGE_SIZE);
+            } else {
+                request.addProperty("limit", limit);
+            }
+            requests.add(request);
+        }
+
+        return sendBatchAsync(requests).thenAcceptAsync(responses -> {
+            Type listType = new TypeToken<ArrayList<ChatMessage>>(){}.getType();
+            for (int i = 0; i < responses.size(); i++) {
+                JsonObject response = responses.get(i);
+                if (!isSuccess(response)) {
+                    continue;
+                }
+                List<ChatMessage> messages = gson.fromJson(response.get("history"), listType);
+                boolean hasMore = response.has("hasMore") && response.get("hasMore").getAsBoolean();
+                // A delta page starts at the cached tail even when more follow; a newest page may reach the start
+                store(cache, sessionIds.get(i), messages, newestIds[i] == 0 && !hasMore);
             }
+        }, cacheExecutor);
+    }
+
+    /**
+     * @return up to {@code limit} cached messages ending before index {@code end}, with the cursor to continue from
+     */
+    private static HistoryPage olderPage(HistoryCache.Snapshot snapshot, int end, int limit) {
+        List<ChatMessage> messages = snapshot.getMessages();
+        int start = Math.max(0, end - limit);
+        List<ChatMessage> page = new ArrayList<>(messages.subList(start, end));
+        boolean hasMore = start > 0 || !snapshot.isComplete();
+        return new HistoryPage(page, hasMore, page.isEmpty() ? 0 : page.get(0).getMessageId());
+    }
+
+    private static void store(HistoryCache cache, int sessionId, List<ChatMessage> messages, boolean reachedStart) {
+        if (cache == null) {
+            return;
+        }
+        try {
+            cache.add(sessionId, messages, reachedStart);
         } catch (IOException e) {
-            e.printStackTrace();
+            // The cache dropped the session, the next open downloads it again
+            System.err.println("Could not write history cache: " + e.getMessage());
         }
-        return new ArrayList<>();
     }
 
-}
\ No newline at end of file
+    /**
+     * Full-text search over all of the user's sessions
+     * @param offset matches to skip, 0 for the best ones
+     */
+    public CompletableFuture<SearchPage> searchMessagesAsync(String query, int offset, int limit) {
+        JsonObject request = new JsonObject();
+        request.addProperty("action", "search_messages");
+        request.addProperty("username", currentUsername);
+        request.addProperty("query", query);
+        request.addProperty("offset", offset);
+        request.addProperty("limit", limit);
+
+        return sendRequest(request, null).thenApply(response -> {
+            if (isSuccess(response)) {
+                Type listType = new TypeToken<ArrayList<ChatMessage>>(){}.getType();
+                List<ChatMessage> messages = gson.fromJson(response.get("results"), listType);
+                int total = response.has("total") ? response.get("total").getAsInt() : messages.size();
+                boolean hasMore = response.has("hasMore") && response.get("hasMore").getAsBoolean();
+                return new SearchPage(messages, total, hasMore);
+            }
+            return new SearchPage(new ArrayList<>(), 0, false);
+        });
+    }
+
+    private static class PendingRequest {
+        final CompletableFuture<JsonObject> future;
+        final Consumer<String> onToken;
+
+        PendingRequest(CompletableFuture<JsonObject> future, Consumer<String> onToken) {
+            this.future = future;
+            this.onToken = onToken;
+        }
+    }
+}
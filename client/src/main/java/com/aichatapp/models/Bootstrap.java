@@ -0,0 +1,39 @@
+package com.aichatapp.models;
+
+import java.util.List;
+
+/**
+ * What a successful bootstrap login answers with: the user's sessions and the start of the most recent one
+ */
+public class Bootstrap {
+    private final List<ChatSession> sessions;
+    private final int sessionId;
+    private final HistoryPage history;
+
+    public Bootstrap(List<ChatSession> sessions, int sessionId, HistoryPage history) {
+        this.sessions = sessions;
+        this.sessionId = sessionId;
+        this.history = history;
+    }
+
+    /**
+     * @return the user's sessions, most recent first
+     */
+    public List<ChatSession> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * @return the most recent session, selected already; -1 when the user has none
+     */
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return newest page of that session to show, null when it has to be loaded with a history sync
+     */
+    public HistoryPage getHistory() {
+        return history;
+    }
+}
@@ -0,0 +1,22 @@
+package com.aichatapp.models;
+
+/**
+ * A chat session as listed by the server
+ */
+public class ChatSession {
+    private final int id;
+    private final String name;
+
+    public ChatSession(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
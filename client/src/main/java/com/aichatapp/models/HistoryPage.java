@@ -0,0 +1,36 @@
+package com.aichatapp.models;
+
+import java.util.List;
+
+/**
+ * One page of a session's history as returned by a paged get_history, oldest message first
+ */
+public class HistoryPage {
+    private final List<ChatMessage> messages;
+    private final boolean hasMore;
+    private final int beforeId;
+
+    public HistoryPage(List<ChatMessage> messages, boolean hasMore, int beforeId) {
+        this.messages = messages;
+        this.hasMore = hasMore;
+        this.beforeId = beforeId;
+    }
+
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return true when older messages can still be loaded
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * @return cursor to pass back to load the page before this one
+     */
+    public int getBeforeId() {
+        return beforeId;
+    }
+}
@@ -0,0 +1,36 @@
+package com.aichatapp.models;
+
+import java.util.List;
+
+/**
+ * One page of search_messages results, best match first
+ */
+public class SearchPage {
+    private final List<ChatMessage> messages;
+    private final int total;
+    private final boolean hasMore;
+
+    public SearchPage(List<ChatMessage> messages, int total, boolean hasMore) {
+        this.messages = messages;
+        this.total = total;
+        this.hasMore = hasMore;
+    }
+
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return matching messages over all pages
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return true when the next offset still has matches
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
@@ -0,0 +1,58 @@
+package com.aichatapp.protocol;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Compact tagged encoding of JSON values, used for the payload of binary frames.
+ * Every value starts with a one byte tag; strings and names are a varint length
+ * followed by raw UTF-8 (no escaping), integers are zigzag varints and doubles are
+ * 8 bytes big-endian. Objects and arrays are delimited by begin/end tags.
+ *
+ * On the wire each frame is a 4 byte big-endian length followed by the payload.
+ * Binary framing is negotiated per connection with a "hello" request sent as a JSON line.
+ */
+public final class BinaryJson {
+    static final byte BEGIN_OBJECT = 1;
+    static final byte END_OBJECT = 2;
+    static final byte BEGIN_ARRAY = 3;
+    static final byte END_ARRAY = 4;
+    static final byte NAME = 5;
+    static final byte STRING = 6;
+    static final byte LONG = 7;
+    static final byte DOUBLE = 8;
+    static final byte TRUE = 9;
+    static final byte FALSE = 10;
+    static final byte NULL = 11;
+    /** Arbitrary precision number kept in its decimal text form */
+    static final byte NUMBER = 12;
+
+    /** Name of the framing mode in the hello handshake */
+    public static final String FORMAT = "binary";
+
+    private BinaryJson() {
+    }
+
+    public static byte[] encode(Gson gson, JsonElement element) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (BinaryJsonWriter writer = new BinaryJsonWriter(bytes)) {
+            gson.toJson(element, writer);
+        } catch (IOException e) {
+            // Only the in-memory stream is written, this does not happen
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the decoded object, or null for an empty payload
+     */
+    public static JsonObject decodeObject(Gson gson, byte[] payload) {
+        return gson.fromJson(new BinaryJsonReader(payload), JsonObject.class);
+    }
+}
@@ -0,0 +1,289 @@
+package com.aichatapp.protocol;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link JsonReader} over one {@link BinaryJson} payload, so Gson can read trees and objects from it
+ */
+public class BinaryJsonReader extends JsonReader {
+    private final byte[] data;
+    private int pos;
+
+    public BinaryJsonReader(byte[] data) {
+        super(Reader.nullReader());
+        this.data = data;
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        if (pos >= data.length) {
+            if (data.length == 0) {
+                // Like JsonReader on an empty document, lets Gson return null
+                throw new EOFException("Empty payload");
+            }
+            return JsonToken.END_DOCUMENT;
+        }
+        switch (data[pos]) {
+            case BinaryJson.BEGIN_OBJECT:
+                return JsonToken.BEGIN_OBJECT;
+            case BinaryJson.END_OBJECT:
+                return JsonToken.END_OBJECT;
+            case BinaryJson.BEGIN_ARRAY:
+                return JsonToken.BEGIN_ARRAY;
+            case BinaryJson.END_ARRAY:
+                return JsonToken.END_ARRAY;
+            case BinaryJson.NAME:
+                return JsonToken.NAME;
+            case BinaryJson.STRING:
+                return JsonToken.STRING;
+            case BinaryJson.LONG:
+            case BinaryJson.DOUBLE:
+            case BinaryJson.NUMBER:
+                return JsonToken.NUMBER;
+            case BinaryJson.TRUE:
+            case BinaryJson.FALSE:
+                return JsonToken.BOOLEAN;
+            case BinaryJson.NULL:
+                return JsonToken.NULL;
+            default:
+                throw new MalformedJsonException("Unknown tag " + data[pos] + " at offset " + pos);
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(BinaryJson.BEGIN_OBJECT, JsonToken.BEGIN_OBJECT);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(BinaryJson.END_OBJECT, JsonToken.END_OBJECT);
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(BinaryJson.BEGIN_ARRAY, JsonToken.BEGIN_ARRAY);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(BinaryJson.END_ARRAY, JsonToken.END_ARRAY);
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(BinaryJson.NAME, JsonToken.NAME);
+        return readText();
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        JsonToken token = peek();
+        byte tag = data[pos];
+        if (tag == BinaryJson.STRING || tag == BinaryJson.NUMBER) {
+            pos++;
+            return readText();
+        }
+        if (tag == BinaryJson.LONG) {
+            pos++;
+            return Long.toString(readLong());
+        }
+        if (tag == BinaryJson.DOUBLE) {
+            pos++;
+            return Double.toString(readDouble());
+        }
+        throw unexpected(JsonToken.STRING, token);
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        JsonToken token = peek();
+        if (token != JsonToken.BOOLEAN) {
+            throw unexpected(JsonToken.BOOLEAN, token);
+        }
+        return data[pos++] == BinaryJson.TRUE;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(BinaryJson.NULL, JsonToken.NULL);
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        JsonToken token = peek();
+        byte tag = data[pos];
+        if (tag == BinaryJson.DOUBLE) {
+            pos++;
+            return readDouble();
+        }
+        if (tag == BinaryJson.LONG) {
+            pos++;
+            return readLong();
+        }
+        if (tag == BinaryJson.NUMBER || tag == BinaryJson.STRING) {
+            pos++;
+            return Double.parseDouble(readText());
+        }
+        throw unexpected(JsonToken.NUMBER, token);
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        JsonToken token = peek();
+        byte tag = data[pos];
+        if (tag == BinaryJson.LONG) {
+            pos++;
+            return readLong();
+        }
+        if (tag == BinaryJson.DOUBLE) {
+            int start = pos++;
+            double value = readDouble();
+            long asLong = (long) value;
+            if (asLong != value) {
+                pos = start;
+                throw new NumberFormatException("Expected a long but was " + value);
+            }
+            return asLong;
+        }
+        if (tag == BinaryJson.NUMBER || tag == BinaryJson.STRING) {
+            pos++;
+            return Long.parseLong(readText());
+        }
+        throw unexpected(JsonToken.NUMBER, token);
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        int start = pos;
+        long value = nextLong();
+        if ((int) value != value) {
+            pos = start;
+            throw new NumberFormatException("Expected an int but was " + value);
+        }
+        return (int) value;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            JsonToken token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    pos++;
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    pos++;
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    pos++;
+                    skipText();
+                    break;
+                case NUMBER:
+                    nextString();
+                    break;
+                case BOOLEAN:
+                case NULL:
+                    pos++;
+                    break;
+                default:
+                    throw new MalformedJsonException("Unexpected end of payload");
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() {
+        pos = data.length;
+    }
+
+    @Override
+    public String getPath() {
+        return "$@" + pos;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " at offset " + pos;
+    }
+
+    private void expect(byte tag, JsonToken expected) throws IOException {
+        JsonToken token = peek();
+        if (data[pos] != tag) {
+            throw unexpected(expected, token);
+        }
+        pos++;
+    }
+
+    private IllegalStateException unexpected(JsonToken expected, JsonToken actual) {
+        return new IllegalStateException("Expected " + expected + " but was " + actual + " at offset " + pos);
+    }
+
+    private String readText() throws IOException {
+        int length = (int) readVarint();
+        if (length < 0 || length > data.length - pos) {
+            throw new MalformedJsonException("Truncated string at offset " + pos);
+        }
+        String text = new String(data, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return text;
+    }
+
+    private void skipText() throws IOException {
+        int length = (int) readVarint();
+        if (length < 0 || length > data.length - pos) {
+            throw new MalformedJsonException("Truncated string at offset " + pos);
+        }
+        pos += length;
+    }
+
+    private long readLong() throws IOException {
+        long zigzag = readVarint();
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private double readDouble() throws IOException {
+        if (data.length - pos < 8) {
+            throw new MalformedJsonException("Truncated number at offset " + pos);
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (data[pos++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= data.length) {
+                throw new MalformedJsonException("Truncated varint at offset " + pos);
+            }
+            byte b = data[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new MalformedJsonException("Varint too long at offset " + pos);
+    }
+}
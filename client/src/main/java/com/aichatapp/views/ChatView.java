@@ -1,16 +1,26 @@
 package com.aichatapp.views;
 
+import com.aichatapp.models.ChatMessage;
+
 import javax.swing.*;
 import javax.swing.event.ListSelectionListener;
 import java.awt.*;
 import java.awt.event.ActionListener;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ChatView extends JPanel {
-    private JTextArea chatArea;
+    // Distance from the top, in pixels, at which older history is requested
+    private static final int LOAD_OLDER_THRESHOLD = 50;
+
+    private TranscriptView transcript;
+    private JScrollPane chatScroll;
+    private Runnable loadOlderAction;
     private JTextField inputField;
     private JButton sendButton;
+    private JButton cancelButton;
+    private JLabel statusLabel;
     private JList<String> sessionsList;
     private DefaultListModel<String> sessionsModel;
     private JButton newSessionButton;
@@ -36,20 +46,35 @@ public class ChatView extends JPanel {
         // Center panel with chat
         JPanel centerPanel = new JPanel(new BorderLayout());
 
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        chatArea.setLineWrap(true);
-        chatArea.setWrapStyleWord(true);
-        JScrollPane chatScroll = new JScrollPane(chatArea);
+        // Lays out only the messages in view, so long sessions open without freezing the EDT
+        transcript = new TranscriptView();
+        chatScroll = new JScrollPane(transcript);
+        chatScroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting() && e.getValue() <= LOAD_OLDER_THRESHOLD
+                    && loadOlderAction != null && transcript.getMessageCount() > 0) {
+                loadOlderAction.run();
+            }
+        });
 
         JPanel inputPanel = new JPanel(new BorderLayout());
         inputField = new JTextField();
         sendButton = new JButton("Send");
         sendButton.addActionListener(sendAction);
 
+        // Only shown while a reply is on its way
+        cancelButton = new JButton("Cancel");
+        cancelButton.setVisible(false);
+        JPanel buttonsPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+        buttonsPanel.add(cancelButton);
+        buttonsPanel.add(sendButton);
+
         inputPanel.add(inputField, BorderLayout.CENTER);
-        inputPanel.add(sendButton, BorderLayout.EAST);
+        inputPanel.add(buttonsPanel, BorderLayout.EAST);
+
+        statusLabel = new JLabel(" ");
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
 
+        centerPanel.add(statusLabel, BorderLayout.NORTH);
         centerPanel.add(chatScroll, BorderLayout.CENTER);
         centerPanel.add(inputPanel, BorderLayout.SOUTH);
 
@@ -65,8 +90,74 @@ public class ChatView extends JPanel {
     }
 
     public void appendMessage(String sender, String message) {
-        chatArea.append(sender + ": " + message + "\n\n");
-        chatArea.setCaretPosition(chatArea.getDocument().getLength());
+        transcript.addMessage(sender, message);
+    }
+
+    /**
+     * Starts a message whose text arrives in pieces through {@link #appendToMessage(String)}
+     */
+    public void beginMessage(String sender) {
+        transcript.addMessage(sender, "");
+    }
+
+    public void appendToMessage(String text) {
+        transcript.appendToLastMessage(text);
+    }
+
+    public void endMessage() {
+        // Messages are kept apart by the transcript itself
+    }
+
+    /**
+     * Replaces the transcript with the given messages and scrolls to the newest one
+     */
+    public void showHistory(List<ChatMessage> messages) {
+        transcript.showMessages(messages);
+    }
+
+    /**
+     * Adds messages below the transcript, e.g. ones that arrived since the cached history was shown
+     */
+    public void appendHistory(List<ChatMessage> messages) {
+        transcript.appendMessages(messages);
+    }
+
+    /**
+     * Inserts older messages above the transcript, keeping the visible messages where they are
+     */
+    public void prependHistory(List<ChatMessage> messages) {
+        transcript.prependMessages(messages);
+    }
+
+    /**
+     * @param action called on the EDT when the user scrolls near the top of the transcript
+     */
+    public void setLoadOlderAction(Runnable action) {
+        this.loadOlderAction = action;
+    }
+
+    public void setInputEnabled(boolean enabled) {
+        inputField.setEnabled(enabled);
+        sendButton.setEnabled(enabled);
+    }
+
+    /**
+     * While a reply is on its way the input is disabled and the cancel button offered instead
+     */
+    public void setReplyPending(boolean pending) {
+        setInputEnabled(!pending);
+        cancelButton.setVisible(pending);
+    }
+
+    public void setCancelAction(ActionListener action) {
+        cancelButton.addActionListener(action);
+    }
+
+    /**
+     * @param status shown above the transcript while something loads, null once done
+     */
+    public void setStatus(String status) {
+        statusLabel.setText(status != null ? status : " ");
     }
 
     public void addSession(String sessionName) {
@@ -81,6 +172,13 @@ public class ChatView extends JPanel {
         sessionIdMap.put(sessionName, sessionId);
     }
 
+    /**
+     * @return true when the session was added with its id
+     */
+    public boolean hasSession(int sessionId) {
+        return sessionIdMap.containsValue(sessionId);
+    }
+
     public int getSelectedSessionId() {
         String selectedName = sessionsList.getSelectedValue();
         return sessionIdMap.getOrDefault(selectedName, -1);
@@ -95,6 +193,6 @@ public class ChatView extends JPanel {
     }
 
     public void clearChat() {
-        chatArea.setText("");
+        transcript.clear();
     }
 }
\ No newline at end of file
@@ -104,4 +104,12 @@ public class LoginView extends JPanel {
     public String getEmail() {
         return emailField.getText();
     }
+
+    /**
+     * Disables login and sign up while one of them is waiting for the server
+     */
+    public void setBusy(boolean busy) {
+        loginButton.setEnabled(!busy);
+        signupButton.setEnabled(!busy);
+    }
 }
\ No newline at end of file
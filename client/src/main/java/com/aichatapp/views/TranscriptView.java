@@ -0,0 +1,480 @@
+package com.aichatapp.views;
+
+import com.aichatapp.models.ChatMessage;
+
+import javax.swing.*;
+import javax.swing.event.ChangeListener;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chat transcript that only lays out and paints the messages in view.
+ * <p>
+ * Each message is wrapped into lines the first time it comes into view at the current
+ * width, and the lines are kept with it; messages never shown only have a height
+ * estimated from their length. Measuring replaces estimates without moving the message
+ * at the top of the view, so scrolling through estimated messages does not jump, and a
+ * transcript following the newest message keeps following it.
+ * Showing, appending or prepending a page of history is one model update, whatever its size.
+ */
+public class TranscriptView extends JComponent implements Scrollable {
+    private static final int PADDING = 6;
+    // Laid out beyond the visible area, so short scrolls paint without a change in height
+    private static final int OVERSCAN = 200;
+    private static final int MAX_LAYOUT_PASSES = 4;
+
+    private final List<Entry> entries = new ArrayList<>();
+    // tops[i] is the y of message i relative to the first one, tops[size] the height of all of them
+    private int[] tops = new int[1];
+    private boolean topsValid = true;
+    private int layoutWidth = -1;
+    // Keep the newest message in view as messages arrive
+    private boolean followBottom = true;
+    private boolean adjusting;
+    private FontMetrics metrics;
+    private final ChangeListener viewportListener = e -> onViewportChanged();
+
+    public TranscriptView() {
+        setFont(UIManager.getFont("TextArea.font"));
+        setBackground(UIManager.getColor("TextArea.background"));
+        setForeground(UIManager.getColor("TextArea.foreground"));
+        setOpaque(true);
+    }
+
+    /**
+     * Replaces the transcript and scrolls to the newest message
+     */
+    public void showMessages(List<ChatMessage> messages) {
+        entries.clear();
+        for (ChatMessage message : messages) {
+            entries.add(newEntry(senderOf(message), message.getContent()));
+        }
+        topsValid = false;
+        followBottom = true;
+        relayout(0, 0);
+    }
+
+    /**
+     * Adds messages below the transcript, following them when the newest message was in view
+     */
+    public void appendMessages(List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        int[] anchor = captureAnchor();
+        followBottom = isAtBottom();
+        for (ChatMessage message : messages) {
+            entries.add(newEntry(senderOf(message), message.getContent()));
+        }
+        topsValid = false;
+        relayout(anchor[0], anchor[1]);
+    }
+
+    /**
+     * Inserts older messages above the transcript, keeping the visible messages where they are
+     */
+    public void prependMessages(List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        int[] anchor = captureAnchor();
+        List<Entry> older = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            older.add(newEntry(senderOf(message), message.getContent()));
+        }
+        entries.addAll(0, older);
+        topsValid = false;
+        followBottom = false;
+        relayout(anchor[0] + older.size(), anchor[1]);
+    }
+
+    /**
+     * Adds one message below the transcript, e.g. the start of a streamed reply
+     */
+    public void addMessage(String sender, String text) {
+        int[] anchor = captureAnchor();
+        followBottom = isAtBottom();
+        entries.add(newEntry(sender, text));
+        topsValid = false;
+        relayout(anchor[0], anchor[1]);
+    }
+
+    /**
+     * Appends text to the newest message, e.g. a piece of a streamed reply
+     */
+    public void appendToLastMessage(String text) {
+        if (entries.isEmpty()) {
+            addMessage("", text);
+            return;
+        }
+        int[] anchor = captureAnchor();
+        followBottom = isAtBottom();
+        Entry last = entries.get(entries.size() - 1);
+        last.append(text);
+        estimate(last);
+        topsValid = false;
+        relayout(anchor[0], anchor[1]);
+    }
+
+    public void clear() {
+        entries.clear();
+        topsValid = false;
+        followBottom = true;
+        relayout(0, 0);
+    }
+
+    public int getMessageCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return messages wrapped at the current width, the others only have an estimated height
+     */
+    int getMeasuredCount() {
+        int count = 0;
+        for (Entry entry : entries) {
+            if (entry.lines != null && entry.linesWidth == layoutWidth) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Entry newEntry(String sender, String text) {
+        Entry entry = new Entry(sender, text);
+        estimate(entry);
+        return entry;
+    }
+
+    // Until it comes into view; before the first layout the width change estimates everything
+    private void estimate(Entry entry) {
+        if (layoutWidth > 0) {
+            entry.estimate(metrics(), layoutWidth);
+        }
+    }
+
+    private FontMetrics metrics() {
+        if (metrics == null || metrics.getFont() != getFont()) {
+            metrics = getFontMetrics(getFont());
+        }
+        return metrics;
+    }
+
+    private static String senderOf(ChatMessage message) {
+        return message.isUserMessage() ? "You" : "AI Assistant";
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        JViewport viewport = getViewport();
+        if (viewport != null) {
+            viewport.addChangeListener(viewportListener);
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        JViewport viewport = getViewport();
+        if (viewport != null) {
+            viewport.removeChangeListener(viewportListener);
+        }
+        super.removeNotify();
+    }
+
+    private JViewport getViewport() {
+        Container parent = getParent();
+        return parent instanceof JViewport ? (JViewport) parent : null;
+    }
+
+    // Scrolled by the user or resized: measure what came into view
+    private void onViewportChanged() {
+        if (adjusting) {
+            return;
+        }
+        int[] anchor = captureAnchor();
+        followBottom = isAtBottom();
+        relayout(anchor[0], anchor[1]);
+    }
+
+    /**
+     * @return the message at the top of the view and how far the view starts into it
+     */
+    private int[] captureAnchor() {
+        ensureTops();
+        int viewY = getVisibleRect().y - PADDING;
+        int index = indexAt(viewY);
+        return new int[]{index, index < entries.size() ? viewY - tops[index] : 0};
+    }
+
+    private boolean isAtBottom() {
+        Rectangle view = getVisibleRect();
+        return view.y + view.height >= getHeight() - lineHeight();
+    }
+
+    /**
+     * Measures the messages that will be in view, then sizes the component and moves the view
+     * so the anchor message stays where it was, or the newest message stays in view
+     */
+    private void relayout(int anchor, int anchorOffset) {
+        if (adjusting) {
+            return;
+        }
+        adjusting = true;
+        try {
+            JViewport viewport = getViewport();
+            int viewHeight = viewport != null ? viewport.getExtentSize().height : getHeight();
+            int width = (viewport != null ? viewport.getExtentSize().width : getWidth()) - 2 * PADDING;
+            if (width <= 0) {
+                // Not laid out yet, the first viewport change measures
+                topsValid = false;
+                repaint();
+                return;
+            }
+            FontMetrics metrics = metrics();
+            if (width != layoutWidth) {
+                layoutWidth = width;
+                for (Entry entry : entries) {
+                    entry.estimate(metrics, width);
+                }
+                topsValid = false;
+            }
+
+            int viewY = 0;
+            for (int pass = 0; pass < MAX_LAYOUT_PASSES; pass++) {
+                ensureTops();
+                viewY = targetViewY(anchor, anchorOffset, viewHeight);
+                int first = indexAt(viewY - OVERSCAN);
+                int last = indexAt(viewY + viewHeight + OVERSCAN);
+                boolean changed = false;
+                for (int i = first; i <= last && i < entries.size(); i++) {
+                    changed |= entries.get(i).measure(metrics, width);
+                }
+                if (!changed) {
+                    break;
+                }
+                topsValid = false;
+            }
+            ensureTops();
+            viewY = targetViewY(anchor, anchorOffset, viewHeight);
+
+            if (viewport != null) {
+                int height = Math.max(getPreferredSize().height, viewHeight);
+                if (height != getHeight() || viewport.getExtentSize().width != getWidth()) {
+                    setSize(viewport.getExtentSize().width, height);
+                }
+                viewport.setViewPosition(new Point(0, viewY));
+            }
+            revalidate();
+            repaint();
+        } finally {
+            adjusting = false;
+        }
+    }
+
+    private int targetViewY(int anchor, int anchorOffset, int viewHeight) {
+        int total = tops[entries.size()] + 2 * PADDING;
+        int maxY = Math.max(0, total - viewHeight);
+        if (followBottom) {
+            return maxY;
+        }
+        int y = anchor < entries.size() ? tops[anchor] + anchorOffset + PADDING : 0;
+        return Math.max(0, Math.min(y, maxY));
+    }
+
+    private void ensureTops() {
+        if (topsValid) {
+            return;
+        }
+        if (tops.length < entries.size() + 1) {
+            tops = Arrays.copyOf(tops, Math.max(entries.size() + 1, tops.length * 2));
+        }
+        int y = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            tops[i] = y;
+            y += entries.get(i).height;
+        }
+        tops[entries.size()] = y;
+        topsValid = true;
+    }
+
+    /**
+     * @return the message covering {@code y}, relative to the first message; clamped to the existing ones
+     */
+    private int indexAt(int y) {
+        int low = 0;
+        int high = entries.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (tops[mid] <= y) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(low, 0);
+    }
+
+    private int lineHeight() {
+        return metrics().getHeight();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(getBackground());
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if (entries.isEmpty() || layoutWidth <= 0) {
+            return;
+        }
+        ensureTops();
+        FontMetrics metrics = metrics();
+        g.setFont(getFont());
+        g.setColor(getForeground());
+        int lineHeight = metrics.getHeight();
+        int first = indexAt(clip.y - PADDING);
+        for (int i = first; i < entries.size(); i++) {
+            int top = tops[i] + PADDING;
+            if (top > clip.y + clip.height) {
+                break;
+            }
+            Entry entry = entries.get(i);
+            if (entry.measure(metrics, layoutWidth)) {
+                // Scrolled faster than the viewport reported, fix the layout after this frame
+                topsValid = false;
+                SwingUtilities.invokeLater(this::onViewportChanged);
+            }
+            int baseline = top + metrics.getAscent();
+            for (String line : entry.lines) {
+                if (baseline - metrics.getAscent() > clip.y + clip.height) {
+                    break;
+                }
+                if (baseline + metrics.getDescent() >= clip.y) {
+                    g.drawString(line, PADDING, baseline);
+                }
+                baseline += lineHeight;
+            }
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        ensureTops();
+        return new Dimension(PADDING * 2, tops[entries.size()] + 2 * PADDING);
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(400, 300);
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return lineHeight();
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return Math.max(lineHeight(), visibleRect.height - lineHeight());
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        JViewport viewport = getViewport();
+        return viewport != null && viewport.getHeight() > getPreferredSize().height;
+    }
+
+    /**
+     * Breaks text into lines no wider than {@code width}, at spaces where possible,
+     * within words that do not fit a line on their own
+     */
+    static List<String> wrap(String text, FontMetrics metrics, int width) {
+        List<String> lines = new ArrayList<>();
+        for (String paragraph : text.split("\n", -1)) {
+            int lineStart = 0;
+            int lineWidth = 0;
+            // Index after the last space of the current line, where it can be broken
+            int breakAt = -1;
+            for (int i = 0; i < paragraph.length(); i++) {
+                char c = paragraph.charAt(i);
+                int charWidth = metrics.charWidth(c);
+                if (lineWidth + charWidth > width && i > lineStart && c != ' ') {
+                    int end = breakAt > lineStart ? breakAt : i;
+                    lines.add(paragraph.substring(lineStart, end));
+                    lineStart = end;
+                    lineWidth = metrics.stringWidth(paragraph.substring(lineStart, i));
+                    breakAt = -1;
+                }
+                lineWidth += charWidth;
+                if (c == ' ') {
+                    breakAt = i + 1;
+                }
+            }
+            lines.add(paragraph.substring(lineStart));
+        }
+        return lines;
+    }
+
+    /**
+     * One message and its layout at {@link #linesWidth}
+     */
+    private static class Entry {
+        private final StringBuilder text;
+        private int newlines;
+        // Wrapped lines, null until the message is measured at the current width
+        String[] lines;
+        int linesWidth;
+        // Measured from the lines, or estimated while there are none; includes the gap below
+        int height;
+
+        Entry(String sender, String content) {
+            this.text = new StringBuilder(sender).append(": ");
+            append(content);
+        }
+
+        void append(String content) {
+            if (content == null) {
+                return;
+            }
+            text.append(content);
+            for (int i = 0; i < content.length(); i++) {
+                if (content.charAt(i) == '\n') {
+                    newlines++;
+                }
+            }
+            lines = null;
+        }
+
+        void estimate(FontMetrics metrics, int width) {
+            lines = null;
+            int charsPerLine = Math.max(1, width / Math.max(1, metrics.charWidth('n')));
+            height = (text.length() / charsPerLine + newlines + 2) * metrics.getHeight();
+        }
+
+        /**
+         * @return true when the height changed
+         */
+        boolean measure(FontMetrics metrics, int width) {
+            if (lines != null && linesWidth == width) {
+                return false;
+            }
+            lines = wrap(text.toString(), metrics, width).toArray(new String[0]);
+            linesWidth = width;
+            // One blank line between messages
+            int measured = (lines.length + 1) * metrics.getHeight();
+            boolean changed = measured != height;
+            height = measured;
+            return changed;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.aichatapp.cache;
+
+import com.aichatapp.models.ChatMessage;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+public class HistoryCacheTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("history-cache").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static ChatMessage user(int id, String text) {
+        return new ChatMessage(id, 7, text, null, true, LocalDateTime.of(2024, 5, 1, 12, 0, 30, 123_000_000));
+    }
+
+    private static ChatMessage ai(int id, String text) {
+        return new ChatMessage(id, 7, null, text, false, null);
+    }
+
+    public void testMessagesSurviveRestartInOrder() throws Exception {
+        HistoryCache cache = new HistoryCache(directory.toPath());
+        assertEquals(0, cache.getNewestId(7));
+
+        // Newest page first, then a delta and an older page
+        cache.add(7, Arrays.asList(user(5, "Hi"), ai(6, "Hello!")), false);
+        cache.add(7, Arrays.asList(user(7, "Thanks"), ai(8, "You're welcome")), false);
+        cache.add(7, Arrays.asList(user(3, "Earlier"), ai(4, "Reply")), true);
+
+        HistoryCache.Snapshot snapshot = new HistoryCache(directory.toPath()).get(7);
+
+        assertTrue(snapshot.isComplete());
+        List<ChatMessage> messages = snapshot.getMessages();
+        assertEquals(6, messages.size());
+        assertEquals(3, messages.get(0).getMessageId());
+        assertEquals(8, messages.get(5).getMessageId());
+        assertEquals("Earlier", messages.get(0).getUserMessage());
+        assertEquals(LocalDateTime.of(2024, 5, 1, 12, 0, 30, 123_000_000), messages.get(0).getTimestamp());
+        assertEquals("Reply", messages.get(1).getAiResponse());
+        assertFalse(messages.get(1).isUserMessage());
+        assertNull(messages.get(1).getTimestamp());
+    }
+
+    public void testDuplicatesAreNotAppendedAgain() throws Exception {
+        HistoryCache cache = new HistoryCache(directory.toPath());
+        cache.add(7, Arrays.asList(user(1, "Hi"), ai(2, "Hello")), false);
+        Path log = directory.toPath().resolve("session-7.log");
+        long length = Files.size(log);
+
+        cache.add(7, Arrays.asList(ai(2, "Hello")), false);
+
+        assertEquals(length, Files.size(log));
+        assertEquals(2, new HistoryCache(directory.toPath()).get(7).getMessages().size());
+    }
+
+    public void testTornRecordIsDroppedAndLogStaysAppendable() throws Exception {
+        HistoryCache cache = new HistoryCache(directory.toPath());
+        cache.add(7, Arrays.asList(user(1, "Kept"), ai(2, "Cut off by a crash")), false);
+        Path log = directory.toPath().resolve("session-7.log");
+        byte[] bytes = Files.readAllBytes(log);
+        Files.write(log, Arrays.copyOf(bytes, bytes.length - 5));
+
+        HistoryCache restarted = new HistoryCache(directory.toPath());
+        assertEquals(1, restarted.getNewestId(7));
+        restarted.add(7, Arrays.asList(ai(2, "Downloaded again")), false);
+
+        List<ChatMessage> messages = new HistoryCache(directory.toPath()).get(7).getMessages();
+        assertEquals(2, messages.size());
+        assertEquals("Downloaded again", messages.get(1).getAiResponse());
+    }
+
+    public void testCorruptTextLengthIsDroppedWithoutReadingIt() throws Exception {
+        HistoryCache cache = new HistoryCache(directory.toPath());
+        cache.add(7, Arrays.asList(user(1, "Kept"), ai(2, "Corrupted")), false);
+        Path log = directory.toPath().resolve("session-7.log");
+        // The second record's text length: after the 30 bytes of the first and its own 22 byte head
+        try (RandomAccessFile file = new RandomAccessFile(log.toFile(), "rw")) {
+            file.seek(30 + 22);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+
+        List<ChatMessage> messages = new HistoryCache(directory.toPath()).get(7).getMessages();
+
+        assertEquals(1, messages.size());
+        assertEquals("Kept", messages.get(0).getUserMessage());
+        assertEquals(30, Files.size(log));
+    }
+}
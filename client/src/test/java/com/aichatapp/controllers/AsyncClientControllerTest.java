@@ -0,0 +1,244 @@
+package com.aichatapp.controllers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import junit.framework.TestCase;
+
+import javax.net.SocketFactory;
+import javax.swing.*;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncClientControllerTest extends TestCase {
+    private final Gson gson = new Gson();
+    // Socket calls made on the event dispatch thread
+    private final List<String> edtSocketCalls = new CopyOnWriteArrayList<>();
+    private ServerSocket server;
+    // Lets the test decide when the slow reply is sent
+    private final CountDownLatch releaseSlowReply = new CountDownLatch(1);
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new ServerSocket(0);
+        Thread thread = new Thread(this::serve, "fake-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        releaseSlowReply.countDown();
+        server.close();
+    }
+
+    /**
+     * Answers JSON lines the way the chat server does, streaming "Hello" as two tokens
+     */
+    private void serve() {
+        try (Socket socket = server.accept();
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                JsonObject request = gson.fromJson(line, JsonObject.class);
+                JsonObject response = new JsonObject();
+                response.add("requestId", request.get("requestId"));
+                response.addProperty("success", true);
+                switch (request.get("action").getAsString()) {
+                    case "hello":
+                        response.addProperty("format", "json");
+                        break;
+                    case "create_session":
+                        response.addProperty("sessionId", 3);
+                        break;
+                    case "get_sessions":
+                        response.add("sessions", gson.fromJson("[{\"id\":3,\"name\":\"First\"}]", JsonArray.class));
+                        break;
+                    case "send_message":
+                        if ("slow".equals(request.get("message").getAsString())) {
+                            releaseSlowReply.await(5, TimeUnit.SECONDS);
+                        }
+                        for (String delta : Arrays.asList("Hel", "lo")) {
+                            JsonObject token = new JsonObject();
+                            token.addProperty("type", "token");
+                            token.addProperty("delta", delta);
+                            token.add("requestId", request.get("requestId"));
+                            out.println(gson.toJson(token));
+                        }
+                        response.addProperty("aiResponse", "Hello");
+                        response.addProperty("sessionId", 3);
+                        break;
+                    default:
+                        break;
+                }
+                out.println(gson.toJson(response));
+            }
+        } catch (IOException | InterruptedException e) {
+            // Test finished
+        }
+    }
+
+    private void check(String call) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            edtSocketCalls.add(call);
+        }
+    }
+
+    /**
+     * Connects to the fake server whatever address is asked for, and records socket use on the EDT
+     */
+    private class CheckingSocketFactory extends SocketFactory {
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            check("connect");
+            return new CheckingSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return createSocket(host.getHostName(), port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return createSocket(address.getHostName(), port);
+        }
+    }
+
+    private class CheckingSocket extends Socket {
+        CheckingSocket() throws IOException {
+            super(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FilterInputStream(super.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    check("read");
+                    return super.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    check("read");
+                    return super.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new FilterOutputStream(super.getOutputStream()) {
+                @Override
+                public void write(int b) throws IOException {
+                    check("write");
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    check("write");
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    check("flush");
+                    out.flush();
+                }
+            };
+        }
+    }
+
+    public void testNoSocketCallOnTheEdtAndResultsComeBackOnIt() throws Exception {
+        List<String> tokens = new CopyOnWriteArrayList<>();
+        List<Boolean> onEdt = new CopyOnWriteArrayList<>();
+        CompletableFuture<String> reply = new CompletableFuture<>();
+
+        SwingUtilities.invokeAndWait(() -> {
+            // Constructed and used on the EDT, like App does
+            AsyncClientController client = new AsyncClientController(new CheckingSocketFactory());
+            client.login("alice", "secret")
+                    .thenCompose(success -> {
+                        onEdt.add(success && SwingUtilities.isEventDispatchThread());
+                        return client.getUserSessions();
+                    })
+                    .thenCompose(sessions -> {
+                        onEdt.add(sessions.equals(List.of("First")) && SwingUtilities.isEventDispatchThread());
+                        return client.sendMessage("Hi", token -> {
+                            onEdt.add(SwingUtilities.isEventDispatchThread());
+                            tokens.add(token);
+                        });
+                    })
+                    .whenComplete((aiResponse, error) -> {
+                        onEdt.add(SwingUtilities.isEventDispatchThread());
+                        if (error != null) {
+                            reply.completeExceptionally(error);
+                        } else {
+                            reply.complete(aiResponse);
+                        }
+                        client.close();
+                    });
+        });
+
+        assertEquals("Hello", reply.get(5, TimeUnit.SECONDS));
+        // Streamed pieces arrive before the reply completes
+        assertEquals(Arrays.asList("Hel", "lo"), tokens);
+        assertEquals(Arrays.asList(true, true, true, true, true), onEdt);
+        assertTrue("Socket used on the EDT: " + edtSocketCalls, edtSocketCalls.isEmpty());
+    }
+
+    public void testCancelledReplyDropsLateTokens() throws Exception {
+        List<String> tokens = new CopyOnWriteArrayList<>();
+        CompletableFuture<Boolean> sent = new CompletableFuture<>();
+        CompletableFuture<Boolean> finished = new CompletableFuture<>();
+        CompletableFuture<?>[] reply = new CompletableFuture<?>[1];
+        AsyncClientController[] client = new AsyncClientController[1];
+
+        SwingUtilities.invokeAndWait(() -> {
+            client[0] = new AsyncClientController(new CheckingSocketFactory());
+            client[0].login("alice", "secret").thenAccept(success -> {
+                reply[0] = client[0].sendMessage("slow", tokens::add,
+                        () -> finished.complete(SwingUtilities.isEventDispatchThread()));
+                sent.complete(true);
+            });
+        });
+        sent.get(5, TimeUnit.SECONDS);
+        SwingUtilities.invokeAndWait(() -> reply[0].cancel(false));
+        assertFalse(finished.isDone());
+        releaseSlowReply.countDown();
+        // Still told when the server is done with it, so the saved reply can be loaded
+        assertTrue(finished.get(5, TimeUnit.SECONDS));
+        // Whatever the server sends now goes through the EDT queue behind this
+        client[0].getUserSessions().get(5, TimeUnit.SECONDS);
+        SwingUtilities.invokeAndWait(() -> { });
+
+        assertTrue(reply[0].isCancelled());
+        assertTrue(tokens.isEmpty());
+        assertTrue("Socket used on the EDT: " + edtSocketCalls, edtSocketCalls.isEmpty());
+        client[0].close();
+    }
+}
@@ -0,0 +1,63 @@
+package com.aichatapp.views;
+
+import com.aichatapp.models.ChatMessage;
+import junit.framework.TestCase;
+
+import java.awt.FontMetrics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TranscriptViewTest extends TestCase {
+
+    private static List<ChatMessage> messages(int count) {
+        List<ChatMessage> messages = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            boolean user = i % 2 == 1;
+            String text = "message " + i + " with enough words in it to wrap over a couple of lines at this width";
+            messages.add(new ChatMessage(i, 7, user ? text : null, user ? null : text, user, null));
+        }
+        return messages;
+    }
+
+    public void testOnlyMessagesInViewAreMeasured() {
+        TranscriptView view = new TranscriptView();
+        view.setSize(400, 300);
+
+        view.showMessages(messages(20_000));
+
+        assertEquals(20_000, view.getMessageCount());
+        // The newest messages are in view, the rest only estimated
+        assertTrue(view.getMeasuredCount() > 0);
+        assertTrue(String.valueOf(view.getMeasuredCount()), view.getMeasuredCount() < 100);
+        assertTrue(view.getPreferredSize().height > 20_000 * 2 * view.getFontMetrics(view.getFont()).getHeight());
+    }
+
+    public void testPrependAndStreamingKeepOneEntryPerMessage() {
+        TranscriptView view = new TranscriptView();
+        view.setSize(400, 300);
+        view.showMessages(messages(10));
+        int height = view.getPreferredSize().height;
+
+        view.prependMessages(messages(5));
+        view.addMessage("AI Assistant", "");
+        for (int i = 0; i < 200; i++) {
+            view.appendToLastMessage("token ");
+        }
+
+        assertEquals(16, view.getMessageCount());
+        assertTrue(view.getPreferredSize().height > height);
+    }
+
+    public void testWrapBreaksAtSpacesThenInsideLongWords() {
+        TranscriptView view = new TranscriptView();
+        FontMetrics metrics = view.getFontMetrics(view.getFont());
+
+        List<String> lines = TranscriptView.wrap("hello world again", metrics, metrics.stringWidth("hello world"));
+        assertEquals(Arrays.asList("hello world ", "again"), lines);
+
+        assertEquals(Arrays.asList("abcde", "fghij"),
+                TranscriptView.wrap("abcdefghij", metrics, metrics.stringWidth("abcde")));
+        assertEquals(Arrays.asList("a", "", "b"), TranscriptView.wrap("a\n\nb", metrics, 1000));
+    }
+}
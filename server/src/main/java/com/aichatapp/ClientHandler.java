@@ -0,0 +1,822 @@
+package com.aichatapp;
+
+import com.aichatapp.config.ServerConfig;
+import com.aichatapp.events.ChatEvent;
+import com.aichatapp.events.EventBus;
+import com.aichatapp.metrics.ServerMetrics;
+import com.aichatapp.models.ChatMessage;
+import com.aichatapp.models.ChatSession;
+import com.aichatapp.models.HistoryPage;
+import com.aichatapp.models.SearchPage;
+import com.aichatapp.network.ClientConnection;
+import com.aichatapp.network.ConnectionHandler;
+import com.aichatapp.protocol.BinaryJson;
+import com.aichatapp.protocol.ProtocolCodec;
+import com.aichatapp.protocol.Request;
+import com.aichatapp.protocol.Response;
+import com.aichatapp.services.AIService;
+import com.aichatapp.services.AuthTokenService;
+import com.aichatapp.services.BootstrapService;
+import com.aichatapp.services.ChatService;
+import com.aichatapp.services.CompletionCache;
+import com.aichatapp.services.CompletionCoalescer;
+import com.aichatapp.services.ConversationContextStore;
+import com.aichatapp.services.MessageSearchService;
+import com.aichatapp.services.SessionService;
+import com.aichatapp.services.UpstreamRateLimitException;
+import com.aichatapp.services.UserService;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Handles the requests of one client connection
+ */
+class ClientHandler implements ConnectionHandler {
+    private static final int MAX_HISTORY_PAGE = 500;
+    private static final int MAX_SEARCH_PAGE = 100;
+    private static final int DEFAULT_SEARCH_PAGE = 20;
+    private static final int DEFAULT_BOOTSTRAP_PAGE = 50;
+    private static final int MAX_BATCH_REQUESTS = ServerConfig.getInt("aichat.batch.maxRequests", 32);
+    // Run concurrently within a batch, they do not change anything
+    private static final Set<String> READ_ONLY_ACTIONS = Set.of(
+            "get_history", "get_sessions", "get_session_id", "select_session", "search_messages");
+    private static final boolean BINARY_FRAMING_ENABLED = ServerConfig.getBoolean("aichat.protocol.binary", true);
+    // Pushes wait while more than this many writes are queued on the connection, and coalesce meanwhile
+    private static final int MAX_PENDING_PUSH_WRITES = ServerConfig.getInt("aichat.events.maxPendingWrites", 64);
+
+    private final ClientConnection connection;
+    private final UserService userService;
+    private final AuthTokenService tokenService;
+    private final ChatService chatService;
+    private final SessionService sessionService;
+    private final MessageSearchService searchService;
+    private final BootstrapService bootstrapService;
+    private final EventBus eventBus;
+    private final AIService aiService;
+    private final ConversationContextStore contextStore;
+    private final CompletionCache completionCache;
+    private final CompletionCoalescer coalescer;
+    private final Executor requestExecutor;
+    private final Executor batchExecutor;
+    private final ProtocolCodec codec;
+    private final Logger logger;
+    // Set once by the hello handshake, before any other request is read
+    private volatile boolean binaryFraming;
+    // Logged in on this connection by login, bootstrap or resume; what user-scoped actions act for
+    private volatile String username;
+    // Guarded by this: the subscribe request's registration, closed on unsubscribe and disconnect
+    private EventBus.Subscription subscription;
+    private boolean disconnected;
+
+    public ClientHandler(ClientConnection connection, UserService userService, AuthTokenService tokenService,
+                         ChatService chatService, SessionService sessionService,
+                         MessageSearchService searchService, BootstrapService bootstrapService, EventBus eventBus, AIService aiService, ConversationContextStore contextStore, CompletionCache completionCache,
+                         CompletionCoalescer coalescer, Executor requestExecutor, Executor batchExecutor,
+                         ProtocolCodec codec) {
+        this.connection = connection;
+        this.userService = userService;
+        this.tokenService = tokenService;
+        this.chatService = chatService;
+        this.sessionService = sessionService;
+        this.searchService = searchService;
+        this.bootstrapService = bootstrapService;
+        this.eventBus = eventBus;
+        this.aiService = aiService;
+        this.contextStore = contextStore;
+        this.completionCache = completionCache;
+        this.coalescer = coalescer;
+        this.requestExecutor = requestExecutor;
+        this.batchExecutor = batchExecutor;
+        this.codec = codec;
+        this.logger = LoggerFactory.getLogger(ClientHandler.class);
+    }
+
+    @Override
+    public void onMessage(String line) {
+        Request request;
+        long start = System.nanoTime();
+        try {
+            request = codec.decodeLine(line);
+            ServerMetrics.SERIALIZATION.recordSince(start);
+        } catch (Exception e) {
+            logger.warn("Malformed request from {}", connection.getRemoteAddress(), e);
+            send(Response.error(null, "Malformed request"));
+            return;
+        }
+        if (request != null && "hello".equals(request.getAction())) {
+            handleHello(request);
+            return;
+        }
+        dispatch(request);
+    }
+
+    @Override
+    public void onFrame(byte[] frame) {
+        Request request;
+        long start = System.nanoTime();
+        try {
+            request = codec.decodeFrame(frame);
+            ServerMetrics.SERIALIZATION.recordSince(start);
+        } catch (Exception e) {
+            logger.warn("Malformed frame from {}", connection.getRemoteAddress(), e);
+            send(Response.error(null, "Malformed request"));
+            return;
+        }
+        dispatch(request);
+    }
+
+    /**
+     * Requests carrying a requestId run on the shared request executor and are answered
+     * whenever they finish, so a slow send_message does not hold up the ones behind it.
+     * Requests without one are handled in order on the connection thread, as before.
+     */
+    private void dispatch(Request request) {
+        if (request == null || request.getRequestId() == null) {
+            processRequest(request);
+            return;
+        }
+
+        try {
+            requestExecutor.execute(() -> processRequest(request));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Request queue full, rejecting request from {}", connection.getRemoteAddress());
+            send(Response.error(request.getRequestId(), "Server busy, try again"));
+        }
+    }
+
+    /**
+     * Negotiates the framing: {"action":"hello","formats":["binary","json"]} is answered with the
+     * chosen format, as a JSON line. When it is "binary" both sides use length-prefixed frames from then on.
+     * Clients send it first and wait for the answer; older clients never send it and keep using lines.
+     */
+    private void handleHello(Request request) {
+        boolean useBinary = BINARY_FRAMING_ENABLED && !binaryFraming
+                && request.getFormats() != null && request.getFormats().contains(BinaryJson.FORMAT);
+
+        Response response = new Response();
+        response.setSuccess(true);
+        response.setFormat(useBinary || binaryFraming ? BinaryJson.FORMAT : "json");
+        response.setRequestId(request.getRequestId());
+        if (useBinary) {
+            // Switch reading before answering, the client may send a frame as soon as it sees the answer
+            connection.enableBinaryFraming();
+            connection.send(codec.encodeLine(response));
+            binaryFraming = true;
+            logger.debug("Client {} switched to binary framing", connection.getRemoteAddress());
+        } else {
+            send(response);
+        }
+    }
+
+    private void send(Response response) {
+        long start = System.nanoTime();
+        if (binaryFraming) {
+            byte[] frame = codec.encodeFrame(response);
+            ServerMetrics.SERIALIZATION.recordSince(start);
+            connection.sendFrame(frame);
+        } else {
+            String line = codec.encodeLine(response);
+            ServerMetrics.SERIALIZATION.recordSince(start);
+            connection.send(line);
+        }
+    }
+
+    private void processRequest(Request request) {
+        JsonElement requestId = request != null ? request.getRequestId() : null;
+        long start = System.nanoTime();
+        String action = null;
+        try {
+            action = request.getAction();
+            Response response = new Response();
+            if (!handle(action, request, response)) {
+                // Client supplied, keep it out of the metric names
+                action = null;
+            }
+
+            response.setRequestId(requestId);
+            send(response);
+        } catch (Exception e) {
+            logger.error("Error processing client request", e);
+            send(Response.error(requestId, "Internal server error"));
+        } finally {
+            ServerMetrics.action(action != null ? action : "unknown").recordSince(start);
+        }
+    }
+
+    /**
+     * Runs one action, filling in the response
+     * @return false when there is no such action
+     */
+    private boolean handle(String action, Request request, Response response) {
+        switch (action) {
+            case "login":
+                handleLogin(request, response);
+                break;
+
+            case "bootstrap":
+                handleBootstrap(request, response);
+                break;
+
+            case "resume":
+                handleResume(request, response);
+                break;
+
+            case "logout":
+                handleLogout(request, response);
+                break;
+
+            case "register":
+                handleRegistration(request, response);
+                break;
+
+            case "send_message":
+                handleMessage(request, response);
+                break;
+
+            case "get_history":
+                handleHistoryRequest(request, response);
+                break;
+
+            case "search_messages":
+                handleSearchMessages(request, response);
+                break;
+
+            case "subscribe":
+                handleSubscribe(request, response);
+                break;
+
+            case "unsubscribe":
+                handleUnsubscribe(response);
+                break;
+
+            case "get_sessions":
+                handleGetSessions(request, response);
+                break;
+
+            case "create_session":
+                handleCreateSession(request, response);
+                break;
+            case "select_session":
+                handleSelectSession(request, response);
+                break;
+
+            case "get_session_id":
+                handleGetSessionId(request, response);
+                break;
+
+            case "batch":
+                handleBatch(request, response);
+                break;
+
+            default:
+                response.fail("Unknown action");
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Several independent requests in one round trip: {"action":"batch","requests":[...]} is answered
+     * with "responses", one per request and in the same order, each with its own success or error and
+     * requestId. Only reads can be batched and they are spread over the batch executor, so no order
+     * between them is guaranteed; anything else, a nested batch included, is refused per request.
+     */
+    private void handleBatch(Request request, Response response) {
+        List<Request> items = request.getRequests();
+        if (items == null || items.isEmpty()) {
+            response.fail("Empty batch");
+            return;
+        }
+        if (items.size() > MAX_BATCH_REQUESTS) {
+            response.fail("Batch too large, at most " + MAX_BATCH_REQUESTS + " requests");
+            return;
+        }
+
+        List<CompletableFuture<Response>> reads = new ArrayList<>(items.size());
+        for (Request item : items) {
+            if (item == null) {
+                reads.add(CompletableFuture.completedFuture(Response.error(null, "Malformed request")));
+            } else if (!READ_ONLY_ACTIONS.contains(item.getAction())) {
+                reads.add(CompletableFuture.completedFuture(
+                        Response.error(item.getRequestId(), "Only reads can be batched")));
+            } else {
+                reads.add(handleAsync(item));
+            }
+        }
+        List<Response> responses = new ArrayList<>(items.size());
+        for (CompletableFuture<Response> read : reads) {
+            responses.add(read.join());
+        }
+        response.setResponses(responses);
+        response.setSuccess(true);
+    }
+
+    /**
+     * On the batch executor, or on this thread when it is saturated. Not the request executor:
+     * with its threads all waiting on batches, the reads queued behind them would never run.
+     */
+    private CompletableFuture<Response> handleAsync(Request item) {
+        try {
+            return CompletableFuture.supplyAsync(() -> handleBatched(item), batchExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(handleBatched(item));
+        }
+    }
+
+    /**
+     * One read of a batch, timed like a request of its own
+     */
+    private Response handleBatched(Request item) {
+        long start = System.nanoTime();
+        String action = item.getAction();
+        Response response = new Response();
+        try {
+            handle(action, item, response);
+        } catch (Exception e) {
+            logger.error("Error processing batched request", e);
+            response = Response.error(null, "Internal server error");
+        } finally {
+            ServerMetrics.action(action).recordSince(start);
+        }
+        response.setRequestId(item.getRequestId());
+        return response;
+    }
+
+    @Override
+    public void onDisconnect() {
+        logger.debug("Client disconnected: {}", connection.getRemoteAddress());
+        synchronized (this) {
+            disconnected = true;
+            closeSubscription();
+        }
+    }
+
+    private void handleLogin(Request request, Response response) {
+        String username = request.getUsername();
+        String password = request.getPassword();
+
+        try {
+            boolean authResult = userService.authenticateUser(username, password);
+            response.setSuccess(authResult);
+            if (authResult) {
+                this.username = username;
+                response.setAuthToken(tokenService.issue(username));
+            }
+            logger.info("Login attempt for user {}: {}", username, authResult ? "success" : "failure");
+        } catch (RejectedExecutionException e) {
+            logger.warn("Login for user {} turned away: {}", username, e.getMessage());
+            response.fail("Server busy, try again");
+        } catch (Exception e) {
+            logger.error("Login failed for user: {}", username, e);
+            response.fail("Authentication error");
+        }
+    }
+
+    /**
+     * Login plus what the first screen needs, in one round trip: on success also "sessions" (most recent
+     * first), and the newest "limit" messages of the first one as "history" with its "sessionId",
+     * "hasMore" and "beforeId" cursor, like a paged get_history. A user without sessions gets no history.
+     */
+    private void handleBootstrap(Request request, Response response) {
+        String username = request.getUsername();
+        int limit = request.getLimit() != null
+                ? Math.max(1, Math.min(request.getLimit(), MAX_HISTORY_PAGE)) : DEFAULT_BOOTSTRAP_PAGE;
+
+        try {
+            BootstrapService.Result result = bootstrapService.bootstrap(username, request.getPassword(), limit);
+            logger.info("Bootstrap login for user {}: {}", username, result != null ? "success" : "failure");
+            if (result == null) {
+                response.fail("Invalid username or password");
+                return;
+            }
+            this.username = username;
+            response.setSuccess(true);
+            response.setAuthToken(tokenService.issue(username));
+            response.setSessions(result.getSessions());
+            if (result.getHistory() != null) {
+                HistoryPage page = result.getHistory();
+                response.setSessionId(result.getSessionId());
+                response.setHistory(page.getMessages());
+                response.setHasMore(page.hasMore());
+                response.setBeforeId(page.getOldestMessageId());
+            }
+        } catch (RejectedExecutionException e) {
+            logger.warn("Bootstrap for user {} turned away: {}", username, e.getMessage());
+            response.fail("Server busy, try again");
+        } catch (Exception e) {
+            logger.error("Bootstrap failed for user: {}", username, e);
+            response.fail("Authentication error");
+        }
+    }
+
+    /**
+     * Re-establishes a login on a new connection from the token issued by an earlier one,
+     * without touching the database or BCrypt
+     */
+    private void handleResume(Request request, Response response) {
+        String username = tokenService.validate(request.getAuthToken());
+        if (username == null) {
+            response.fail("Invalid or expired token");
+            return;
+        }
+        this.username = username;
+        response.setSuccess(true);
+        response.setUsername(username);
+        logger.debug("Resumed login of user {}", username);
+    }
+
+    private void handleLogout(Request request, Response response) {
+        tokenService.revoke(request.getAuthToken());
+        username = null;
+        synchronized (this) {
+            closeSubscription();
+        }
+        response.setSuccess(true);
+    }
+
+    /**
+     * The user a user-scoped action acts for, whatever username the request names
+     * @return null after failing the response when nobody is logged in on this connection
+     */
+    private String loggedInUser(Response response) {
+        String user = username;
+        if (user == null) {
+            response.fail("Not logged in");
+        }
+        return user;
+    }
+
+    private void handleRegistration(Request request, Response response) {
+        String username = request.getUsername();
+        String email = request.getEmail();
+        String password = request.getPassword();
+
+        logger.debug("Registration attempt - Username: {}, Email: {}", username, email);
+
+        try {
+            boolean regResult = userService.registerUser(username, email, password);
+            response.setSuccess(regResult);
+
+            if (!regResult) {
+                // Check if it's a duplicate error
+                if (userService.userExists(username, email)) {
+                    response.setError("Username or email already exists");
+                    logger.warn("Duplicate registration attempt: {} / {}", username, email);
+                } else {
+                    response.setError("Registration failed");
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            logger.warn("Registration of {} turned away: {}", username, e.getMessage());
+            response.fail("Server busy, try again");
+        } catch (Exception e) {
+            logger.error("Registration exception", e);
+            response.fail("Server error during registration");
+        }
+    }
+
+    private void handleMessage(Request request, Response response) {
+        // Get the session ID from the request
+        int sessionId = request.getSessionId();
+        String message = request.getMessage();
+
+        // Validate session ID
+        if (sessionId <= 0) {
+            logger.warn("Invalid session ID provided: {}", sessionId);
+
+            // Create a new session for this user if needed
+            // Assuming you have the username stored somewhere or passed in the request
+            String username = request.getUsername() != null ? request.getUsername() : "anonymous";
+
+            try {
+                // First check if this user exists in the database
+                // If not, you might want to create a temporary user
+                int userId = 1; // Default to a system user ID for demo purposes
+
+                // Create a new session
+                sessionId = sessionService.createSession(userId, "Default Session");
+
+                if (sessionId <= 0) {
+                    logger.error("Failed to create a new session");
+                    response.fail("Failed to create chat session");
+                    return;
+                }
+
+                logger.info("Created new session {} for message handling", sessionId);
+            } catch (Exception e) {
+                logger.error("Error creating session", e);
+                response.fail("Session creation error");
+                return;
+            }
+        }
+
+        boolean stream = request.isStream();
+
+        try {
+            // Now call the AI API, streamed replies go out as token frames before the final response
+            String aiResponse = callAIApi(sessionId, message, request.isCache(),
+                    stream ? delta -> sendToken(request, delta) : null);
+
+            // Save the message with the valid session ID
+            boolean saveResult = chatService.saveMessage(sessionId, message, aiResponse, this);
+
+            response.setSuccess(saveResult);
+            response.setAiResponse(aiResponse);
+            response.setSessionId(sessionId); // Send back the session ID that was used
+
+        } catch (UpstreamRateLimitException e) {
+            logger.warn("Message for session {} not answered: {}", sessionId, e.getMessage());
+            response.fail("AI service is busy, try again later");
+        } catch (Exception e) {
+            logger.error("Message handling failed", e);
+            response.fail("Message processing error");
+        }
+    }
+
+    private void sendToken(Request request, String delta) {
+        send(Response.token(request.getRequestId(), delta));
+    }
+
+    private void handleGetSessions(Request request, Response response) {
+        String username = loggedInUser(response);
+        if (username == null) {
+            return;
+        }
+        logger.info("Getting sessions for user: {}", username);
+
+        try {
+            // Get the user ID
+            int userId = userService.getUserIdByUsername(username);
+            if (userId == -1) {
+                logger.warn("User not found for username: {}", username);
+                response.fail("User not found");
+                return;
+            }
+
+            // Get sessions for this user
+            List<ChatSession> sessions = sessionService.getUserSessions(userId);
+            logger.info("Found {} sessions for user: {}", sessions.size(), username);
+
+            response.setSuccess(true);
+            response.setSessions(sessions);
+
+        } catch (Exception e) {
+            logger.error("Failed to get sessions for user: {}", username, e);
+            response.fail("Error retrieving sessions");
+        }
+    }
+
+    private void handleCreateSession(Request request, Response response) {
+        String username = loggedInUser(response);
+        if (username == null) {
+            return;
+        }
+        String sessionName = request.getSessionName();
+
+        try {
+            // Get the user ID
+            int userId = userService.getUserIdByUsername(username);
+            if (userId == -1) {
+                response.fail("User not found");
+                return;
+            }
+
+            // Create the session
+            int sessionId = sessionService.createSession(userId, sessionName, this);
+
+            response.setSuccess(sessionId > 0);
+            response.setSessionId(sessionId);
+
+        } catch (Exception e) {
+            logger.error("Failed to create session for user: {}", username, e);
+            response.fail("Error creating session");
+        }
+    }
+
+    /**
+     * Pushes the user's changes made elsewhere (other connections, other devices) to this connection
+     * as "event" responses without a requestId: session_created with sessionId and sessionName,
+     * messages_appended with sessionId, and resync when pushes had to be dropped. Changes made through
+     * this connection are not echoed back. A later subscribe replaces the earlier one.
+     */
+    private void handleSubscribe(Request request, Response response) {
+        String username = loggedInUser(response);
+        if (username == null) {
+            return;
+        }
+        try {
+            int userId = userService.getUserIdByUsername(username);
+            if (userId == -1) {
+                response.fail("User not found");
+                return;
+            }
+            synchronized (this) {
+                if (disconnected) {
+                    response.fail("Connection closed");
+                    return;
+                }
+                closeSubscription();
+                subscription = eventBus.subscribe(userId, this, new EventBus.Subscriber() {
+                    @Override
+                    public void deliver(ChatEvent event) {
+                        send(Response.event(event));
+                    }
+
+                    @Override
+                    public boolean isBackedUp() {
+                        return connection.getPendingWrites() > MAX_PENDING_PUSH_WRITES;
+                    }
+                });
+            }
+            response.setSuccess(true);
+            logger.debug("Client {} subscribed to the changes of user {}", connection.getRemoteAddress(), username);
+        } catch (Exception e) {
+            logger.error("Subscribe failed for user {}", username, e);
+            response.fail("Subscribe error");
+        }
+    }
+
+    private synchronized void handleUnsubscribe(Response response) {
+        closeSubscription();
+        response.setSuccess(true);
+    }
+
+    private void closeSubscription() {
+        if (subscription != null) {
+            subscription.close();
+            subscription = null;
+        }
+    }
+
+    private void handleHistoryRequest(Request request, Response response) {
+        int sessionId = request.getSessionId();
+
+        try {
+            if (request.getAfterId() != null) {
+                // Delta variant for clients with a local cache: messages after "afterId", oldest first
+                int limit = request.getLimit() != null
+                        ? Math.max(1, Math.min(request.getLimit(), MAX_HISTORY_PAGE)) : MAX_HISTORY_PAGE;
+                HistoryPage page = chatService.getMessagesAfter(sessionId, request.getAfterId(), limit);
+                response.setHistory(page.getMessages());
+                response.setHasMore(page.hasMore());
+                response.setSuccess(true);
+                logger.debug("Retrieved {} messages for session {} after {}",
+                        page.getMessages().size(), sessionId, request.getAfterId());
+                return;
+            }
+
+            if (request.getLimit() != null) {
+                // Paged variant: "limit" messages before "beforeId" (newest page when absent)
+                int limit = Math.max(1, Math.min(request.getLimit(), MAX_HISTORY_PAGE));
+                int beforeId = request.getBeforeId() != null ? request.getBeforeId() : 0;
+                HistoryPage page = chatService.getChatHistoryPage(sessionId, beforeId, limit);
+                response.setHistory(page.getMessages());
+                response.setHasMore(page.hasMore());
+                response.setBeforeId(page.getOldestMessageId());
+                response.setSuccess(true);
+                logger.debug("Retrieved {} messages for session {} before {}",
+                        page.getMessages().size(), sessionId, beforeId);
+                return;
+            }
+
+            List<ChatMessage> history = chatService.getChatHistory(sessionId);
+            response.setHistory(history);
+            response.setSuccess(true);
+            logger.debug("Retrieved history for session {}", sessionId);
+        } catch (Exception e) {
+            logger.error("Failed to retrieve history for session {}", sessionId, e);
+            response.fail("History retrieval error");
+        }
+    }
+
+    /**
+     * Full-text search over the user's messages: "query" with optional "sessionId" to stay in one session,
+     * paged with "offset" and "limit". Answers "results", best match first, and the "total" number of matches.
+     */
+    private void handleSearchMessages(Request request, Response response) {
+        String username = loggedInUser(response);
+        if (username == null) {
+            return;
+        }
+        String query = request.getQuery();
+        if (query == null || query.trim().isEmpty()) {
+            response.fail("Empty search query");
+            return;
+        }
+
+        try {
+            int userId = userService.getUserIdByUsername(username);
+            if (userId == -1) {
+                response.fail("User not found");
+                return;
+            }
+            int limit = request.getLimit() != null
+                    ? Math.max(1, Math.min(request.getLimit(), MAX_SEARCH_PAGE)) : DEFAULT_SEARCH_PAGE;
+            int offset = request.getOffset() != null ? Math.max(0, request.getOffset()) : 0;
+            SearchPage page = searchService.search(userId, request.getSessionId(), query, offset, limit);
+            response.setResults(page.getMessages());
+            response.setTotal(page.getTotal());
+            response.setHasMore(page.hasMore());
+            response.setSuccess(true);
+        } catch (Exception e) {
+            logger.error("Search failed for user {}", username, e);
+            response.fail("Search error");
+        }
+    }
+
+    /**
+     * Sends the session's conversation plus the new message upstream
+     * @param useCache when true an identical earlier prompt is answered from the completion cache
+     * @param onDelta when not null the reply is streamed and every piece is passed on as it arrives
+     */
+    private String callAIApi(int sessionId, String userMessage, boolean useCache, Consumer<String> onDelta) {
+        List<JsonObject> context = contextStore.buildContext(sessionId, userMessage);
+
+        String key = CompletionCache.key(aiService.getModel(), aiService.getTemperature(), context);
+        boolean cached = useCache && completionCache.isEnabled();
+        String assistantReply = cached ? completionCache.get(key) : null;
+        if (assistantReply != null) {
+            if (onDelta != null) {
+                // Nothing to stream, hand the whole reply over as one piece
+                onDelta.accept(assistantReply);
+            }
+        } else {
+            // Identical prompts already in flight on other connections share that call
+            assistantReply = coalescer.complete(key, onDelta, delta -> {
+                long start = System.nanoTime();
+                String reply = delta != null
+                        ? aiService.streamCompletion(context, delta)
+                        : aiService.complete(context);
+                if (cached) {
+                    completionCache.put(key, reply, System.nanoTime() - start);
+                }
+                return reply;
+            });
+        }
+
+        // Keep the exchange in the session's context for the next message
+        contextStore.recordTurn(sessionId, userMessage, assistantReply);
+        return assistantReply;
+    }
+
+    private void handleSelectSession(Request request, Response response) {
+        int sessionId = request.getSessionId();
+
+        // Validate that the session exists
+        try {
+            boolean exists = sessionService.sessionExists(sessionId);
+
+            response.setSuccess(exists);
+            if (!exists) {
+                response.setError("Session not found");
+                logger.warn("Attempt to select non-existent session: {}", sessionId);
+            } else {
+                logger.info("Session selected: {}", sessionId);
+            }
+        } catch (Exception e) {
+            logger.error("Error selecting session", e);
+            response.fail("Database error");
+        }
+    }
+
+    private void handleGetSessionId(Request request, Response response) {
+        String username = loggedInUser(response);
+        if (username == null) {
+            return;
+        }
+        String sessionName = request.getSessionName();
+
+        try {
+            // Get user ID first
+            int userId = userService.getUserIdByUsername(username);
+            if (userId == -1) {
+                response.fail("User not found");
+                return;
+            }
+
+            // Now get session ID by name and user ID
+            int sessionId = sessionService.getSessionIdByName(userId, sessionName);
+            if (sessionId != -1) {
+                response.setSuccess(true);
+                response.setSessionId(sessionId);
+                logger.info("Found session ID {} for user {} and name {}", sessionId, username, sessionName);
+            } else {
+                response.fail("Session not found");
+                logger.warn("No session found for user {} with name {}", username, sessionName);
+            }
+        } catch (Exception e) {
+            logger.error("Error getting session ID", e);
+            response.fail("Database error");
+        }
+    }
+}
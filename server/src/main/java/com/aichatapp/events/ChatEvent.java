@@ -0,0 +1,85 @@
+package com.aichatapp.events;
+
+/**
+ * Something that changed in a user's chats, pushed to that user's subscribed connections.
+ * Events only say what changed; clients read the data itself the usual way, e.g. a
+ * get_history delta after their newest message, so several events about the same
+ * session can be merged into one without losing anything.
+ */
+public class ChatEvent {
+    public enum Type {
+        SESSION_CREATED("session_created"),
+        MESSAGES_APPENDED("messages_appended"),
+        /** Events were dropped, the client should reload whatever it shows */
+        RESYNC("resync");
+
+        private final String wireName;
+
+        Type(String wireName) {
+            this.wireName = wireName;
+        }
+
+        public String getWireName() {
+            return wireName;
+        }
+    }
+
+    private final Type type;
+    private final int userId;
+    private final int sessionId;
+    private final String sessionName;
+    private final Object origin;
+
+    private ChatEvent(Type type, int userId, int sessionId, String sessionName, Object origin) {
+        this.type = type;
+        this.userId = userId;
+        this.sessionId = sessionId;
+        this.sessionName = sessionName;
+        this.origin = origin;
+    }
+
+    /**
+     * @param origin connection that caused the change, it is not told about it; null for none
+     */
+    public static ChatEvent sessionCreated(int userId, int sessionId, String sessionName, Object origin) {
+        return new ChatEvent(Type.SESSION_CREATED, userId, sessionId, sessionName, origin);
+    }
+
+    /**
+     * @param origin connection that caused the change, it is not told about it; null for none
+     */
+    public static ChatEvent messagesAppended(int userId, int sessionId, Object origin) {
+        return new ChatEvent(Type.MESSAGES_APPENDED, userId, sessionId, null, origin);
+    }
+
+    static ChatEvent resync(int userId) {
+        return new ChatEvent(Type.RESYNC, userId, 0, null, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public String getSessionName() {
+        return sessionName;
+    }
+
+    Object getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return events with the same key say the same thing, only the latest needs delivering
+     */
+    String coalesceKey() {
+        return type.name() + ":" + sessionId;
+    }
+}
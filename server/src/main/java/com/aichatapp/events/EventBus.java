@@ -0,0 +1,229 @@
+package com.aichatapp.events;
+
+import com.aichatapp.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process publish/subscribe of {@link ChatEvent}s, routed by user.
+ * <p>
+ * Publishing never blocks: each subscription has its own bounded buffer, drained onto
+ * the connection by a small pusher pool. While a subscriber is backed up, new events
+ * replace pending ones saying the same thing (the same session got more messages), and
+ * when the buffer still overflows it is dropped as a whole and replaced by a single
+ * resync event. A slow client therefore costs a fixed amount of memory and gets told to
+ * reload, instead of holding up publishers or everyone else's pushes.
+ */
+public class EventBus {
+    private static final Logger logger = LoggerFactory.getLogger(EventBus.class);
+    // Events pushed per turn on a pusher thread, before other subscriptions get theirs
+    private static final int DRAIN_BATCH = 32;
+    private static final long BACKED_UP_RETRY_MS = 50;
+
+    private final Map<Integer, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor pusher;
+    private final int bufferSize;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+    /**
+     * Receives the events of one subscription, one at a time
+     */
+    public interface Subscriber {
+        void deliver(ChatEvent event);
+
+        /**
+         * @return true while earlier events are still waiting to be written; delivery pauses meanwhile
+         */
+        default boolean isBackedUp() {
+            return false;
+        }
+    }
+
+    public EventBus() {
+        this(ServerConfig.getInt("aichat.events.threads", 2),
+                ServerConfig.getInt("aichat.events.bufferSize", 64));
+    }
+
+    /**
+     * @param threads    pusher threads shared by all subscriptions
+     * @param bufferSize distinct undelivered events per subscription before it is told to resync
+     */
+    public EventBus(int threads, int bufferSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pusher = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread t = new Thread(r, "event-pusher-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param origin events caused by this origin are not delivered to this subscription
+     */
+    public Subscription subscribe(int userId, Object origin, Subscriber subscriber) {
+        Subscription subscription = new Subscription(userId, origin, subscriber);
+        // Added within the compute, so the last close of this user cannot drop the set in between
+        subscriptions.compute(userId, (id, set) -> {
+            Set<Subscription> targets = set != null ? set : ConcurrentHashMap.newKeySet();
+            targets.add(subscription);
+            return targets;
+        });
+        return subscription;
+    }
+
+    /**
+     * Hands the event to every subscription of its user, without waiting for delivery
+     */
+    public void publish(ChatEvent event) {
+        published.increment();
+        Set<Subscription> targets = subscriptions.get(event.getUserId());
+        if (targets == null) {
+            return;
+        }
+        for (Subscription subscription : targets) {
+            if (event.getOrigin() == null || event.getOrigin() != subscription.origin) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    public int getSubscriptionCount() {
+        int count = 0;
+        for (Set<Subscription> targets : subscriptions.values()) {
+            count += targets.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return a one-line summary of the bus's counters, e.g. for logs
+     */
+    public String getStats() {
+        return String.format("subscriptions=%d, published=%d, delivered=%d, coalesced=%d, overflows=%d",
+                getSubscriptionCount(), published.sum(), delivered.sum(), coalesced.sum(), overflows.sum());
+    }
+
+    public void shutdown() {
+        pusher.shutdownNow();
+    }
+
+    /**
+     * One subscriber's registration and its buffer of undelivered events
+     */
+    public class Subscription {
+        private final int userId;
+        private final Object origin;
+        private final Subscriber subscriber;
+        // Guarded by this: undelivered events by coalesce key, oldest first
+        private final LinkedHashMap<String, ChatEvent> pending = new LinkedHashMap<>();
+        private boolean overflowed;
+        private boolean scheduled;
+        private volatile boolean closed;
+
+        Subscription(int userId, Object origin, Subscriber subscriber) {
+            this.userId = userId;
+            this.origin = origin;
+            this.subscriber = subscriber;
+        }
+
+        void offer(ChatEvent event) {
+            synchronized (this) {
+                if (closed || overflowed) {
+                    // A resync is already due, it covers this event too
+                    return;
+                }
+                String key = event.coalesceKey();
+                if (pending.containsKey(key)) {
+                    pending.put(key, event);
+                    coalesced.increment();
+                } else if (pending.size() >= bufferSize) {
+                    pending.clear();
+                    overflowed = true;
+                    overflows.increment();
+                    logger.debug("Event buffer of user {} overflowed, sending a resync", userId);
+                } else {
+                    pending.put(key, event);
+                }
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            schedule(0);
+        }
+
+        private void schedule(long delayMs) {
+            try {
+                pusher.schedule(this::drain, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }
+
+        private void drain() {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                if (closed) {
+                    return;
+                }
+                if (subscriber.isBackedUp()) {
+                    // Events keep coalescing in the buffer meanwhile
+                    schedule(BACKED_UP_RETRY_MS);
+                    return;
+                }
+                ChatEvent event;
+                synchronized (this) {
+                    if (overflowed) {
+                        overflowed = false;
+                        event = ChatEvent.resync(userId);
+                    } else {
+                        Iterator<ChatEvent> first = pending.values().iterator();
+                        if (!first.hasNext()) {
+                            scheduled = false;
+                            return;
+                        }
+                        event = first.next();
+                        first.remove();
+                    }
+                }
+                try {
+                    subscriber.deliver(event);
+                    delivered.increment();
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to push {} to user {}", event.getType(), userId, e);
+                }
+            }
+            // More left, go to the back of the queue so other subscriptions get their turn
+            schedule(0);
+        }
+
+        /**
+         * Stops delivery and forgets whatever was not delivered yet
+         */
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                pending.clear();
+            }
+            subscriptions.computeIfPresent(userId, (id, set) -> {
+                set.remove(this);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.aichatapp.metrics;
+
+/**
+ * JMX view of a gauge, registered as com.aichatapp:type=Gauge
+ */
+public interface GaugeMXBean {
+
+    long getValue();
+}
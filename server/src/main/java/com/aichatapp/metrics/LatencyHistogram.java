@@ -0,0 +1,153 @@
+package com.aichatapp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: every power of two of
+ * microseconds is split into four buckets, so a percentile is off by at most
+ * about 20%, from 1us up to roughly 100 minutes. Recording is a few atomic adds.
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_MAGNITUDE = 42;
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAX_MAGNITUDE * SUB_BUCKETS);
+    private final LongAdder sumNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos / 1_000));
+        sumNanos.add(nanos);
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * Records the time elapsed since start, a System.nanoTime() value
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (magnitude - 2)) & (SUB_BUCKETS - 1);
+        return Math.min((magnitude - 1) * SUB_BUCKETS + sub, MAX_MAGNITUDE * SUB_BUCKETS - 1);
+    }
+
+    /**
+     * @return the largest value, in microseconds, that falls into the bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS + 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (magnitude - 2);
+        return lower + (1L << (magnitude - 2)) - 1;
+    }
+
+    /**
+     * Copies the counters; concurrent recordings may or may not be included
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        double[] values = new double[QUANTILES.length];
+        for (int q = 0; q < QUANTILES.length; q++) {
+            values[q] = quantileMillis(copy, total, QUANTILES[q]);
+        }
+        return new Snapshot(total, sumNanos.sum(), maxNanos.get(), values);
+    }
+
+    private double quantileMillis(long[] copy, long total, double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < copy.length; i++) {
+            seen += copy[i];
+            if (seen >= rank) {
+                // Never report more than the largest value actually seen
+                return Math.min(bucketUpperBound(i) / 1_000.0, maxNanos.get() / 1e6);
+            }
+        }
+        return maxNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getCount() {
+        return snapshot().count;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return snapshot().getMeanMillis();
+    }
+
+    @Override
+    public double getP50Millis() {
+        return snapshot().quantileMillis[0];
+    }
+
+    @Override
+    public double getP95Millis() {
+        return snapshot().quantileMillis[1];
+    }
+
+    @Override
+    public double getP99Millis() {
+        return snapshot().quantileMillis[2];
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    static double[] quantiles() {
+        return QUANTILES.clone();
+    }
+
+    public static class Snapshot {
+        final long count;
+        final long sumNanos;
+        final long maxNanos;
+        // One per QUANTILES entry
+        final double[] quantileMillis;
+
+        Snapshot(long count, long sumNanos, long maxNanos, double[] quantileMillis) {
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+            this.quantileMillis = quantileMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? 0 : sumNanos / 1e6 / count;
+        }
+
+        public double getQuantileMillis(int index) {
+            return quantileMillis[index];
+        }
+    }
+}
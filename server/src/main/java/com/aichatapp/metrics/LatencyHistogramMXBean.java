@@ -0,0 +1,19 @@
+package com.aichatapp.metrics;
+
+/**
+ * JMX view of a {@link LatencyHistogram}, registered as com.aichatapp:type=Latency
+ */
+public interface LatencyHistogramMXBean {
+
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+}
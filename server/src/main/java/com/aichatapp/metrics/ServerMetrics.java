@@ -0,0 +1,167 @@
+package com.aichatapp.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Server-wide latency histograms and gauges. Histograms are created on first use
+ * and, like gauges, registered in JMX under com.aichatapp; {@link #renderPrometheus()}
+ * renders everything for the scrape endpoint of {@link MetricsHttpServer}.
+ */
+public final class ServerMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(ServerMetrics.class);
+
+    // Phases, recorded by the code doing the work
+    public static final LatencyHistogram DB = phase("db");
+    public static final LatencyHistogram UPSTREAM = phase("upstream");
+    public static final LatencyHistogram SERIALIZATION = phase("serialization");
+    public static final LatencyHistogram BCRYPT = phase("bcrypt");
+    /** Time from starting a streamed upstream call, rate limit wait included, to its first token */
+    public static final LatencyHistogram TIME_TO_FIRST_TOKEN = histogram("aichat_time_to_first_token", null, null);
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * @return the latency histogram of one client action, e.g. "login"
+     */
+    public static LatencyHistogram action(String action) {
+        return histogram("aichat_request", "action", action);
+    }
+
+    private static LatencyHistogram phase(String phase) {
+        return histogram("aichat_phase", "phase", phase);
+    }
+
+    private static LatencyHistogram histogram(String family, String label, String value) {
+        String key = key(family, label, value);
+        Metric<LatencyHistogram> metric = Holder.HISTOGRAMS.get(key);
+        if (metric == null) {
+            metric = Holder.HISTOGRAMS.computeIfAbsent(key, k -> {
+                LatencyHistogram histogram = new LatencyHistogram();
+                register("Latency", k, histogram, LatencyHistogramMXBean.class);
+                return new Metric<>(family, label, value, histogram);
+            });
+        }
+        return metric.value;
+    }
+
+    /**
+     * Registers (or replaces) a gauge read at scrape time
+     */
+    public static void gauge(String name, LongSupplier supplier) {
+        String key = key(name, null, null);
+        if (Holder.GAUGES.put(key, new Metric<>(name, null, null, supplier)) == null) {
+            GaugeMXBean bean = () -> {
+                Metric<LongSupplier> current = Holder.GAUGES.get(key);
+                return current != null ? current.value.getAsLong() : 0;
+            };
+            register("Gauge", key, bean, GaugeMXBean.class);
+        }
+    }
+
+    private static String key(String family, String label, String value) {
+        return label == null ? family : family + "." + value;
+    }
+
+    private static <T> void register(String type, String name, T bean, Class<T> mxBeanInterface) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("com.aichatapp:type=" + type + ",name=" + ObjectName.quote(name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(bean, mxBeanInterface, true), objectName);
+            }
+        } catch (JMException e) {
+            logger.warn("Failed to register {} in JMX", name, e);
+        }
+    }
+
+    /**
+     * @return every metric in the Prometheus text format, histograms as summaries in seconds
+     */
+    public static String renderPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        Map<String, Map<String, Metric<LatencyHistogram>>> byFamily = new TreeMap<>();
+        for (Map.Entry<String, Metric<LatencyHistogram>> entry : Holder.HISTOGRAMS.entrySet()) {
+            byFamily.computeIfAbsent(entry.getValue().family, f -> new TreeMap<>()).put(entry.getKey(), entry.getValue());
+        }
+
+        double[] quantiles = LatencyHistogram.quantiles();
+        for (Map.Entry<String, Map<String, Metric<LatencyHistogram>>> family : byFamily.entrySet()) {
+            String name = family.getKey() + "_seconds";
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (Metric<LatencyHistogram> metric : family.getValue().values()) {
+                LatencyHistogram.Snapshot snapshot = metric.value.snapshot();
+                for (int q = 0; q < quantiles.length; q++) {
+                    sample(out, name, metric.labels("quantile=\"" + quantiles[q] + "\""),
+                            snapshot.getQuantileMillis(q) / 1_000);
+                }
+                sample(out, name + "_sum", metric.labels(null), snapshot.sumNanos / 1e9);
+                sample(out, name + "_count", metric.labels(null), snapshot.count);
+            }
+        }
+
+        for (Metric<LongSupplier> gauge : new TreeMap<>(Holder.GAUGES).values()) {
+            out.append("# TYPE ").append(gauge.family).append(" gauge\n");
+            sample(out, gauge.family, "", gauge.value.getAsLong());
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == Math.rint(value)) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.6f", value));
+        }
+        out.append('\n');
+    }
+
+    /**
+     * The maps live here so they exist before the static histograms above register into them
+     */
+    private static final class Holder {
+        static final Map<String, Metric<LatencyHistogram>> HISTOGRAMS = new ConcurrentHashMap<>();
+        static final Map<String, Metric<LongSupplier>> GAUGES = new ConcurrentHashMap<>();
+    }
+
+    private static final class Metric<T> {
+        final String family;
+        final String label;
+        final String labelValue;
+        final T value;
+
+        Metric(String family, String label, String labelValue, T value) {
+            this.family = family;
+            this.label = label;
+            this.labelValue = labelValue;
+            this.value = value;
+        }
+
+        String labels(String extra) {
+            StringBuilder labels = new StringBuilder();
+            if (label != null) {
+                labels.append(label).append("=\"").append(labelValue).append('"');
+            }
+            if (extra != null) {
+                if (labels.length() > 0) {
+                    labels.append(',');
+                }
+                labels.append(extra);
+            }
+            return labels.length() == 0 ? "" : "{" + labels + "}";
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.aichatapp.models;
+
+/**
+ * A chat session as listed by get_sessions
+ */
+public class ChatSession {
+    private final int id;
+    private final String name;
+    private final String created;
+
+    public ChatSession(int id, String name, String created) {
+        this.id = id;
+        this.name = name;
+        this.created = created;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCreated() {
+        return created;
+    }
+}
@@ -1,21 +1,43 @@
 package com.aichatapp.models;
 
+import com.aichatapp.config.ServerConfig;
+import com.aichatapp.metrics.ServerMetrics;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Handles MySQL database connections with proper logging and validation
+ * Hands out MySQL connections from a shared HikariCP pool.
+ * Closing a connection returns it to the pool instead of tearing down the TCP session.
  */
 public class DatabaseConnection {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseConnection.class);
     private static final String JDBC_DRIVER = "com.mysql.cj.jdbc.Driver";
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/aichat_db";
-    private static final String USER = "root";
-    private static final String PASS = "";
+    private static final String DB_URL = ServerConfig.getString("aichat.db.url", "jdbc:mysql://localhost:3306/aichat_db");
+    private static final String USER = ServerConfig.getString("aichat.db.user", "root");
+    private static final String PASS = ServerConfig.getString("aichat.db.password", "");
+
+    // Pool sizing and diagnostics
+    private static final int POOL_MAX_SIZE = ServerConfig.getInt("aichat.db.pool.maxSize", 20);
+    private static final int POOL_MIN_IDLE = ServerConfig.getInt("aichat.db.pool.minIdle", 5);
+    private static final long CONNECTION_TIMEOUT_MS = ServerConfig.getLong("aichat.db.pool.connectionTimeoutMs", 5_000);
+    private static final long IDLE_TIMEOUT_MS = ServerConfig.getLong("aichat.db.pool.idleTimeoutMs", 600_000);
+    private static final long MAX_LIFETIME_MS = ServerConfig.getLong("aichat.db.pool.maxLifetimeMs", 1_800_000);
+    private static final long LEAK_DETECTION_MS = ServerConfig.getLong("aichat.db.pool.leakDetectionMs", 10_000);
+    private static final long STATS_INTERVAL_SEC = ServerConfig.getLong("aichat.db.pool.statsIntervalSec", 60);
+
+    private static volatile HikariDataSource dataSource;
+    private static ScheduledExecutorService statsReporter;
 
     static {
         initializeDriver();
@@ -35,28 +57,114 @@ public class DatabaseConnection {
     }
 
     /**
-     * Establishes a new database connection
-     * @return Connection object
-     * @throws SQLException if connection fails
+     * Borrows a connection from the pool, creating the pool on first use
+     * @return Connection object, close it to give it back
+     * @throws SQLException if no connection becomes available within the timeout
      */
     public static Connection getConnection() throws SQLException {
         try {
-            Connection conn = DriverManager.getConnection(DB_URL, USER, PASS);
-
-            // Test the connection
-            if (conn.isValid(2)) { // 2 second timeout for validation
-                logger.info("Successfully connected to database: {}", DB_URL);
-                return conn;
-            } else {
-                logger.error("Database connection is invalid");
-                throw new SQLException("Failed to establish valid database connection");
-            }
+            return getDataSource().getConnection();
         } catch (SQLException e) {
-            logger.error("Failed to connect to database: {}", DB_URL, e);
+            logger.error("Failed to get connection for database: {} ({})", DB_URL, getPoolStats(), e);
             throw e;
         }
     }
 
+    /**
+     * @return the shared pooled data source
+     */
+    public static DataSource getDataSource() {
+        HikariDataSource ds = dataSource;
+        if (ds == null) {
+            synchronized (DatabaseConnection.class) {
+                ds = dataSource;
+                if (ds == null) {
+                    ds = createDataSource();
+                    dataSource = ds;
+                }
+            }
+        }
+        return ds;
+    }
+
+    private static HikariDataSource createDataSource() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("aichat-db");
+        config.setJdbcUrl(DB_URL);
+        config.setUsername(USER);
+        config.setPassword(PASS);
+        config.setMaximumPoolSize(POOL_MAX_SIZE);
+        config.setMinimumIdle(Math.min(POOL_MIN_IDLE, POOL_MAX_SIZE));
+        config.setConnectionTimeout(CONNECTION_TIMEOUT_MS);
+        config.setIdleTimeout(IDLE_TIMEOUT_MS);
+        config.setMaxLifetime(MAX_LIFETIME_MS);
+        config.setLeakDetectionThreshold(LEAK_DETECTION_MS);
+        config.setRegisterMbeans(true);
+        // How long each connection is held, borrow to close, as the "db" phase; Hikari measures it in milliseconds
+        config.setMetricsTrackerFactory((poolName, poolStats) -> new IMetricsTracker() {
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                ServerMetrics.DB.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+            }
+        });
+
+        if (DB_URL.startsWith("jdbc:mysql:")) {
+            // Driver side statement caching, saves a round trip per prepareStatement
+            config.addDataSourceProperty("cachePrepStmts", "true");
+            config.addDataSourceProperty("prepStmtCacheSize", "250");
+            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            config.addDataSourceProperty("useServerPrepStmts", "true");
+            // Send JDBC batches (see MessageWriter) as multi-row inserts
+            config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        }
+
+        HikariDataSource ds = new HikariDataSource(config);
+        logger.info("Connection pool started for {} (max={}, minIdle={})", DB_URL, POOL_MAX_SIZE, POOL_MIN_IDLE);
+
+        if (STATS_INTERVAL_SEC > 0) {
+            statsReporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "db-pool-stats");
+                t.setDaemon(true);
+                return t;
+            });
+            statsReporter.scheduleAtFixedRate(() -> logger.info("DB pool: {}", getPoolStats()),
+                    STATS_INTERVAL_SEC, STATS_INTERVAL_SEC, TimeUnit.SECONDS);
+        }
+        return ds;
+    }
+
+    /**
+     * @return a one-line summary of pool usage, e.g. for logs
+     */
+    public static String getPoolStats() {
+        HikariDataSource ds = dataSource;
+        if (ds == null) {
+            return "pool not started";
+        }
+        HikariPoolMXBean pool = ds.getHikariPoolMXBean();
+        if (pool == null) {
+            return "pool not started";
+        }
+        return String.format("active=%d, idle=%d, total=%d, waiting=%d",
+                pool.getActiveConnections(), pool.getIdleConnections(),
+                pool.getTotalConnections(), pool.getThreadsAwaitingConnection());
+    }
+
+    /**
+     * Closes every pooled connection, used on server shutdown
+     */
+    public static synchronized void shutdown() {
+        if (statsReporter != null) {
+            statsReporter.shutdownNow();
+            statsReporter = null;
+        }
+        if (dataSource != null) {
+            logger.info("Closing connection pool ({})", getPoolStats());
+            dataSource.close();
+            dataSource = null;
+        }
+    }
+
     /**
      * Validates the database connection configuration
      * @throws RuntimeException if configuration is invalid
@@ -71,6 +179,9 @@ public class DatabaseConnection {
         if (PASS == null) {
             throw new RuntimeException("Database password is not configured");
         }
+        if (POOL_MAX_SIZE <= 0) {
+            throw new RuntimeException("Database pool size must be positive");
+        }
         logger.info("Database configuration validated successfully");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,35 @@
+package com.aichatapp.models;
+
+import java.util.List;
+
+/**
+ * One page of a session's history, oldest message first
+ */
+public class HistoryPage {
+    private final List<ChatMessage> messages;
+    private final boolean hasMore;
+
+    public HistoryPage(List<ChatMessage> messages, boolean hasMore) {
+        this.messages = messages;
+        this.hasMore = hasMore;
+    }
+
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return true when more messages exist past this page: older ones for a paged read,
+     * newer ones for a delta read
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * @return the cursor for the next (older) page, or 0 for an empty page
+     */
+    public int getOldestMessageId() {
+        return messages.isEmpty() ? 0 : messages.get(0).getMessageId();
+    }
+}
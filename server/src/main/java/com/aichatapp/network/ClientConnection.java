@@ -0,0 +1,40 @@
+package com.aichatapp.network;
+
+/**
+ * One accepted client connection as seen by a {@link ConnectionHandler}.
+ * Implementations are safe to call from any thread.
+ */
+public interface ClientConnection {
+
+    /**
+     * Queues one protocol line (without the trailing newline) for the client
+     */
+    void send(String message);
+
+    /**
+     * Queues one frame, written as a 4 byte big-endian length followed by the payload
+     */
+    void sendFrame(byte[] payload);
+
+    /**
+     * From the next byte on, reads length-prefixed frames instead of lines and hands them to
+     * {@link ConnectionHandler#onFrame(byte[])}. Meant to be called while handling the negotiation
+     * request, before it is answered, so the client cannot send a frame before the switch.
+     */
+    void enableBinaryFraming();
+
+    /**
+     * Closes the underlying socket, {@link ConnectionHandler#onDisconnect()} follows
+     */
+    void close();
+
+    String getRemoteAddress();
+
+    /**
+     * @return messages and frames queued but not yet written to the socket; 0 for
+     * implementations whose sends block until written
+     */
+    default int getPendingWrites() {
+        return 0;
+    }
+}
@@ -0,0 +1,40 @@
+package com.aichatapp.network;
+
+import java.io.IOException;
+
+/**
+ * Accepts client sockets and drives their {@link ConnectionHandler}s.
+ * The engine is chosen at startup with the {@code aichat.engine} setting.
+ */
+public interface ConnectionEngine {
+
+    /**
+     * Binds the port and serves connections until {@link #shutdown()} is called.
+     * Blocks the calling thread.
+     */
+    void start(int port) throws IOException;
+
+    void shutdown();
+
+    int getActiveConnections();
+
+    /**
+     * @return the bound port, or -1 before the engine is started
+     */
+    int getLocalPort();
+
+    /**
+     * Creates the engine for the given mode name ("thread" or "nio")
+     */
+    static ConnectionEngine create(String mode, ConnectionHandlerFactory handlerFactory) {
+        switch (mode.toLowerCase()) {
+            case "thread":
+            case "virtual":
+                return new ThreadPerConnectionEngine(handlerFactory);
+            case "nio":
+                return new NioConnectionEngine(handlerFactory);
+            default:
+                throw new IllegalArgumentException("Unknown connection engine: " + mode);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.aichatapp.network;
+
+/**
+ * Receives the protocol lines of a single connection.
+ * Calls for one connection never overlap, but may come from different threads.
+ */
+public interface ConnectionHandler {
+
+    void onMessage(String message);
+
+    /**
+     * Receives one length-prefixed frame, once {@link ClientConnection#enableBinaryFraming()} was called
+     */
+    default void onFrame(byte[] frame) {
+        throw new UnsupportedOperationException("Binary framing is not supported by this handler");
+    }
+
+    void onDisconnect();
+}
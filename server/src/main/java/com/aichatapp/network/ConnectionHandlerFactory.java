@@ -0,0 +1,7 @@
+package com.aichatapp.network;
+
+@FunctionalInterface
+public interface ConnectionHandlerFactory {
+
+    ConnectionHandler create(ClientConnection connection);
+}
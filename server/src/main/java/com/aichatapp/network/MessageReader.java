@@ -0,0 +1,86 @@
+package com.aichatapp.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads lines or length-prefixed frames from a blocking stream, with a size limit on both.
+ * Works on bytes so a connection can switch from one to the other mid-stream.
+ */
+class MessageReader {
+    private final InputStream in;
+    private final int maxMessageBytes;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+    /**
+     * @param in should be buffered, lines are read a byte at a time
+     */
+    MessageReader(InputStream in, int maxMessageBytes) {
+        this.in = in;
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /**
+     * @return the next line without its terminator, or null at end of stream
+     * @throws IOException if the line is longer than the limit
+     */
+    String readLine() throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return toLine();
+            }
+            if (line.size() >= maxMessageBytes) {
+                throw new IOException("Request exceeds " + maxMessageBytes + " bytes");
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? toLine() : null;
+    }
+
+    private String toLine() {
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the next frame's payload, or null at end of stream
+     * @throws IOException if the frame is larger than the limit or cut short
+     */
+    byte[] readFrame() throws IOException {
+        int b1 = in.read();
+        if (b1 == -1) {
+            return null;
+        }
+        int length = (b1 << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        if (length < 0 || length > maxMessageBytes) {
+            throw new IOException("Frame of " + length + " bytes exceeds " + maxMessageBytes + " bytes");
+        }
+        byte[] payload = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(payload, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Connection closed inside a frame");
+            }
+            read += n;
+        }
+        return payload;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Connection closed inside a frame header");
+        }
+        return b;
+    }
+}
@@ -0,0 +1,502 @@
+package com.aichatapp.network;
+
+import com.aichatapp.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector based engine: one thread multiplexes every socket and complete lines
+ * (or frames, once a connection switched to binary framing) are handed to a small
+ * worker pool. An idle connection costs a channel and a few objects instead of a
+ * thread, so one node can hold tens of thousands of them. A connection whose requests
+ * pile up faster than its worker handles them is not read from until they drained,
+ * and one that stops reading its replies is disconnected once they fill its queue for
+ * too long, as in the thread-per-connection engine.
+ */
+public class NioConnectionEngine implements ConnectionEngine {
+    private static final Logger logger = LoggerFactory.getLogger(NioConnectionEngine.class);
+
+    private final ConnectionHandlerFactory handlerFactory;
+    private final int maxMessageBytes;
+    private final int workerThreads;
+    private final int maxQueuedRequests;
+    private final int maxQueuedWrites;
+    private final long writeTimeoutMs;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    // Connections whose requests drained, to read from again
+    private final Queue<NioConnection> pendingResumes = new ConcurrentLinkedQueue<>();
+    // Shared by every connection, only touched by the selector thread
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+
+    private volatile Selector selector;
+    private volatile ServerSocketChannel serverChannel;
+    private ExecutorService workers;
+
+    public NioConnectionEngine(ConnectionHandlerFactory handlerFactory) {
+        this.handlerFactory = handlerFactory;
+        this.maxMessageBytes = ServerConfig.getInt("aichat.net.maxMessageBytes", 4 * 1024 * 1024);
+        this.workerThreads = ServerConfig.getInt("aichat.nio.workers",
+                Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        // Requests of one connection waiting for its worker before reading pauses; resumes at half of it
+        this.maxQueuedRequests = ServerConfig.getInt("aichat.nio.maxQueuedRequests", 64);
+        this.maxQueuedWrites = ServerConfig.getInt("aichat.net.maxQueuedWrites", 1024);
+        // A client that reads nothing for this long while its queue is full is disconnected
+        this.writeTimeoutMs = ServerConfig.getLong("aichat.net.writeTimeoutMs", 30_000);
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        workers = Executors.newFixedThreadPool(workerThreads);
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        logger.info("NIO engine listening on port {} with {} workers", getLocalPort(), workerThreads);
+
+        try {
+            while (serverChannel.isOpen()) {
+                selector.select();
+                registerPendingWrites();
+                resumePendingReads();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            NioConnection connection = (NioConnection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        }
+                    } catch (IOException e) {
+                        Object attachment = key.attachment();
+                        if (attachment instanceof NioConnection) {
+                            logger.debug("Client connection error", e);
+                            ((NioConnection) attachment).close();
+                        } else {
+                            logger.error("Error accepting client connection", e);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (serverChannel.isOpen()) {
+                throw e;
+            }
+        } finally {
+            shutdown();
+            closeSelector();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        NioConnection connection = new NioConnection(channel, key);
+        key.attach(connection);
+        activeConnections.incrementAndGet();
+        logger.debug("New client connected: {}", connection.getRemoteAddress());
+        connection.handler = handlerFactory.create(connection);
+    }
+
+    private void registerPendingWrites() {
+        NioConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            SelectionKey key = connection.key;
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void resumePendingReads() {
+        NioConnection connection;
+        while ((connection = pendingResumes.poll()) != null) {
+            SelectionKey key = connection.key;
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting; the selector thread closes the remaining connections on its way out
+     */
+    @Override
+    public void shutdown() {
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            logger.error("Error closing server channel", e);
+        }
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void closeSelector() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection) {
+                    ((NioConnection) key.attachment()).close();
+                }
+            }
+            selector.close();
+        } catch (IOException e) {
+            logger.error("Error closing selector", e);
+        }
+        workers.shutdown();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public int getLocalPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel != null ? channel.socket().getLocalPort() : -1;
+    }
+
+    private class NioConnection implements ClientConnection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        // Lines as String, frames as byte[]
+        private final Queue<Object> inbound = new ArrayDeque<>();
+        private final Queue<ByteBuffer> outbound = new ArrayDeque<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final String remoteAddress;
+        private ByteArrayOutputStream partialLine;
+        private volatile boolean binaryFraming;
+        // Frame being assembled: header bytes first, then the payload
+        private final byte[] frameHeader = new byte[4];
+        private int frameHeaderRead;
+        private byte[] frame;
+        private int frameRead;
+        // Both guarded by inbound
+        private boolean processing;
+        private boolean readPaused;
+        private volatile ConnectionHandler handler;
+
+        NioConnection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            this.remoteAddress = String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+
+        /**
+         * Selector thread: splits whatever arrived into lines or frames, and stops reading
+         * while too many of them wait for the worker
+         */
+        void read() throws IOException {
+            readMessages();
+            synchronized (inbound) {
+                if (readPaused || inbound.size() < maxQueuedRequests || !key.isValid()) {
+                    return;
+                }
+                readPaused = true;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+
+        private void readMessages() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+
+            while (readBuffer.hasRemaining()) {
+                if (binaryFraming) {
+                    if (!readFrame()) {
+                        return;
+                    }
+                    continue;
+                }
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    dispatch(takeLine());
+                    continue;
+                }
+                if (partialLine == null) {
+                    partialLine = new ByteArrayOutputStream(256);
+                }
+                if (partialLine.size() >= maxMessageBytes) {
+                    logger.warn("Closing {}: request exceeds {} bytes", getRemoteAddress(), maxMessageBytes);
+                    close();
+                    return;
+                }
+                partialLine.write(b);
+            }
+        }
+
+        /**
+         * Consumes as much of the current frame as the read buffer holds
+         * @return false if the connection was closed
+         */
+        private boolean readFrame() {
+            if (frame == null) {
+                while (frameHeaderRead < 4 && readBuffer.hasRemaining()) {
+                    frameHeader[frameHeaderRead++] = readBuffer.get();
+                }
+                if (frameHeaderRead < 4) {
+                    return true;
+                }
+                int length = ((frameHeader[0] & 0xFF) << 24) | ((frameHeader[1] & 0xFF) << 16)
+                        | ((frameHeader[2] & 0xFF) << 8) | (frameHeader[3] & 0xFF);
+                if (length < 0 || length > maxMessageBytes) {
+                    logger.warn("Closing {}: frame of {} bytes exceeds {} bytes", getRemoteAddress(), length, maxMessageBytes);
+                    close();
+                    return false;
+                }
+                frame = new byte[length];
+                frameRead = 0;
+            }
+
+            int n = Math.min(readBuffer.remaining(), frame.length - frameRead);
+            readBuffer.get(frame, frameRead, n);
+            frameRead += n;
+            if (frameRead == frame.length) {
+                byte[] complete = frame;
+                frame = null;
+                frameHeaderRead = 0;
+                dispatch(complete);
+            }
+            return true;
+        }
+
+        private String takeLine() {
+            if (partialLine == null) {
+                return "";
+            }
+            byte[] bytes = partialLine.toByteArray();
+            int length = bytes.length;
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            // Drop the buffer so idle connections do not keep it around
+            partialLine = null;
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Messages of one connection are processed in order, one at a time
+         */
+        private void dispatch(Object message) {
+            synchronized (inbound) {
+                inbound.add(message);
+                if (processing) {
+                    return;
+                }
+                processing = true;
+            }
+            workers.execute(this::drainInbound);
+        }
+
+        private void drainInbound() {
+            while (true) {
+                Object message;
+                synchronized (inbound) {
+                    message = inbound.poll();
+                    if (message == null || closed.get()) {
+                        processing = false;
+                        return;
+                    }
+                    if (readPaused && inbound.size() <= maxQueuedRequests / 2) {
+                        readPaused = false;
+                        pendingResumes.add(this);
+                        selector.wakeup();
+                    }
+                }
+                try {
+                    if (message instanceof byte[]) {
+                        handler.onFrame((byte[]) message);
+                    } else {
+                        handler.onMessage((String) message);
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Unhandled error processing client request", e);
+                }
+            }
+        }
+
+        @Override
+        public void send(String message) {
+            if (closed.get()) {
+                return;
+            }
+            enqueue(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void sendFrame(byte[] payload) {
+            if (closed.get()) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(4 + payload.length);
+            buffer.putInt(payload.length).put(payload).flip();
+            enqueue(buffer);
+        }
+
+        @Override
+        public void enableBinaryFraming() {
+            binaryFraming = true;
+        }
+
+        /**
+         * Worker thread: blocks while the connection's queue is full, which also stops
+         * its requests from being handled, and disconnects a client that reads nothing
+         * for writeTimeoutMs
+         */
+        private void enqueue(ByteBuffer buffer) {
+            synchronized (outbound) {
+                if (!awaitRoom()) {
+                    return;
+                }
+                boolean idle = outbound.isEmpty();
+                outbound.add(buffer);
+                if (!idle) {
+                    return;
+                }
+                try {
+                    if (flushOutbound()) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    logger.debug("Write to {} failed", getRemoteAddress(), e);
+                    close();
+                    return;
+                }
+            }
+            // Socket buffer is full, let the selector finish the write
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * @return false when the connection was closed instead; called holding outbound
+         */
+        private boolean awaitRoom() {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs);
+            while (outbound.size() >= maxQueuedWrites && !closed.get()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    logger.warn("{} read nothing for {} ms, disconnecting", getRemoteAddress(), writeTimeoutMs);
+                    close();
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(outbound, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !closed.get();
+        }
+
+        /**
+         * @return true when everything queued has been written
+         */
+        private boolean flushOutbound() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = outbound.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return false;
+                }
+                outbound.poll();
+            }
+            return true;
+        }
+
+        void onWritable() throws IOException {
+            synchronized (outbound) {
+                if (flushOutbound()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+                outbound.notifyAll();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            activeConnections.decrementAndGet();
+            synchronized (outbound) {
+                // Writers waiting for room give up
+                outbound.notifyAll();
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Error closing client socket", e);
+            }
+            ConnectionHandler current = handler;
+            if (current != null) {
+                try {
+                    workers.execute(current::onDisconnect);
+                } catch (RejectedExecutionException e) {
+                    current.onDisconnect();
+                }
+            }
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public int getPendingWrites() {
+            synchronized (outbound) {
+                return outbound.size();
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.aichatapp.network;
+
+import com.aichatapp.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Blocking engine that gives every connection its own reader thread, and a writer thread that
+ * drains the connection's bounded outbound queue, so a send only blocks while that queue is full.
+ * Uses virtual threads when the runtime supports them (Java 21+),
+ * otherwise an unbounded pool of platform threads so no client waits for a free slot.
+ */
+public class ThreadPerConnectionEngine implements ConnectionEngine {
+    private static final Logger logger = LoggerFactory.getLogger(ThreadPerConnectionEngine.class);
+
+    private final ConnectionHandlerFactory handlerFactory;
+    private final int maxMessageBytes;
+    private final int maxQueuedWrites;
+    private final long writeTimeoutMs;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private volatile ServerSocket serverSocket;
+    private ExecutorService executorService;
+
+    public ThreadPerConnectionEngine(ConnectionHandlerFactory handlerFactory) {
+        this.handlerFactory = handlerFactory;
+        this.maxMessageBytes = ServerConfig.getInt("aichat.net.maxMessageBytes", 4 * 1024 * 1024);
+        this.maxQueuedWrites = ServerConfig.getInt("aichat.net.maxQueuedWrites", 1024);
+        // A client that reads nothing for this long while its queue is full is disconnected
+        this.writeTimeoutMs = ServerConfig.getLong("aichat.net.writeTimeoutMs", 30_000);
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        executorService = newPerConnectionExecutor();
+        serverSocket = new ServerSocket(port);
+        logger.info("Thread-per-connection engine listening on port {}", serverSocket.getLocalPort());
+
+        try {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket clientSocket = serverSocket.accept();
+                    logger.debug("New client connected: {}", clientSocket.getInetAddress());
+                    executorService.execute(() -> serve(clientSocket));
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        logger.error("Error accepting client connection", e);
+                    }
+                }
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void serve(Socket clientSocket) {
+        activeConnections.incrementAndGet();
+        ConnectionHandler handler = null;
+        SocketConnection connection = null;
+        Future<?> writer = null;
+        try (InputStream in = new BufferedInputStream(clientSocket.getInputStream());
+             OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream())) {
+
+            connection = new SocketConnection(clientSocket, out, maxQueuedWrites, writeTimeoutMs);
+            writer = executorService.submit(connection::writeQueued);
+            handler = handlerFactory.create(connection);
+            MessageReader reader = new MessageReader(in, maxMessageBytes);
+
+            while (true) {
+                if (connection.binaryFraming) {
+                    byte[] frame = reader.readFrame();
+                    if (frame == null) {
+                        break;
+                    }
+                    handler.onFrame(frame);
+                } else {
+                    String request = reader.readLine();
+                    if (request == null) {
+                        break;
+                    }
+                    handler.onMessage(request);
+                }
+            }
+        } catch (IOException e) {
+            if (!clientSocket.isClosed()) {
+                logger.error("Client connection error", e);
+            }
+        } finally {
+            activeConnections.decrementAndGet();
+            if (connection != null) {
+                connection.close();
+            } else {
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    logger.warn("Error closing client socket", e);
+                }
+            }
+            if (writer != null) {
+                writer.cancel(true);
+            }
+            if (handler != null) {
+                handler.onDisconnect();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            logger.error("Error closing server socket", e);
+        }
+
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public int getLocalPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : -1;
+    }
+
+    private static ExecutorService newPerConnectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            logger.info("Using virtual threads for client connections");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Virtual threads are not available on this runtime, using platform threads per connection");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static class SocketConnection implements ClientConnection {
+        private final Socket socket;
+        private final OutputStream out;
+        // Lines and frames, encoded, only written by the connection's writer thread
+        private final BlockingQueue<byte[]> outbound;
+        private final long writeTimeoutMs;
+        // Only read by the connection's own thread, set while it handles the negotiation request
+        private volatile boolean binaryFraming;
+        private volatile boolean closed;
+
+        SocketConnection(Socket socket, OutputStream out, int maxQueuedWrites, long writeTimeoutMs) {
+            this.socket = socket;
+            this.out = out;
+            this.outbound = new ArrayBlockingQueue<>(maxQueuedWrites);
+            this.writeTimeoutMs = writeTimeoutMs;
+        }
+
+        @Override
+        public void send(String message) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            byte[] line = Arrays.copyOf(bytes, bytes.length + 1);
+            line[bytes.length] = '\n';
+            enqueue(line);
+        }
+
+        @Override
+        public void sendFrame(byte[] payload) {
+            int length = payload.length;
+            byte[] frame = new byte[4 + length];
+            frame[0] = (byte) (length >>> 24);
+            frame[1] = (byte) (length >>> 16);
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+            System.arraycopy(payload, 0, frame, 4, length);
+            enqueue(frame);
+        }
+
+        /**
+         * Waits while the queue is full; a client that takes nothing for the write timeout is disconnected
+         */
+        private void enqueue(byte[] bytes) {
+            if (closed) {
+                return;
+            }
+            try {
+                if (!outbound.offer(bytes, writeTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    logger.warn("{} read nothing for {} ms, disconnecting", getRemoteAddress(), writeTimeoutMs);
+                    close();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * The writer thread: writes whatever is queued and flushes once the queue ran empty,
+         * until the connection is closed
+         */
+        void writeQueued() {
+            try {
+                while (!closed) {
+                    byte[] bytes = outbound.take();
+                    do {
+                        out.write(bytes);
+                    } while ((bytes = outbound.poll()) != null);
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                // Closed by the reader thread
+            } catch (IOException e) {
+                logger.debug("Write to {} failed", getRemoteAddress(), e);
+                close();
+            }
+            outbound.clear();
+        }
+
+        @Override
+        public void enableBinaryFraming() {
+            binaryFraming = true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.warn("Error closing client socket", e);
+            }
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return String.valueOf(socket.getRemoteSocketAddress());
+        }
+
+        @Override
+        public int getPendingWrites() {
+            return outbound.size();
+        }
+    }
+}
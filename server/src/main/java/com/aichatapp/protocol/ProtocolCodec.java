@@ -0,0 +1,53 @@
+package com.aichatapp.protocol;
+
+import com.aichatapp.models.LocalDateTimeAdapter;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+
+/**
+ * Reads {@link Request}s and writes {@link Response}s in either framing.
+ * Gson binds the fields while streaming through the JSON or binary reader/writer,
+ * so no JsonObject trees are built on the way. Thread-safe, one instance serves every connection.
+ */
+public class ProtocolCodec {
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .create();
+
+    /**
+     * @return the request, or null for a blank line
+     * @throws JsonParseException if the line is not a valid request
+     */
+    public Request decodeLine(String line) {
+        return gson.fromJson(line, Request.class);
+    }
+
+    /**
+     * @return the request, or null for an empty frame
+     * @throws JsonParseException if the payload is not a valid request
+     */
+    public Request decodeFrame(byte[] payload) {
+        return gson.fromJson(new BinaryJsonReader(payload), Request.class);
+    }
+
+    public String encodeLine(Response response) {
+        return gson.toJson(response, Response.class);
+    }
+
+    public byte[] encodeFrame(Response response) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (BinaryJsonWriter writer = new BinaryJsonWriter(bytes)) {
+            gson.toJson(response, Response.class, writer);
+        } catch (IOException e) {
+            // Only the in-memory stream is written, this does not happen
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
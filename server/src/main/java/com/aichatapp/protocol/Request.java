@@ -0,0 +1,126 @@
+package com.aichatapp.protocol;
+
+import com.google.gson.JsonElement;
+
+import java.util.List;
+
+/**
+ * One client request. Every action uses a subset of the fields, the others stay null.
+ */
+public class Request {
+    private String action;
+    // Echoed back untouched, so clients may use any JSON value
+    private JsonElement requestId;
+    private String username;
+    private String password;
+    private String email;
+    private String authToken;
+    private String message;
+    private String sessionName;
+    private Integer sessionId;
+    private Integer limit;
+    private Integer beforeId;
+    private Integer afterId;
+    private String query;
+    private Integer offset;
+    private boolean stream;
+    private boolean cache;
+    private List<String> formats;
+    private List<Request> requests;
+
+    public String getAction() {
+        return action;
+    }
+
+    public JsonElement getRequestId() {
+        return requestId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    /**
+     * @return the token issued at login, for "resume" and "logout"
+     */
+    public String getAuthToken() {
+        return authToken;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getSessionName() {
+        return sessionName;
+    }
+
+    public Integer getSessionId() {
+        return sessionId;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public Integer getBeforeId() {
+        return beforeId;
+    }
+
+    /**
+     * @return for get_history, only send messages newer than this one (a client's cached tail)
+     */
+    public Integer getAfterId() {
+        return afterId;
+    }
+
+    /**
+     * @return the words to look for with search_messages
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return matches to skip in a search_messages page, null for the first page
+     */
+    public Integer getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return true when the AI reply should be streamed as token frames
+     */
+    public boolean isStream() {
+        return stream;
+    }
+
+    /**
+     * @return true when the AI reply may be served from, and stored in, the completion cache
+     */
+    public boolean isCache() {
+        return cache;
+    }
+
+    /**
+     * @return framings offered in a hello request, most preferred first
+     */
+    public List<String> getFormats() {
+        return formats;
+    }
+
+    /**
+     * @return the requests of a batch, each with its own action
+     */
+    public List<Request> getRequests() {
+        return requests;
+    }
+}
@@ -0,0 +1,154 @@
+package com.aichatapp.protocol;
+
+import com.aichatapp.events.ChatEvent;
+import com.aichatapp.models.ChatMessage;
+import com.aichatapp.models.ChatSession;
+import com.google.gson.JsonElement;
+
+import java.util.List;
+
+/**
+ * One message to the client: the answer to a request, a token frame of a streamed reply,
+ * or a pushed event of a subscribed connection.
+ * Null fields are left out on the wire.
+ */
+public class Response {
+    private String type;
+    private String delta;
+    private String event;
+    private Boolean success;
+    private String error;
+    private String format;
+    private Integer sessionId;
+    private String sessionName;
+    private String aiResponse;
+    private List<ChatSession> sessions;
+    private List<ChatMessage> history;
+    private List<ChatMessage> results;
+    private List<Response> responses;
+    private Integer total;
+    private Boolean hasMore;
+    private Integer beforeId;
+    private String username;
+    private String authToken;
+    private JsonElement requestId;
+
+    public static Response error(JsonElement requestId, String error) {
+        Response response = new Response();
+        response.fail(error);
+        response.requestId = requestId;
+        return response;
+    }
+
+    /**
+     * @return a piece of a streamed AI reply, sent before the request's final response
+     */
+    public static Response token(JsonElement requestId, String delta) {
+        Response response = new Response();
+        response.type = "token";
+        response.delta = delta;
+        response.requestId = requestId;
+        return response;
+    }
+
+    /**
+     * @return a push to a subscribed connection, sent without a requestId whenever it happens
+     */
+    public static Response event(ChatEvent event) {
+        Response response = new Response();
+        response.type = "event";
+        response.event = event.getType().getWireName();
+        if (event.getSessionId() > 0) {
+            response.sessionId = event.getSessionId();
+        }
+        response.sessionName = event.getSessionName();
+        return response;
+    }
+
+    public Response fail(String error) {
+        this.success = false;
+        this.error = error;
+        return this;
+    }
+
+    public Boolean getSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    /**
+     * @param authToken token the client presents with "resume" on a later connection
+     */
+    public void setAuthToken(String authToken) {
+        this.authToken = authToken;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public void setSessionId(int sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public void setAiResponse(String aiResponse) {
+        this.aiResponse = aiResponse;
+    }
+
+    public void setSessions(List<ChatSession> sessions) {
+        this.sessions = sessions;
+    }
+
+    public List<ChatMessage> getHistory() {
+        return history;
+    }
+
+    public void setHistory(List<ChatMessage> history) {
+        this.history = history;
+    }
+
+    /**
+     * @param results one page of search_messages matches, best first
+     */
+    public void setResults(List<ChatMessage> results) {
+        this.results = results;
+    }
+
+    /**
+     * @param responses answers to the requests of a batch, in their order
+     */
+    public void setResponses(List<Response> responses) {
+        this.responses = responses;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
+    public void setBeforeId(int beforeId) {
+        this.beforeId = beforeId;
+    }
+
+    public void setRequestId(JsonElement requestId) {
+        this.requestId = requestId;
+    }
+}
@@ -0,0 +1,547 @@
+package com.aichatapp.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over chat messages, ranked with BM25.
+ * <p>
+ * Postings are kept per user and term, so a query only ever touches the postings of
+ * the user searching, however many messages other users have. Documents get consecutive
+ * ordinals as they are added, which keeps every postings list sorted by appending alone;
+ * a query walks the list of its rarest term and skips ahead in the others.
+ * <p>
+ * The index persists as append-only segment files, one per {@link #flush}, each holding
+ * the documents and postings added since the previous one. {@link #compact} folds them
+ * into a single segment. Searches run concurrently, under a read lock; one thread adds.
+ */
+public class InvertedIndex {
+    private static final Logger logger = LoggerFactory.getLogger(InvertedIndex.class);
+    private static final int SEGMENT_MAGIC = 0x41495853; // "AIXS"
+    private static final String SEGMENT_SUFFIX = ".seg";
+    // BM25 defaults
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Integer, UserStats> users = new HashMap<>();
+    // Per document, by ordinal
+    private int[] messageIds = new int[1024];
+    private int[] userIds = new int[1024];
+    private int[] sessionIds = new int[1024];
+    private int[] lengths = new int[1024];
+    private int docCount;
+    private int maxMessageId;
+
+    // Documents before this ordinal are in segment files, the keys below changed since
+    private int flushedDocs;
+    private final Set<String> dirtyKeys = new LinkedHashSet<>();
+
+    /**
+     * Indexes one message
+     * @return false when the text has no searchable terms
+     */
+    public boolean add(int messageId, int userId, int sessionId, String text) {
+        List<String> terms = Tokenizer.tokenize(text);
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : terms) {
+            frequencies.merge(term, 1, Integer::sum);
+        }
+
+        lock.writeLock().lock();
+        try {
+            maxMessageId = Math.max(maxMessageId, messageId);
+            if (frequencies.isEmpty()) {
+                return false;
+            }
+            int ordinal = addDocument(messageId, userId, sessionId, terms.size());
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                String key = key(userId, entry.getKey());
+                postings.computeIfAbsent(key, k -> new Postings()).add(ordinal, entry.getValue());
+                dirtyKeys.add(key);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int addDocument(int messageId, int userId, int sessionId, int length) {
+        if (docCount == messageIds.length) {
+            int capacity = docCount * 2;
+            messageIds = Arrays.copyOf(messageIds, capacity);
+            userIds = Arrays.copyOf(userIds, capacity);
+            sessionIds = Arrays.copyOf(sessionIds, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        messageIds[docCount] = messageId;
+        userIds[docCount] = userId;
+        sessionIds[docCount] = sessionId;
+        lengths[docCount] = length;
+        users.computeIfAbsent(userId, id -> new UserStats()).add(length);
+        return docCount++;
+    }
+
+    // Tokens never contain ':', so the user id cannot bleed into the term
+    private static String key(int userId, String term) {
+        return userId + ":" + term;
+    }
+
+    /**
+     * Finds the user's messages containing every term of the query, best match first
+     * @param sessionId only search this session, null for all of the user's sessions
+     * @param offset    matches to skip, for paging
+     * @param limit     matches to return at most
+     */
+    public SearchResult search(int userId, Integer sessionId, String query, int offset, int limit) {
+        Set<String> terms = new LinkedHashSet<>(Tokenizer.tokenize(query));
+        if (terms.isEmpty() || limit <= 0) {
+            return SearchResult.EMPTY;
+        }
+
+        lock.readLock().lock();
+        try {
+            UserStats stats = users.get(userId);
+            if (stats == null) {
+                return SearchResult.EMPTY;
+            }
+            Postings[] lists = new Postings[terms.size()];
+            int i = 0;
+            for (String term : terms) {
+                Postings list = postings.get(key(userId, term));
+                if (list == null) {
+                    return SearchResult.EMPTY;
+                }
+                lists[i++] = list;
+            }
+            // Drive the intersection from the rarest term, it bounds the work
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+
+            double[] idf = new double[lists.length];
+            for (int t = 0; t < lists.length; t++) {
+                idf[t] = Math.log(1 + (stats.docs - lists[t].size + 0.5) / (lists[t].size + 0.5));
+            }
+            double avgLength = (double) stats.totalLength / stats.docs;
+
+            int session = sessionId != null ? sessionId : -1;
+            int wanted = offset + limit;
+            // Worst of the kept hits on top
+            PriorityQueue<Hit> top = new PriorityQueue<>(Math.min(wanted, 1024), Hit.ORDER);
+            int[] cursors = new int[lists.length];
+            int total = 0;
+            Postings driver = lists[0];
+            candidates:
+            for (int p = 0; p < driver.size; p++) {
+                int doc = driver.docs[p];
+                if (session >= 0 && sessionIds[doc] != session) {
+                    continue;
+                }
+                double norm = K1 * (1 - B + B * lengths[doc] / avgLength);
+                double score = idf[0] * bm25(driver.freqs[p], norm);
+                for (int t = 1; t < lists.length; t++) {
+                    int at = lists[t].advance(cursors[t], doc);
+                    cursors[t] = at;
+                    if (at == lists[t].size) {
+                        break candidates;
+                    }
+                    if (lists[t].docs[at] != doc) {
+                        continue candidates;
+                    }
+                    score += idf[t] * bm25(lists[t].freqs[at], norm);
+                }
+                total++;
+                if (top.size() < wanted) {
+                    top.add(new Hit(doc, score));
+                } else if (score > top.peek().score || (score == top.peek().score && doc > top.peek().doc)) {
+                    top.poll();
+                    top.add(new Hit(doc, score));
+                }
+            }
+
+            List<Hit> ranked = new ArrayList<>(top);
+            ranked.sort(Hit.ORDER.reversed());
+            List<Integer> page = new ArrayList<>(Math.max(0, ranked.size() - offset));
+            for (int r = offset; r < ranked.size(); r++) {
+                page.add(messageIds[ranked.get(r).doc]);
+            }
+            return new SearchResult(page, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static double bm25(int frequency, double norm) {
+        return frequency * (K1 + 1) / (frequency + norm);
+    }
+
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return docCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the highest message id seen, indexed or not
+     */
+    public int getMaxMessageId() {
+        lock.readLock().lock();
+        try {
+            return maxMessageId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return documents added since the last flush or load
+     */
+    public int getUnflushedCount() {
+        lock.readLock().lock();
+        try {
+            return docCount - flushedDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the documents added since the last flush as a new segment.
+     * Call it from the thread that adds, so nothing is added halfway through.
+     * @return false when there was nothing to write
+     */
+    public boolean flush(Path dir) throws IOException {
+        int end;
+        lock.readLock().lock();
+        try {
+            end = docCount;
+            if (flushedDocs == end) {
+                return false;
+            }
+            writeSegment(dir, flushedDocs, end, new ArrayList<>(dirtyKeys));
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            flushedDocs = end;
+            dirtyKeys.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites everything flushed so far as one segment, from the thread that adds, and deletes the segments it replaces
+     */
+    public void compact(Path dir) throws IOException {
+        List<Path> old = segments(dir);
+        lock.readLock().lock();
+        try {
+            if (flushedDocs == 0) {
+                return;
+            }
+            writeSegment(dir, 0, flushedDocs, new ArrayList<>(postings.keySet()));
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Path segment : old) {
+            if (!segment.getFileName().toString().equals(segmentName(0))) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    /**
+     * Called with the read lock held, so no document is added meanwhile
+     */
+    private void writeSegment(Path dir, int first, int end, List<String> keys) throws IOException {
+        Files.createDirectories(dir);
+        Path target = dir.resolve(segmentName(first));
+        Path tmp = Files.createTempFile(dir, "segment", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(first);
+            out.writeInt(end - first);
+            out.writeInt(maxMessageId);
+            for (int doc = first; doc < end; doc++) {
+                out.writeInt(messageIds[doc]);
+                out.writeInt(userIds[doc]);
+                out.writeInt(sessionIds[doc]);
+                out.writeInt(lengths[doc]);
+            }
+            List<String> written = new ArrayList<>(keys.size());
+            List<int[]> ranges = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                Postings list = postings.get(key);
+                int from = list.advance(0, first);
+                int to = list.advance(from, end);
+                if (to > from) {
+                    written.add(key);
+                    ranges.add(new int[]{from, to});
+                }
+            }
+            out.writeInt(written.size());
+            for (int k = 0; k < written.size(); k++) {
+                Postings list = postings.get(written.get(k));
+                int[] range = ranges.get(k);
+                out.writeUTF(written.get(k));
+                out.writeInt(range[1] - range[0]);
+                for (int p = range[0]; p < range[1]; p++) {
+                    out.writeInt(list.docs[p]);
+                    out.writeInt(list.freqs[p]);
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Loads the segments of the directory into this (empty) index. Loading stops at the
+     * first missing or unreadable segment; whatever it held has to be indexed again.
+     * @return the number of segment files the index is now made of
+     */
+    public int load(Path dir) throws IOException {
+        List<Path> files = segments(dir);
+        Map<Integer, Path> byFirst = new HashMap<>();
+        for (Path file : files) {
+            byFirst.put(firstOrdinal(file), file);
+        }
+
+        int loaded = 0;
+        Set<Path> used = new HashSet<>();
+        Path next;
+        while ((next = byFirst.get(docCount)) != null) {
+            Segment segment;
+            try {
+                segment = Segment.read(next);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Search index segment {} is unreadable, reindexing from there", next, e);
+                break;
+            }
+            if (segment.first != docCount) {
+                logger.warn("Search index segment {} starts at {}, expected {}", next, segment.first, docCount);
+                break;
+            }
+            apply(segment);
+            used.add(next);
+            loaded++;
+        }
+        // Leftovers of an interrupted compaction or a failed load, rewritten by the next flush
+        for (Path file : files) {
+            if (!used.contains(file)) {
+                Files.deleteIfExists(file);
+            }
+        }
+        return loaded;
+    }
+
+    private void apply(Segment segment) {
+        lock.writeLock().lock();
+        try {
+            for (int d = 0; d < segment.messageIds.length; d++) {
+                addDocument(segment.messageIds[d], segment.userIds[d], segment.sessionIds[d], segment.lengths[d]);
+            }
+            for (int k = 0; k < segment.keys.length; k++) {
+                Postings list = postings.computeIfAbsent(segment.keys[k], key -> new Postings());
+                for (int p = 0; p < segment.docs[k].length; p++) {
+                    list.add(segment.docs[k][p], segment.freqs[k][p]);
+                }
+            }
+            maxMessageId = Math.max(maxMessageId, segment.maxMessageId);
+            flushedDocs = docCount;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the segment files of the directory, empty when it does not exist
+     */
+    public static List<Path> segments(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segment-*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(Comparator.comparingInt(InvertedIndex::firstOrdinal));
+        return files;
+    }
+
+    private static String segmentName(int first) {
+        return String.format("segment-%010d%s", first, SEGMENT_SUFFIX);
+    }
+
+    private static int firstOrdinal(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring("segment-".length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Sorted ordinals of the documents containing one user's term, with the term's frequency in each
+     */
+    private static class Postings {
+        int[] docs = new int[4];
+        int[] freqs = new int[4];
+        int size;
+
+        void add(int doc, int frequency) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = frequency;
+            size++;
+        }
+
+        /**
+         * Galloping search from a cursor
+         * @return the first position at or after {@code from} whose document is at least {@code doc}, size if none
+         */
+        int advance(int from, int doc) {
+            if (from >= size || docs[from] >= doc) {
+                return from;
+            }
+            int low = from;
+            int step = 1;
+            int high = from + step;
+            while (high < size && docs[high] < doc) {
+                low = high;
+                step <<= 1;
+                high = from + step;
+            }
+            high = Math.min(high, size);
+            // docs[low] < doc, and docs[high] >= doc unless high == size
+            while (low + 1 < high) {
+                int mid = (low + high) >>> 1;
+                if (docs[mid] < doc) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            return high;
+        }
+    }
+
+    private static class UserStats {
+        int docs;
+        long totalLength;
+
+        void add(int length) {
+            docs++;
+            totalLength += length;
+        }
+    }
+
+    private static class Hit {
+        // Better score first, the newer message on a tie
+        static final Comparator<Hit> ORDER = Comparator.<Hit>comparingDouble(hit -> hit.score).thenComparingInt(hit -> hit.doc);
+
+        final int doc;
+        final double score;
+
+        Hit(int doc, double score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+
+    /**
+     * A segment file as read from disk, before it is merged into the index
+     */
+    private static class Segment {
+        int first;
+        int maxMessageId;
+        int[] messageIds;
+        int[] userIds;
+        int[] sessionIds;
+        int[] lengths;
+        String[] keys;
+        int[][] docs;
+        int[][] freqs;
+
+        static Segment read(Path file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                if (in.readInt() != SEGMENT_MAGIC) {
+                    throw new IOException("Not a search index segment");
+                }
+                Segment segment = new Segment();
+                segment.first = in.readInt();
+                int count = in.readInt();
+                segment.maxMessageId = in.readInt();
+                segment.messageIds = new int[count];
+                segment.userIds = new int[count];
+                segment.sessionIds = new int[count];
+                segment.lengths = new int[count];
+                for (int d = 0; d < count; d++) {
+                    segment.messageIds[d] = in.readInt();
+                    segment.userIds[d] = in.readInt();
+                    segment.sessionIds[d] = in.readInt();
+                    segment.lengths[d] = in.readInt();
+                }
+                int keyCount = in.readInt();
+                segment.keys = new String[keyCount];
+                segment.docs = new int[keyCount][];
+                segment.freqs = new int[keyCount][];
+                for (int k = 0; k < keyCount; k++) {
+                    segment.keys[k] = in.readUTF();
+                    int size = in.readInt();
+                    segment.docs[k] = new int[size];
+                    segment.freqs[k] = new int[size];
+                    for (int p = 0; p < size; p++) {
+                        int doc = in.readInt();
+                        if (doc < segment.first || doc >= segment.first + count) {
+                            throw new IOException("Posting " + doc + " outside of the segment");
+                        }
+                        segment.docs[k][p] = doc;
+                        segment.freqs[k][p] = in.readInt();
+                    }
+                }
+                return segment;
+            }
+        }
+    }
+}
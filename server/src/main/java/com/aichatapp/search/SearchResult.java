@@ -0,0 +1,30 @@
+package com.aichatapp.search;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of search matches, best first
+ */
+public class SearchResult {
+    static final SearchResult EMPTY = new SearchResult(Collections.emptyList(), 0);
+
+    private final List<Integer> messageIds;
+    private final int total;
+
+    public SearchResult(List<Integer> messageIds, int total) {
+        this.messageIds = messageIds;
+        this.total = total;
+    }
+
+    public List<Integer> getMessageIds() {
+        return messageIds;
+    }
+
+    /**
+     * @return matches over all pages
+     */
+    public int getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,56 @@
+package com.aichatapp.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits message text into index terms: runs of letters and digits, lower cased,
+ * without the most common English words. Messages and queries go through the same
+ * code, so a query term matches exactly the terms it would have been indexed as.
+ */
+public final class Tokenizer {
+    // Longer runs are base64, hashes and the like, nobody searches for those
+    static final int MAX_TERM_LENGTH = 40;
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "an", "and", "are", "as", "at", "be", "but", "by", "for", "if", "in", "into", "is", "it",
+            "no", "not", "of", "on", "or", "so", "that", "the", "their", "then", "there", "these",
+            "they", "this", "to", "was", "we", "were", "will", "with", "you", "your"));
+
+    private Tokenizer() {
+    }
+
+    /**
+     * @return the terms of the text in order, repeats included
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        StringBuilder term = new StringBuilder();
+        for (int i = 0, n = text.length(); i <= n; ) {
+            int c = i < n ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                term.appendCodePoint(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                add(terms, term);
+                term.setLength(0);
+            }
+            i += Character.charCount(c);
+        }
+        return terms;
+    }
+
+    private static void add(List<String> terms, StringBuilder term) {
+        if (term.length() < 2 || term.length() > MAX_TERM_LENGTH) {
+            return;
+        }
+        String value = term.toString();
+        if (!STOP_WORDS.contains(value)) {
+            terms.add(value);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+import com.aichatapp.metrics.ServerMetrics;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Calls the OpenAI compatible chat completion endpoint (Groq by default)
+ * over the shared {@link UpstreamHttpClient}, within the limits kept by {@link UpstreamRateLimiter}
+ */
+public class AIService {
+    private static final Logger logger = LoggerFactory.getLogger(AIService.class);
+    private static final double TEMPERATURE = 0.7;
+    // Rough size of a reply, charged to the tokens/min bucket before the real usage is known
+    private static final int REPLY_TOKEN_ESTIMATE = ServerConfig.getInt("aichat.ratelimit.replyTokens", 256);
+
+    private final UpstreamHttpClient httpClient;
+    private final String apiUrl;
+    private final String apiKey;
+    private final String model;
+    private final UpstreamRateLimiter rateLimiter;
+    private final int maxRetries;
+
+    public AIService(UpstreamHttpClient httpClient) {
+        this(httpClient,
+                ServerConfig.getString("aichat.ai.url", "https://api.groq.com/openai/v1/chat/completions"),
+                ServerConfig.getString("aichat.ai.apiKey", ""),
+                ServerConfig.getString("aichat.ai.model", "llama3-8b-8192"));
+    }
+
+    public AIService(UpstreamHttpClient httpClient, String apiUrl, String apiKey, String model) {
+        this(httpClient, apiUrl, apiKey, model, new UpstreamRateLimiter(),
+                ServerConfig.getInt("aichat.ratelimit.maxRetries", 3));
+    }
+
+    /**
+     * @param maxRetries how often a call rejected with 429/503 is retried before giving up
+     */
+    public AIService(UpstreamHttpClient httpClient, String apiUrl, String apiKey, String model,
+                     UpstreamRateLimiter rateLimiter, int maxRetries) {
+        this.httpClient = httpClient;
+        this.apiUrl = apiUrl;
+        this.apiKey = apiKey;
+        this.model = model;
+        this.rateLimiter = rateLimiter;
+        this.maxRetries = maxRetries;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public double getTemperature() {
+        return TEMPERATURE;
+    }
+
+    /**
+     * Waits for the whole completion
+     * @param messages conversation so far, oldest first, as {role, content} objects
+     * @return the assistant reply
+     */
+    public String complete(List<JsonObject> messages) {
+        long start = System.nanoTime();
+        int estimatedTokens = estimateTokens(messages);
+        try (CloseableHttpResponse httpResponse = execute(messages, false, estimatedTokens)) {
+            int status = httpResponse.getStatusLine().getStatusCode();
+            String responseBody = EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8);
+            if (!isSuccess(status)) {
+                throw new RuntimeException("AI API returned HTTP " + status + ": " + parseErrorResponse(responseBody));
+            }
+
+            JsonObject response = JsonParser.parseString(responseBody).getAsJsonObject();
+            JsonObject usage = response.getAsJsonObject("usage");
+            if (usage != null && usage.has("total_tokens")) {
+                rateLimiter.recordUsage(estimatedTokens, usage.get("total_tokens").getAsInt());
+            }
+            JsonArray choices = response.getAsJsonArray("choices");
+
+            if (choices == null || choices.size() == 0) {
+                logger.error("Invalid API response, 'choices' missing: {}", responseBody);
+                throw new RuntimeException("AI API response invalid: no choices found.");
+            }
+
+            JsonObject firstChoice = choices.get(0).getAsJsonObject();
+            JsonObject assistantMessage = firstChoice.getAsJsonObject("message");
+            return assistantMessage.get("content").getAsString().trim();
+
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to call Groq AI API", e);
+        } finally {
+            ServerMetrics.UPSTREAM.recordSince(start);
+        }
+    }
+
+    /**
+     * Requests the completion as server-sent events and reports each content delta as it arrives
+     * @param messages conversation so far, oldest first, as {role, content} objects
+     * @param onDelta receives every non-empty piece of the reply, in order
+     * @return the full assistant reply
+     */
+    public String streamCompletion(List<JsonObject> messages, Consumer<String> onDelta) {
+        long start = System.nanoTime();
+        int estimatedTokens = estimateTokens(messages);
+        try (CloseableHttpResponse httpResponse = execute(messages, true, estimatedTokens)) {
+            int status = httpResponse.getStatusLine().getStatusCode();
+            HttpEntity entity = httpResponse.getEntity();
+            if (!isSuccess(status)) {
+                String errorBody = EntityUtils.toString(entity, StandardCharsets.UTF_8);
+                throw new RuntimeException("AI API returned HTTP " + status + ": " + parseErrorResponse(errorBody));
+            }
+
+            StringBuilder reply = new StringBuilder();
+            int usedTokens = -1;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // SSE: "data: {...}" lines separated by blank lines, terminated by "data: [DONE]"
+                    if (!line.startsWith("data:")) {
+                        continue;
+                    }
+                    String data = line.substring(5).trim();
+                    if (data.equals("[DONE]")) {
+                        break;
+                    }
+                    JsonObject chunk = parseStreamChunk(data);
+                    if (chunk == null) {
+                        continue;
+                    }
+                    int chunkUsage = streamUsage(chunk);
+                    if (chunkUsage >= 0) {
+                        usedTokens = chunkUsage;
+                    }
+                    String delta = streamDelta(chunk);
+                    if (delta != null && !delta.isEmpty()) {
+                        if (reply.length() == 0) {
+                            ServerMetrics.TIME_TO_FIRST_TOKEN.recordSince(start);
+                        }
+                        reply.append(delta);
+                        onDelta.accept(delta);
+                    }
+                }
+                // Drain the rest so the connection goes back to the pool
+                EntityUtils.consume(entity);
+            }
+            // Without a usage chunk, the prompt estimate plus about four characters per reply token
+            rateLimiter.recordUsage(estimatedTokens, usedTokens >= 0 ? usedTokens
+                    : estimatedTokens - REPLY_TOKEN_ESTIMATE + reply.length() / 4);
+            return reply.toString().trim();
+
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to stream from Groq AI API", e);
+        } finally {
+            ServerMetrics.UPSTREAM.recordSince(start);
+        }
+    }
+
+    /**
+     * Makes the call once the rate limiter allows it, retrying 429/503 answers after the
+     * delay the provider asks for (or a jittered backoff)
+     * @return the response, with any status other than 429/503
+     * @throws UpstreamRateLimitException when the retries or the allowed wait run out
+     */
+    private CloseableHttpResponse execute(List<JsonObject> messages, boolean stream, int estimatedTokens)
+            throws IOException {
+        long deadline = rateLimiter.deadline();
+        for (int attempt = 0; ; attempt++) {
+            rateLimiter.acquire(estimatedTokens, deadline);
+            CloseableHttpResponse httpResponse = httpClient.execute(buildPost(messages, stream));
+            rateLimiter.observe(httpResponse);
+            int status = httpResponse.getStatusLine().getStatusCode();
+            if (status != 429 && status != 503) {
+                return httpResponse;
+            }
+
+            long delay = rateLimiter.onRejected(httpResponse, attempt);
+            String errorBody;
+            try {
+                errorBody = EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8);
+            } finally {
+                httpResponse.close();
+            }
+            if (attempt >= maxRetries) {
+                throw new UpstreamRateLimitException("AI API returned HTTP " + status + " after "
+                        + (attempt + 1) + " attempts: " + parseErrorResponse(errorBody));
+            }
+            // The next acquire waits out the delay, together with every other caller
+            logger.warn("AI API returned HTTP {}, retrying in {}ms", status, delay / 1_000_000);
+        }
+    }
+
+    private static int estimateTokens(List<JsonObject> messages) {
+        int chars = 0;
+        for (JsonObject message : messages) {
+            JsonElement content = message.get("content");
+            if (content != null && !content.isJsonNull()) {
+                chars += content.getAsString().length();
+            }
+        }
+        // About four characters per token for English text
+        return chars / 4 + REPLY_TOKEN_ESTIMATE;
+    }
+
+    /**
+     * @return a one-line summary of rate limiting so far, e.g. for logs
+     */
+    public String getRateLimitStats() {
+        return rateLimiter.getStats();
+    }
+
+    private HttpPost buildPost(List<JsonObject> messages, boolean stream) {
+        HttpPost post = new HttpPost(apiUrl);
+        post.setHeader("Authorization", "Bearer " + apiKey);
+        post.setHeader("Accept", stream ? "text/event-stream" : "application/json");
+        post.setEntity(new StringEntity(buildRequestBody(messages, stream).toString(), ContentType.APPLICATION_JSON));
+        return post;
+    }
+
+    private JsonObject buildRequestBody(List<JsonObject> messages, boolean stream) {
+        JsonObject requestBody = new JsonObject();
+        requestBody.addProperty("model", model);
+
+        JsonArray messagesArray = new JsonArray();
+        for (JsonObject message : messages) {
+            messagesArray.add(message);
+        }
+
+        requestBody.add("messages", messagesArray);
+        requestBody.addProperty("temperature", TEMPERATURE);
+        if (stream) {
+            requestBody.addProperty("stream", true);
+            // Have the last chunk report the token usage, for the rate limiter
+            JsonObject streamOptions = new JsonObject();
+            streamOptions.addProperty("include_usage", true);
+            requestBody.add("stream_options", streamOptions);
+        }
+        return requestBody;
+    }
+
+    private static boolean isSuccess(int status) {
+        return status >= 200 && status < 300;
+    }
+
+    /**
+     * @return the parsed "data:" payload of one stream event, null when it is malformed
+     */
+    private JsonObject parseStreamChunk(String data) {
+        try {
+            return JsonParser.parseString(data).getAsJsonObject();
+        } catch (RuntimeException e) {
+            logger.warn("Skipping malformed stream chunk: {}", data);
+            return null;
+        }
+    }
+
+    /**
+     * @return the content of choices[0].delta, or null for role/finish/usage chunks
+     */
+    private static String streamDelta(JsonObject chunk) {
+        JsonArray choices = chunk.getAsJsonArray("choices");
+        if (choices == null || choices.size() == 0) {
+            return null;
+        }
+        JsonObject delta = choices.get(0).getAsJsonObject().getAsJsonObject("delta");
+        if (delta == null) {
+            return null;
+        }
+        JsonElement content = delta.get("content");
+        return content == null || content.isJsonNull() ? null : content.getAsString();
+    }
+
+    /**
+     * @return total_tokens of the chunk's "usage" (or Groq's "x_groq.usage"), -1 when it has none
+     */
+    private static int streamUsage(JsonObject chunk) {
+        JsonElement usage = chunk.get("usage");
+        if ((usage == null || !usage.isJsonObject()) && chunk.get("x_groq") instanceof JsonObject) {
+            usage = chunk.getAsJsonObject("x_groq").get("usage");
+        }
+        if (usage == null || !usage.isJsonObject() || !usage.getAsJsonObject().has("total_tokens")) {
+            return -1;
+        }
+        return usage.getAsJsonObject().get("total_tokens").getAsInt();
+    }
+
+    private String parseErrorResponse(String responseBody) {
+        try {
+            JsonObject jsonResponse = JsonParser.parseString(responseBody).getAsJsonObject();
+            if (jsonResponse.has("error")) {
+                JsonObject error = jsonResponse.getAsJsonObject("error");
+                return error.has("message") ? error.get("message").getAsString() : "Unknown error";
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to parse error response", e);
+        }
+        return responseBody;
+    }
+}
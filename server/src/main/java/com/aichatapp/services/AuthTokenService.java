@@ -0,0 +1,188 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Issues and checks the signed tokens a client presents to resume its login on a
+ * new connection without sending the password again. A token is
+ * base64url("v1|expiresAtSeconds|tokenId|username") + "." + base64url(HMAC-SHA256),
+ * so checking one is a MAC and a map lookup: no database, no BCrypt.
+ * Revoked token ids are remembered until the token would have expired anyway and are
+ * never forgotten before that; while the store is full of them no new tokens are issued,
+ * logins then go on without one.
+ */
+public class AuthTokenService {
+    private static final Logger logger = LoggerFactory.getLogger(AuthTokenService.class);
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String VERSION = "v1";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final int maxRevoked;
+    // Revoked token id to the token's expiry in epoch seconds
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    // Expired revocations are swept at most once a second, and only while the store is full
+    private final AtomicLong nextSweep = new AtomicLong();
+    private final LongAdder refused = new LongAdder();
+    private final SecureRandom random = new SecureRandom();
+    // Mac is not thread safe and costly to look up, keep one per thread
+    private final ThreadLocal<Mac> macs;
+
+    public AuthTokenService() {
+        this(secret(ServerConfig.getString("aichat.auth.tokenSecret", "")),
+                ServerConfig.getLong("aichat.auth.tokenTtlSec", 7 * 24 * 3600),
+                ServerConfig.getInt("aichat.auth.maxRevoked", 100_000));
+    }
+
+    /**
+     * @param secret     HMAC key, at least 32 bytes
+     * @param ttlSeconds lifetime of a token
+     * @param maxRevoked unexpired revoked tokens beyond which no new tokens are issued
+     */
+    public AuthTokenService(byte[] secret, long ttlSeconds, int maxRevoked) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+        this.maxRevoked = maxRevoked;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        newMac();
+    }
+
+    /**
+     * @param base64 configured key, empty for a random one (tokens then stop working on restart)
+     */
+    private static byte[] secret(String base64) {
+        if (!base64.isEmpty()) {
+            return Base64.getDecoder().decode(base64);
+        }
+        logger.warn("aichat.auth.tokenSecret is not set, resume tokens will not survive a restart");
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 not available", e);
+        }
+    }
+
+    /**
+     * @return a new token for the user, valid for the configured lifetime; null while the
+     * revocation store is full, as it could not be revoked without forgetting another
+     */
+    public String issue(String username) {
+        if (!hasRoomForRevocations()) {
+            refused.increment();
+            logger.warn("{} revoked tokens outstanding, no resume token for {}", revoked.size(), username);
+            return null;
+        }
+        byte[] id = new byte[12];
+        random.nextBytes(id);
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        String payload = VERSION + "|" + expiresAt + "|" + ENCODER.encodeToString(id) + "|" + username;
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(payloadBytes) + "." + ENCODER.encodeToString(sign(payloadBytes));
+    }
+
+    /**
+     * @return the username the token was issued to, or null when it is forged, expired or revoked
+     */
+    public String validate(String token) {
+        String[] fields = verify(token);
+        if (fields == null || revoked.containsKey(fields[2])) {
+            return null;
+        }
+        return fields[3];
+    }
+
+    /**
+     * Makes a valid token unusable; forged or expired ones are ignored
+     */
+    public void revoke(String token) {
+        String[] fields = verify(token);
+        if (fields != null) {
+            revoked.put(fields[2], Long.parseLong(fields[1]));
+        }
+    }
+
+    private boolean hasRoomForRevocations() {
+        if (revoked.size() < maxRevoked) {
+            return true;
+        }
+        long now = System.currentTimeMillis() / 1000;
+        long sweepAt = nextSweep.get();
+        if (now >= sweepAt && nextSweep.compareAndSet(sweepAt, now + 1)) {
+            revoked.values().removeIf(expiresAt -> expiresAt <= now);
+        }
+        return revoked.size() < maxRevoked;
+    }
+
+    /**
+     * @return version, expiry, token id and username of a correctly signed, unexpired token, else null
+     */
+    private String[] verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(token.substring(0, dot));
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // Constant time, so the signature cannot be guessed byte by byte
+        if (!MessageDigest.isEqual(sign(payload), signature)) {
+            return null;
+        }
+
+        String[] fields = new String(payload, StandardCharsets.UTF_8).split("\\|", 4);
+        if (fields.length != 4 || !VERSION.equals(fields[0])) {
+            return null;
+        }
+        try {
+            if (Long.parseLong(fields[1]) <= System.currentTimeMillis() / 1000) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return fields;
+    }
+
+    private byte[] sign(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+
+    /**
+     * @return a one-line summary of the revocation store, e.g. for logs
+     */
+    public String getStats() {
+        return String.format("revokedTokens: size=%d, max=%d, refusedIssues=%d", revoked.size(), maxRevoked, refused.sum());
+    }
+}
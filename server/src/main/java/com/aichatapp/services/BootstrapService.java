@@ -0,0 +1,165 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+import com.aichatapp.models.ChatSession;
+import com.aichatapp.models.HistoryPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything the client shows after logging in, for the bootstrap action: the password check,
+ * the user's sessions and the newest page of the most recent one. The lookups run on a small pool
+ * while the calling thread waits for BCrypt, so they are usually done by the time the password
+ * is; their result is only handed out when it matched. The price is that a wrong password still
+ * costs those reads: a lookup still queued is dropped, but one already running finishes. The pool
+ * size bounds how many such reads run at once, and with the pool saturated the lookups run on the
+ * caller after a successful check instead.
+ */
+public class BootstrapService {
+    private static final Logger logger = LoggerFactory.getLogger(BootstrapService.class);
+
+    private final UserService userService;
+    private final SessionService sessionService;
+    private final ChatService chatService;
+    private final ThreadPoolExecutor executor;
+
+    public BootstrapService(UserService userService, SessionService sessionService, ChatService chatService) {
+        this(userService, sessionService, chatService,
+                ServerConfig.getInt("aichat.bootstrap.threads", 4),
+                ServerConfig.getInt("aichat.bootstrap.queue", 256));
+    }
+
+    /**
+     * @param threads       logins whose lookups run at once
+     * @param queueCapacity lookups waiting for a thread before callers run them themselves, after the check
+     */
+    public BootstrapService(UserService userService, SessionService sessionService, ChatService chatService,
+                            int threads, int queueCapacity) {
+        this.userService = userService;
+        this.sessionService = sessionService;
+        this.chatService = chatService;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "bootstrap-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * What a successful bootstrap answers with
+     */
+    public static class Result {
+        private final List<ChatSession> sessions;
+        private final int sessionId;
+        private final HistoryPage history;
+
+        Result(List<ChatSession> sessions, int sessionId, HistoryPage history) {
+            this.sessions = sessions;
+            this.sessionId = sessionId;
+            this.history = history;
+        }
+
+        /**
+         * @return the user's sessions, most recent first
+         */
+        public List<ChatSession> getSessions() {
+            return sessions;
+        }
+
+        /**
+         * @return the most recent session, whose history is included; -1 when the user has none
+         */
+        public int getSessionId() {
+            return sessionId;
+        }
+
+        /**
+         * @return newest page of that session's history, null when the user has no session
+         */
+        public HistoryPage getHistory() {
+            return history;
+        }
+    }
+
+    /**
+     * @param historyLimit messages in the history page
+     * @return null when the username or password is wrong
+     * @throws java.util.concurrent.RejectedExecutionException when password hashing is overloaded
+     * @throws SQLException when the sessions or history cannot be read
+     */
+    public Result bootstrap(String username, String password, int historyLimit) throws SQLException {
+        CompletableFuture<Result> lookups;
+        try {
+            lookups = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return load(username, historyLimit);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            lookups = null;
+        }
+
+        // Meanwhile, on this thread
+        if (!userService.authenticateUser(username, password)) {
+            if (lookups != null) {
+                // Only skips the lookups when they have not started yet
+                lookups.cancel(false);
+            }
+            return null;
+        }
+        if (lookups == null) {
+            // Pool saturated, look up now that the password is known to be right
+            return load(username, historyLimit);
+        }
+        try {
+            return lookups.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private Result load(String username, int historyLimit) throws SQLException {
+        int userId = userService.getUserIdByUsername(username);
+        if (userId == -1) {
+            return new Result(new ArrayList<>(), -1, null);
+        }
+        List<ChatSession> sessions = sessionService.getUserSessions(userId);
+        if (sessions.isEmpty()) {
+            return new Result(sessions, -1, null);
+        }
+        int sessionId = sessions.get(0).getId();
+        HistoryPage history = chatService.getChatHistoryPage(sessionId, 0, historyLimit);
+        logger.debug("Bootstrap of user {}: {} sessions, {} messages of session {}",
+                username, sessions.size(), history.getMessages().size(), sessionId);
+        return new Result(sessions, sessionId, history);
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,42 +1,86 @@
 package com.aichatapp.services;
 
+import com.aichatapp.events.ChatEvent;
+import com.aichatapp.events.EventBus;
 import com.aichatapp.models.ChatMessage;
 import com.aichatapp.models.DatabaseConnection;
+import com.aichatapp.models.HistoryPage;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static com.aichatapp.Server.logger;
 
 public class ChatService {
-    public int createChatSession(int userId, String sessionName) {
-        String sql = "INSERT INTO chat_sessions (user_id, session_name) VALUES (?, ?)";
+    private final SessionService sessionService;
+    private final MessageWriter messageWriter;
+    private final MessageSearchService searchService;
+    private final EventBus eventBus;
+
+    /**
+     * Writes messages synchronously on the calling thread
+     */
+    public ChatService() {
+        this(new SessionService(), null, null, null);
+    }
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setInt(1, userId);
-            stmt.setString(2, sessionName);
-            stmt.executeUpdate();
+    /**
+     * @param sessionService used for (cached) session existence checks
+     * @param messageWriter  write-behind queue for saveMessage, or null to write synchronously
+     * @param searchService  told about every committed save so its index follows, or null
+     * @param eventBus       told about every committed save, for the session owner's other connections, or null
+     */
+    public ChatService(SessionService sessionService, MessageWriter messageWriter, MessageSearchService searchService,
+                       EventBus eventBus) {
+        this.sessionService = sessionService;
+        this.messageWriter = messageWriter;
+        this.searchService = searchService;
+        this.eventBus = eventBus;
+    }
 
-            ResultSet rs = stmt.getGeneratedKeys();
-            if (rs.next()) {
-                return rs.getInt(1);
-            }
-            return -1;
-        } catch (SQLException e) {
-            e.printStackTrace();
+    public int createChatSession(int userId, String sessionName) {
+        // Goes through SessionService so the new session is known to its cache
+        try {
+            return sessionService.createSession(userId, sessionName);
+        } catch (RuntimeException e) {
+            logger.error("Failed to create chat session for user {}", userId, e);
             return -1;
         }
     }
 
     public boolean saveMessage(int sessionId, String userMessage, String aiResponse) {
+        return saveMessage(sessionId, userMessage, aiResponse, null);
+    }
+
+    /**
+     * @param origin connection the exchange came from, left out of the messages_appended push; null for none
+     */
+    public boolean saveMessage(int sessionId, String userMessage, String aiResponse, Object origin) {
         // First check if the session exists to avoid foreign key constraint violation
-        if (!sessionExists(sessionId)) {
+        Integer ownerId = getSessionOwner(sessionId);
+        if (ownerId == null) {
             logger.error("Attempt to save message to non-existent session ID: {}", sessionId);
             return false;
         }
 
+        if (messageWriter != null) {
+            CompletableFuture<Boolean> committed = messageWriter.enqueue(sessionId, userMessage, aiResponse);
+            if (searchService != null || eventBus != null) {
+                committed.thenAccept(saved -> {
+                    if (saved) {
+                        onSaved(ownerId, sessionId, origin);
+                    }
+                });
+            }
+            if (messageWriter.getDurabilityMode() == MessageWriter.DurabilityMode.ACK_AFTER_ENQUEUE) {
+                return true;
+            }
+            return committed.join();
+        }
+
         String sql = "INSERT INTO chat_messages (session_id, user_message, ai_response, is_user_message) VALUES (?, ?, ?, ?)";
 
         try (Connection conn = DatabaseConnection.getConnection();
@@ -53,14 +97,26 @@ public class ChatService {
             stmt.setString(2, null);  // No user message for AI response
             stmt.setString(3, aiResponse);
             stmt.setBoolean(4, false); // This is an AI message
-            return stmt.executeUpdate() > 0;
+            boolean saved = stmt.executeUpdate() > 0;
+            if (saved) {
+                onSaved(ownerId, sessionId, origin);
+            }
+            return saved;
         } catch (SQLException e) {
             logger.error("Error saving message to database", e);
             return false;
         }
     }
 
-
+    // Only once committed: whoever hears about it reads the new messages right away
+    private void onSaved(int ownerId, int sessionId, Object origin) {
+        if (searchService != null) {
+            searchService.onMessagesSaved();
+        }
+        if (eventBus != null) {
+            eventBus.publish(ChatEvent.messagesAppended(ownerId, sessionId, origin));
+        }
+    }
 
     public List<ChatMessage> getChatHistory(int sessionId) {
         List<ChatMessage> messages = new ArrayList<>();
@@ -86,21 +142,113 @@ public class ChatService {
         }
         return messages;
     }
-    private boolean sessionExists(int sessionId) {
-        if (sessionId <= 0) return false;
 
-        String sql = "SELECT 1 FROM chat_sessions WHERE session_id = ?";
+    /**
+     * @return the newest {@code limit} messages of the session, oldest first
+     * @throws SQLException when they cannot be read, which is not the same as an empty session
+     */
+    public List<ChatMessage> getRecentMessages(int sessionId, int limit) throws SQLException {
+        return getChatHistoryPage(sessionId, 0, limit).getMessages();
+    }
+
+    /**
+     * Keyset pagination over a session: the {@code limit} messages right before
+     * {@code beforeMessageId}, found through the (session_id, message_id) index
+     * instead of scanning the whole session.
+     * @param beforeMessageId cursor from the previous page, 0 or less for the newest page
+     * @return the page, oldest message first
+     * @throws SQLException when the page cannot be read, which is not the same as an empty page
+     */
+    public HistoryPage getChatHistoryPage(int sessionId, int beforeMessageId, int limit) throws SQLException {
+        List<ChatMessage> messages = new ArrayList<>();
+        boolean newest = beforeMessageId <= 0;
+        String sql = "SELECT message_id, session_id, user_message, ai_response, is_user_message, created_at " +
+                "FROM chat_messages WHERE session_id = ?" + (newest ? "" : " AND message_id < ?") +
+                " ORDER BY message_id DESC LIMIT ?";
+
+        boolean hasMore = false;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setInt(index++, sessionId);
+            if (!newest) {
+                stmt.setInt(index++, beforeMessageId);
+            }
+            // One extra row tells us whether an older page exists
+            stmt.setInt(index, limit + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (messages.size() == limit) {
+                        hasMore = true;
+                        break;
+                    }
+                    messages.add(new ChatMessage(
+                            rs.getInt("message_id"),
+                            rs.getInt("session_id"),
+                            rs.getString("user_message"),
+                            rs.getString("ai_response"),
+                            rs.getBoolean("is_user_message"),
+                            rs.getTimestamp("created_at").toLocalDateTime()
+                    ));
+                }
+            }
+        }
+        Collections.reverse(messages);
+        return new HistoryPage(messages, hasMore);
+    }
+
+    /**
+     * Delta read for clients that cache history: the first {@code limit} messages after
+     * {@code afterMessageId}, through the same (session_id, message_id) index
+     * @return the page, oldest message first; hasMore when newer messages remain
+     * @throws SQLException when the messages cannot be read, which is not the same as none being newer
+     */
+    public HistoryPage getMessagesAfter(int sessionId, int afterMessageId, int limit) throws SQLException {
+        List<ChatMessage> messages = new ArrayList<>();
+        String sql = "SELECT message_id, session_id, user_message, ai_response, is_user_message, created_at " +
+                "FROM chat_messages WHERE session_id = ? AND message_id > ? ORDER BY message_id LIMIT ?";
+
+        boolean hasMore = false;
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, sessionId);
-            boolean exists = stmt.executeQuery().next();
-            if (!exists) {
+            stmt.setInt(2, afterMessageId);
+            stmt.setInt(3, limit + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (messages.size() == limit) {
+                        hasMore = true;
+                        break;
+                    }
+                    messages.add(new ChatMessage(
+                            rs.getInt("message_id"),
+                            rs.getInt("session_id"),
+                            rs.getString("user_message"),
+                            rs.getString("ai_response"),
+                            rs.getBoolean("is_user_message"),
+                            rs.getTimestamp("created_at").toLocalDateTime()
+                    ));
+                }
+            }
+        }
+        return new HistoryPage(messages, hasMore);
+    }
+
+    /**
+     * @return the user_id owning the session, null when it does not exist or cannot be checked
+     */
+    private Integer getSessionOwner(int sessionId) {
+        if (sessionId <= 0) return null;
+
+        try {
+            Integer ownerId = sessionService.getSessionOwner(sessionId);
+            if (ownerId == null) {
                 logger.error("Session with ID {} does not exist", sessionId);
             }
-            return exists;
+            return ownerId;
         } catch (SQLException e) {
             logger.error("Session validation failed", e);
-            return false;
+            return null;
         }
     }
-}
\ No newline at end of file
+}
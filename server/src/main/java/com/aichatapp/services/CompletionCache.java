@@ -0,0 +1,324 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exact-match cache of AI replies, keyed by model, sampling parameters and a hash of
+ * the whitespace-normalized prompt. Entries live in a bounded in-memory LRU and,
+ * when a directory is configured, in one file per entry there so they survive restarts.
+ * Every entry remembers how long the upstream call took, which is what a hit saves.
+ */
+public class CompletionCache {
+    private static final Logger logger = LoggerFactory.getLogger(CompletionCache.class);
+    private static final String FILE_SUFFIX = ".reply";
+    // expiresAt, latencyNanos and the reply length, before the reply bytes
+    private static final int FILE_HEADER_BYTES = 20;
+    private static final int MAX_REPLY_BYTES = 16 * 1024 * 1024;
+
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final TtlCache<String, CachedCompletion> memory;
+    private final Path directory;
+    private final int maxDiskEntries;
+    private final AtomicInteger diskEntries = new AtomicInteger();
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+
+    public CompletionCache() {
+        this(ServerConfig.getBoolean("aichat.completionCache.enabled", true),
+                ServerConfig.getInt("aichat.completionCache.maxEntries", 1_000),
+                ServerConfig.getLong("aichat.completionCache.ttlMs", 3_600_000),
+                ServerConfig.getString("aichat.completionCache.dir", ""),
+                ServerConfig.getInt("aichat.completionCache.diskMaxEntries", 10_000));
+    }
+
+    /**
+     * @param directory      where the on-disk tier keeps its files, empty to keep entries in memory only
+     * @param maxDiskEntries oldest files are deleted beyond this count
+     */
+    public CompletionCache(boolean enabled, int maxEntries, long ttlMillis, String directory, int maxDiskEntries) {
+        this.enabled = enabled;
+        this.ttlMillis = ttlMillis;
+        this.memory = new TtlCache<>("completions", maxEntries, ttlMillis, 0);
+        this.maxDiskEntries = maxDiskEntries;
+        this.directory = enabled && directory != null && !directory.isEmpty() ? openDirectory(directory) : null;
+        if (this.directory != null) {
+            prune();
+            logger.info("Completion cache keeps up to {} replies in {}", maxDiskEntries, this.directory);
+        }
+    }
+
+    private static Path openDirectory(String directory) {
+        Path path = Paths.get(directory);
+        try {
+            Files.createDirectories(path);
+            return path;
+        } catch (IOException e) {
+            logger.error("Cannot use {} for the completion cache, keeping replies in memory only", path, e);
+            return null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Hashes everything that decides the reply. Runs of whitespace in the messages are
+     * collapsed and leading/trailing whitespace dropped, so "Hi  there " and "Hi there" share an entry.
+     * @param messages prompt as {role, content} objects
+     * @return hex encoded SHA-256
+     */
+    public static String key(String model, double temperature, List<JsonObject> messages) {
+        MessageDigest digest = sha256();
+        update(digest, model);
+        update(digest, Double.toString(temperature));
+        for (JsonObject message : messages) {
+            update(digest, text(message.get("role")));
+            update(digest, normalize(text(message.get("content"))));
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        // Separator, so ("ab", "c") and ("a", "bc") hash differently
+        digest.update((byte) 0);
+    }
+
+    private static String text(JsonElement element) {
+        return element == null || element.isJsonNull() ? "" : element.getAsString();
+    }
+
+    static String normalize(String content) {
+        return content.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @return the cached reply, or null on a miss
+     */
+    public String get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        CachedCompletion cached = memory.getIfPresent(key);
+        if (cached != null && cached.expiresAt <= System.currentTimeMillis()) {
+            // Promoted from disk with less than a full TTL left
+            memory.invalidate(key);
+            cached = null;
+        }
+        if (cached != null) {
+            memoryHits.increment();
+        } else if (directory != null && (cached = readFile(key)) != null) {
+            diskHits.increment();
+            // Promote, the next hit is served from memory
+            memory.put(key, cached);
+        } else {
+            misses.increment();
+            return null;
+        }
+        savedNanos.add(cached.latencyNanos);
+        return cached.reply;
+    }
+
+    /**
+     * @param latencyNanos how long the upstream call that produced the reply took
+     */
+    public void put(String key, String reply, long latencyNanos) {
+        if (!enabled || reply == null || reply.isEmpty()) {
+            return;
+        }
+        CachedCompletion cached = new CachedCompletion(reply, latencyNanos, System.currentTimeMillis() + ttlMillis);
+        memory.put(key, cached);
+        if (directory != null) {
+            writeFile(key, cached);
+        }
+    }
+
+    private CachedCompletion readFile(String key) {
+        Path file = directory.resolve(key + FILE_SUFFIX);
+        try (InputStream in = Files.newInputStream(file);
+             DataInputStream data = new DataInputStream(in)) {
+            long expiresAt = data.readLong();
+            long latencyNanos = data.readLong();
+            int length = data.readInt();
+            // A corrupt length must not size the allocation
+            if (length < 0 || length > MAX_REPLY_BYTES || length > Files.size(file) - FILE_HEADER_BYTES) {
+                throw new IOException("Bad reply length " + length);
+            }
+            byte[] reply = new byte[length];
+            data.readFully(reply);
+            if (expiresAt <= System.currentTimeMillis()) {
+                delete(file);
+                return null;
+            }
+            return new CachedCompletion(new String(reply, StandardCharsets.UTF_8), latencyNanos, expiresAt);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Dropping unreadable cache file {}", file, e);
+            delete(file);
+            return null;
+        }
+    }
+
+    private void writeFile(String key, CachedCompletion cached) {
+        Path file = directory.resolve(key + FILE_SUFFIX);
+        boolean existed = Files.exists(file);
+        try {
+            // Write aside and move into place, readers never see a half written file
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp);
+                 DataOutputStream data = new DataOutputStream(out)) {
+                byte[] reply = cached.reply.getBytes(StandardCharsets.UTF_8);
+                data.writeLong(cached.expiresAt);
+                data.writeLong(cached.latencyNanos);
+                data.writeInt(reply.length);
+                data.write(reply);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Failed to write cache file {}", file, e);
+            return;
+        }
+        if (!existed && diskEntries.incrementAndGet() > maxDiskEntries) {
+            prune();
+        }
+    }
+
+    /**
+     * Deletes expired files, then the oldest ones until the directory is back under its limit
+     */
+    private synchronized void prune() {
+        List<Path> files = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : stream) {
+                if (isExpired(file, now)) {
+                    delete(file);
+                } else {
+                    files.add(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to list cache directory {}", directory, e);
+            return;
+        }
+
+        if (files.size() > maxDiskEntries) {
+            files.sort(Comparator.comparing(CompletionCache::lastModified));
+            // Leave some headroom so the next few writes do not prune again
+            int excess = files.size() - maxDiskEntries * 9 / 10;
+            for (int i = 0; i < excess; i++) {
+                delete(files.get(i));
+            }
+            files = files.subList(excess, files.size());
+        }
+        diskEntries.set(files.size());
+    }
+
+    private boolean isExpired(Path file, long now) {
+        // Only the expiry is needed, so read just the first field
+        try (DataInputStream data = new DataInputStream(Files.newInputStream(file))) {
+            return data.readLong() <= now;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.debug("Failed to delete cache file {}", file, e);
+        }
+    }
+
+    public long getHitCount() {
+        return memoryHits.sum() + diskHits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return upstream time that hits did not have to spend, summed over all hits
+     */
+    public long getSavedMillis() {
+        return savedNanos.sum() / 1_000_000L;
+    }
+
+    /**
+     * @return a one-line summary of the cache's counters, e.g. for logs
+     */
+    public String getStats() {
+        long hitCount = getHitCount();
+        long total = hitCount + misses.sum();
+        return String.format("completions: size=%d, disk=%d, hits=%d (disk=%d), misses=%d, hitRate=%.1f%%, savedUpstreamMs=%d",
+                memory.size(), directory != null ? diskEntries.get() : 0, hitCount, diskHits.sum(),
+                total - hitCount, total == 0 ? 0.0 : 100.0 * hitCount / total, getSavedMillis());
+    }
+
+    private static class CachedCompletion {
+        final String reply;
+        final long latencyNanos;
+        // Wall clock, so it stays meaningful after a restart
+        final long expiresAt;
+
+        CachedCompletion(String reply, long latencyNanos, long expiresAt) {
+            this.reply = reply;
+            this.latencyNanos = latencyNanos;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Single-flight for AI calls: while a prompt is in flight, identical prompts (same
+ * {@link CompletionCache#key}) wait for that call instead of making their own.
+ * Streaming callers that join late first get every token received so far, then the
+ * rest as it arrives, so each of them sees the complete reply in order.
+ */
+public class CompletionCoalescer {
+
+    @FunctionalInterface
+    public interface Upstream {
+        /**
+         * @param onDelta when not null the reply should be streamed to it
+         * @return the full reply
+         */
+        String call(Consumer<String> onDelta);
+    }
+
+    private final boolean enabled;
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+
+    public CompletionCoalescer() {
+        this(ServerConfig.getBoolean("aichat.coalesce.enabled", true));
+    }
+
+    public CompletionCoalescer(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Runs the upstream call, or waits for an identical one already running
+     * @param onDelta when not null receives every piece of the reply, in order
+     * @return the full reply
+     */
+    public String complete(String key, Consumer<String> onDelta, Upstream upstream) {
+        if (!enabled) {
+            return upstream.call(onDelta);
+        }
+
+        Flight flight = new Flight();
+        Flight existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            joined.increment();
+            return existing.join(onDelta);
+        }
+
+        calls.increment();
+        try {
+            String reply = upstream.call(onDelta != null ? delta -> {
+                flight.publish(delta);
+                onDelta.accept(delta);
+            } : null);
+            flight.result.complete(reply);
+            return reply;
+        } catch (RuntimeException e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flight.finish();
+            inFlight.remove(key, flight);
+        }
+    }
+
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    public long getJoinedCount() {
+        return joined.sum();
+    }
+
+    /**
+     * @return a one-line summary of the coalescer's counters, e.g. for logs
+     */
+    public String getStats() {
+        long callCount = calls.sum();
+        long joinedCount = joined.sum();
+        long total = callCount + joinedCount;
+        return String.format("coalescer: inFlight=%d, upstreamCalls=%d, joined=%d, joinRate=%.1f%%",
+                inFlight.size(), callCount, joinedCount, total == 0 ? 0.0 : 100.0 * joinedCount / total);
+    }
+
+    /**
+     * One upstream call and everyone waiting on it. The caller making the call only records each
+     * token; joiners read them on their own threads at their own pace, so a slow joiner's
+     * connection never holds up the upstream stream or the other callers.
+     */
+    private static class Flight {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        // Guarded by this: tokens so far, and whether the call is over
+        private final List<String> tokens = new ArrayList<>();
+        private boolean finished;
+
+        synchronized void publish(String delta) {
+            tokens.add(delta);
+            notifyAll();
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        String join(Consumer<String> onDelta) {
+            int delivered = onDelta != null ? stream(onDelta) : 0;
+            String reply;
+            try {
+                reply = result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+            if (onDelta != null && delivered == 0) {
+                // The call was not streamed, hand the whole reply over as one piece
+                onDelta.accept(reply);
+            }
+            return reply;
+        }
+
+        /**
+         * Delivers every token, those so far first, until the call is over; outside the lock
+         * @return tokens delivered
+         */
+        private int stream(Consumer<String> onDelta) {
+            int next = 0;
+            while (true) {
+                List<String> pending;
+                synchronized (this) {
+                    try {
+                        while (next == tokens.size() && !finished) {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return next;
+                    }
+                    if (next == tokens.size()) {
+                        return next;
+                    }
+                    pending = new ArrayList<>(tokens.subList(next, tokens.size()));
+                    next = tokens.size();
+                }
+                for (String token : pending) {
+                    onDelta.accept(token);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+import com.aichatapp.models.ChatMessage;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Server-wide conversation context used as the prompt for the AI, keyed by session.
+ * A session is loaded from chat_messages the first time it is used, trimmed to a
+ * character budget by dropping its oldest turns, and the least recently used
+ * sessions are evicted when the store as a whole grows past its own budget.
+ */
+public class ConversationContextStore {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationContextStore.class);
+
+    private final ChatService chatService;
+    private final int maxSessionChars;
+    private final long maxTotalChars;
+    private final int hydrateMessages;
+
+    // Access ordered, so iteration starts at the least recently used session
+    private final LinkedHashMap<Integer, SessionContext> sessions = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalChars;
+
+    public ConversationContextStore(ChatService chatService) {
+        this(chatService,
+                ServerConfig.getInt("aichat.context.maxSessionChars", 24_000),
+                ServerConfig.getLong("aichat.context.maxTotalChars", 64L * 1024 * 1024),
+                ServerConfig.getInt("aichat.context.hydrateMessages", 100));
+    }
+
+    public ConversationContextStore(ChatService chatService, int maxSessionChars, long maxTotalChars,
+                                    int hydrateMessages) {
+        this.chatService = chatService;
+        this.maxSessionChars = maxSessionChars;
+        this.maxTotalChars = maxTotalChars;
+        this.hydrateMessages = hydrateMessages;
+    }
+
+    /**
+     * Builds the prompt for a new user message without recording it yet
+     * @return the session's context followed by the new message, as {role, content} objects
+     */
+    public List<JsonObject> buildContext(int sessionId, String userMessage) {
+        List<JsonObject> context;
+        synchronized (this) {
+            SessionContext session = sessions.get(sessionId);
+            context = session != null ? session.snapshot() : null;
+        }
+        if (context == null) {
+            SessionContext hydrated = hydrate(sessionId);
+            synchronized (this) {
+                // Without its history the prompt still carries the new message
+                context = hydrated != null ? hydrated.snapshot() : new ArrayList<>();
+            }
+        }
+        context.add(message("user", userMessage));
+        return context;
+    }
+
+    /**
+     * Records a completed exchange, called once the AI has replied
+     */
+    public void recordTurn(int sessionId, String userMessage, String aiResponse) {
+        SessionContext session;
+        synchronized (this) {
+            session = sessions.get(sessionId);
+        }
+        if (session == null) {
+            session = hydrate(sessionId);
+            if (session == null) {
+                // The caller saves the turn to chat_messages, the next hydrate picks it up
+                return;
+            }
+        }
+        synchronized (this) {
+            // hydrate may have raced with an eviction, re-register the session if needed
+            if (sessions.get(sessionId) != session) {
+                sessions.put(sessionId, session);
+                totalChars += session.chars;
+            }
+            totalChars += session.add(message("user", userMessage));
+            totalChars += session.add(message("assistant", aiResponse));
+            totalChars -= session.trim(maxSessionChars);
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    /**
+     * Drops a session's cached context, e.g. when the session is deleted
+     */
+    public synchronized void invalidate(int sessionId) {
+        SessionContext removed = sessions.remove(sessionId);
+        if (removed != null) {
+            totalChars -= removed.chars;
+        }
+    }
+
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    public synchronized long getTotalChars() {
+        return totalChars;
+    }
+
+    /**
+     * Loads the newest messages of a session from the database.
+     * Runs outside the lock so a slow query does not block other sessions.
+     * @return the registered context, or null when the query failed, so that a
+     *         database error is never cached as an empty conversation
+     */
+    private SessionContext hydrate(int sessionId) {
+        SessionContext loaded = new SessionContext();
+        if (sessionId > 0) {
+            List<ChatMessage> recent;
+            try {
+                recent = chatService.getRecentMessages(sessionId, hydrateMessages);
+            } catch (SQLException e) {
+                logger.warn("Could not load context for session {}, answering without it", sessionId, e);
+                return null;
+            }
+            for (ChatMessage stored : recent) {
+                String content = stored.getContent();
+                if (content != null) {
+                    loaded.add(message(stored.isUserMessage() ? "user" : "assistant", content));
+                }
+            }
+            loaded.trim(maxSessionChars);
+        }
+
+        synchronized (this) {
+            SessionContext existing = sessions.get(sessionId);
+            if (existing != null) {
+                return existing;
+            }
+            sessions.put(sessionId, loaded);
+            totalChars += loaded.chars;
+            evictLeastRecentlyUsed();
+        }
+        logger.debug("Hydrated context for session {} ({} messages, {} chars)",
+                sessionId, loaded.messages.size(), loaded.chars);
+        return loaded;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Iterator<Map.Entry<Integer, SessionContext>> it = sessions.entrySet().iterator();
+        // Always keep the most recently used session
+        while (totalChars > maxTotalChars && sessions.size() > 1 && it.hasNext()) {
+            SessionContext evicted = it.next().getValue();
+            it.remove();
+            totalChars -= evicted.chars;
+        }
+    }
+
+    private static JsonObject message(String role, String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", role);
+        message.addProperty("content", content);
+        return message;
+    }
+
+    private static int length(JsonObject message) {
+        return message.get("content").getAsString().length();
+    }
+
+    /**
+     * Messages of one session, oldest first. Guarded by the store's lock.
+     */
+    private static class SessionContext {
+        final Deque<JsonObject> messages = new ArrayDeque<>();
+        long chars;
+
+        long add(JsonObject message) {
+            messages.addLast(message);
+            int length = length(message);
+            chars += length;
+            return length;
+        }
+
+        /**
+         * Drops the oldest messages until the session fits the budget,
+         * and never leaves an assistant reply without its question
+         * @return number of characters removed
+         */
+        long trim(int maxChars) {
+            long removed = 0;
+            while (chars > maxChars && messages.size() > 1) {
+                removed += removeFirst();
+            }
+            while (!messages.isEmpty() && !"user".equals(messages.peekFirst().get("role").getAsString())) {
+                removed += removeFirst();
+            }
+            return removed;
+        }
+
+        private long removeFirst() {
+            int length = length(messages.removeFirst());
+            chars -= length;
+            return length;
+        }
+
+        List<JsonObject> snapshot() {
+            return new ArrayList<>(messages);
+        }
+    }
+}
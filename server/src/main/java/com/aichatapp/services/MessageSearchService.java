@@ -0,0 +1,308 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+import com.aichatapp.models.ChatMessage;
+import com.aichatapp.models.DatabaseConnection;
+import com.aichatapp.models.SearchPage;
+import com.aichatapp.search.InvertedIndex;
+import com.aichatapp.search.SearchResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Full-text search over everyone's chat history, each user seeing only their own.
+ * <p>
+ * A background thread keeps an {@link InvertedIndex} in step with chat_messages: it reads
+ * the rows after the highest message id it has seen whenever {@link ChatService} reports a
+ * save, and at least once per flush interval. At startup the index is loaded from its
+ * segment files and the thread catches up on whatever was written since, so the first
+ * start indexes the whole table and later ones only the tail. Searches are answered
+ * from memory; only the messages of the requested page are read from the database.
+ */
+public class MessageSearchService {
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearchService.class);
+    private static final String SELECT_SQL = "SELECT m.message_id, m.session_id, s.user_id, m.user_message, m.ai_response " +
+            "FROM chat_messages m JOIN chat_sessions s ON s.session_id = m.session_id ";
+    private static final String TAIL_SQL = SELECT_SQL + "WHERE m.message_id > ? ORDER BY m.message_id LIMIT ?";
+    // Ids skipped by the tail are retried this long, in case their transaction commits late
+    private static final long GAP_RETRY_MS = 60_000;
+    private static final int MAX_GAPS = 1_000;
+    private static final int MAX_GAPS_PER_HOLE = 100;
+
+    private final InvertedIndex index = new InvertedIndex();
+    private final Path dir;
+    private final int batchSize;
+    private final int flushDocs;
+    private final long flushIntervalMs;
+    private final int maxSegments;
+    private final Thread indexerThread;
+    private final Semaphore wakeups = new Semaphore(0);
+    private volatile boolean running = true;
+    // Indexer thread only: message id -> when it was first found missing
+    private final Map<Integer, Long> gaps = new LinkedHashMap<>();
+    private int segmentCount;
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong searchNanos = new AtomicLong();
+
+    public MessageSearchService() {
+        this(ServerConfig.getString("aichat.search.dir", "search-index"),
+                ServerConfig.getInt("aichat.search.batchSize", 1000),
+                ServerConfig.getInt("aichat.search.flushDocs", 10_000),
+                ServerConfig.getLong("aichat.search.flushIntervalMs", 60_000),
+                ServerConfig.getInt("aichat.search.maxSegments", 8));
+    }
+
+    /**
+     * @param dir             directory of the segment files, empty to rebuild from the database on every start
+     * @param batchSize       rows read from chat_messages per query while catching up
+     * @param flushDocs       new messages that trigger writing a segment
+     * @param flushIntervalMs longest unflushed messages wait for a segment, also how often the table is polled
+     * @param maxSegments     segments before they are compacted into one
+     */
+    public MessageSearchService(String dir, int batchSize, int flushDocs, long flushIntervalMs, int maxSegments) {
+        this.dir = dir.isEmpty() ? null : Paths.get(dir);
+        this.batchSize = batchSize;
+        this.flushDocs = flushDocs;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxSegments = maxSegments;
+        if (this.dir != null) {
+            try {
+                segmentCount = index.load(this.dir);
+                logger.info("Search index loaded {} messages from {} segments in {}",
+                        index.getDocumentCount(), segmentCount, this.dir);
+            } catch (IOException e) {
+                logger.warn("Search index in {} could not be loaded, rebuilding it", this.dir, e);
+            }
+        }
+        this.indexerThread = new Thread(this::runIndexer, "search-indexer");
+        this.indexerThread.setDaemon(true);
+        this.indexerThread.start();
+    }
+
+    /**
+     * Tells the indexer new messages were committed; it picks them up right away
+     */
+    public void onMessagesSaved() {
+        wakeups.release();
+    }
+
+    private void runIndexer() {
+        long lastFlush = System.nanoTime();
+        while (running) {
+            try {
+                catchUp();
+                long sinceFlush = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastFlush);
+                if (index.getUnflushedCount() >= flushDocs
+                        || (index.getUnflushedCount() > 0 && sinceFlush >= flushIntervalMs)) {
+                    flush();
+                    lastFlush = System.nanoTime();
+                }
+                wakeups.tryAcquire(flushIntervalMs, TimeUnit.MILLISECONDS);
+                wakeups.drainPermits();
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error in search indexer", e);
+            }
+        }
+        // Shutdown: index and persist what was committed up to now
+        catchUp();
+        flush();
+    }
+
+    /**
+     * Indexes every row committed since the last call, on the calling thread.
+     * The indexer thread runs it on every save; call it directly to index synchronously.
+     */
+    public synchronized void catchUp() {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            retryGaps(conn);
+            try (PreparedStatement stmt = conn.prepareStatement(TAIL_SQL)) {
+                int read;
+                // Holes are only looked for right behind the tail, not in the history read at startup
+                boolean atTail = index.getMaxMessageId() > 0;
+                do {
+                    int after = index.getMaxMessageId();
+                    stmt.setInt(1, after);
+                    stmt.setInt(2, batchSize);
+                    read = 0;
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        int expected = after + 1;
+                        while (rs.next()) {
+                            int messageId = rs.getInt(1);
+                            if (atTail) {
+                                for (int missing = expected; missing < messageId && missing - expected < MAX_GAPS_PER_HOLE; missing++) {
+                                    noteGap(missing);
+                                }
+                            }
+                            expected = messageId + 1;
+                            add(rs);
+                            read++;
+                        }
+                    }
+                    atTail = false;
+                } while (read == batchSize);
+            }
+        } catch (SQLException e) {
+            logger.error("Search indexer could not read new messages", e);
+        }
+    }
+
+    private void add(ResultSet rs) throws SQLException {
+        String userMessage = rs.getString(4);
+        index.add(rs.getInt(1), rs.getInt(3), rs.getInt(2), userMessage != null ? userMessage : rs.getString(5));
+    }
+
+    /**
+     * Auto increment ids are handed out at insert, so a transaction that commits after a
+     * later one leaves a hole behind the tail. Most holes are rollbacks and stay empty.
+     */
+    private void noteGap(int messageId) {
+        if (gaps.size() >= MAX_GAPS) {
+            Iterator<Integer> oldest = gaps.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        gaps.put(messageId, System.currentTimeMillis());
+    }
+
+    private void retryGaps(Connection conn) throws SQLException {
+        long now = System.currentTimeMillis();
+        gaps.values().removeIf(since -> now - since > GAP_RETRY_MS);
+        if (gaps.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>(gaps.keySet());
+        String sql = SELECT_SQL + "WHERE m.message_id IN (" + placeholders(ids.size()) + ")";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < ids.size(); i++) {
+                stmt.setInt(i + 1, ids.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    gaps.remove(rs.getInt(1));
+                    add(rs);
+                }
+            }
+        }
+    }
+
+    private synchronized void flush() {
+        if (dir == null) {
+            return;
+        }
+        try {
+            if (index.flush(dir) && ++segmentCount > maxSegments) {
+                index.compact(dir);
+                segmentCount = 1;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to write search index segment to {}", dir, e);
+        }
+    }
+
+    /**
+     * @param sessionId only search this session, null for all the user's sessions
+     * @return the page of the user's messages matching every word of the query, best match first
+     */
+    public SearchPage search(int userId, Integer sessionId, String query, int offset, int limit) {
+        long start = System.nanoTime();
+        SearchResult result = index.search(userId, sessionId, query, offset, limit);
+        searchNanos.addAndGet(System.nanoTime() - start);
+        searches.incrementAndGet();
+
+        List<ChatMessage> messages = load(result.getMessageIds());
+        return new SearchPage(messages, result.getTotal(), offset + result.getMessageIds().size() < result.getTotal());
+    }
+
+    /**
+     * @return the messages, in the order of the ids; ids deleted meanwhile are left out
+     */
+    private List<ChatMessage> load(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String sql = "SELECT message_id, session_id, user_message, ai_response, is_user_message, created_at " +
+                "FROM chat_messages WHERE message_id IN (" + placeholders(ids.size()) + ")";
+        Map<Integer, ChatMessage> byId = new HashMap<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < ids.size(); i++) {
+                stmt.setInt(i + 1, ids.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    byId.put(rs.getInt("message_id"), new ChatMessage(
+                            rs.getInt("message_id"),
+                            rs.getInt("session_id"),
+                            rs.getString("user_message"),
+                            rs.getString("ai_response"),
+                            rs.getBoolean("is_user_message"),
+                            rs.getTimestamp("created_at").toLocalDateTime()
+                    ));
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error loading {} search results", ids.size(), e);
+        }
+        List<ChatMessage> messages = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            ChatMessage message = byId.get(id);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
+    public int getIndexedCount() {
+        return index.getDocumentCount();
+    }
+
+    /**
+     * @return a one-line summary of the index and its searches, e.g. for logs
+     */
+    public String getStats() {
+        long count = searches.get();
+        return String.format("indexed=%d, segments=%d, searches=%d, avgSearchUs=%.1f",
+                index.getDocumentCount(), segmentCount, count,
+                count == 0 ? 0.0 : searchNanos.get() / 1e3 / count);
+    }
+
+    /**
+     * Indexes what is left and writes the last segment
+     */
+    public void shutdown() {
+        running = false;
+        indexerThread.interrupt();
+        try {
+            indexerThread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Search indexer stopped ({})", getStats());
+    }
+}
@@ -0,0 +1,291 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+import com.aichatapp.models.DatabaseConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind persistence for chat messages.
+ * Message pairs are queued by the request threads and a single writer thread
+ * inserts whatever has piled up, across all sessions, as one JDBC batch in one
+ * transaction (group commit).
+ */
+public class MessageWriter {
+    private static final Logger logger = LoggerFactory.getLogger(MessageWriter.class);
+    private static final String INSERT_SQL =
+            "INSERT INTO chat_messages (session_id, user_message, ai_response, is_user_message) VALUES (?, ?, ?, ?)";
+
+    public enum DurabilityMode {
+        /** saveMessage returns as soon as the pair is queued */
+        ACK_AFTER_ENQUEUE,
+        /** saveMessage waits until the batch holding the pair is committed */
+        ACK_AFTER_COMMIT
+    }
+
+    private final BlockingQueue<PendingMessage> queue;
+    private final DurabilityMode durabilityMode;
+    private final int maxBatchSize;
+    private final long lingerMs;
+    private final long enqueueTimeoutMs;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // Metrics
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong batchesCommitted = new AtomicLong();
+    private final AtomicLong messagesCommitted = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong overflowWrites = new AtomicLong();
+
+    public MessageWriter() {
+        this(ServerConfig.getInt("aichat.persist.queueCapacity", 10_000),
+                parseMode(ServerConfig.getString("aichat.persist.durability", "commit")),
+                ServerConfig.getInt("aichat.persist.maxBatchSize", 500),
+                ServerConfig.getLong("aichat.persist.lingerMs", 2),
+                ServerConfig.getLong("aichat.persist.enqueueTimeoutMs", 1_000));
+    }
+
+    public MessageWriter(int queueCapacity, DurabilityMode durabilityMode, int maxBatchSize,
+                         long lingerMs, long enqueueTimeoutMs) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.durabilityMode = durabilityMode;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMs = lingerMs;
+        this.enqueueTimeoutMs = enqueueTimeoutMs;
+        this.writerThread = new Thread(this::runWriter, "message-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        logger.info("Message writer started (mode={}, queue={}, batch={})", durabilityMode, queueCapacity, maxBatchSize);
+    }
+
+    private static DurabilityMode parseMode(String value) {
+        return "enqueue".equalsIgnoreCase(value) ? DurabilityMode.ACK_AFTER_ENQUEUE : DurabilityMode.ACK_AFTER_COMMIT;
+    }
+
+    public DurabilityMode getDurabilityMode() {
+        return durabilityMode;
+    }
+
+    /**
+     * Queues a user message and its AI reply
+     * @return future completed with true once the pair is committed, false if it could not be stored
+     */
+    public CompletableFuture<Boolean> enqueue(int sessionId, String userMessage, String aiResponse) {
+        PendingMessage pending = new PendingMessage(sessionId, userMessage, aiResponse);
+        try {
+            if (running && queue.offer(pending, enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+                // Shut down meanwhile: the writer's last drain may have missed the pair. If it is
+                // still queued take it back, otherwise the writer has it and completes it
+                if (running || !queue.remove(pending)) {
+                    return pending.committed;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Queue is full (or we are shutting down): write on the caller's thread rather than drop the message
+        overflowWrites.incrementAndGet();
+        List<PendingMessage> single = new ArrayList<>(1);
+        single.add(pending);
+        writeIndividually(single);
+        return pending.committed;
+    }
+
+    private void runWriter() {
+        List<PendingMessage> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Give concurrent requests a moment to join the same commit
+                if (lingerMs > 0 && queue.size() < maxBatchSize) {
+                    Thread.sleep(lingerMs);
+                }
+                queue.drainTo(batch, maxBatchSize - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                // Shutdown: flush what we hold plus everything still queued
+                queue.drainTo(batch);
+                writeBatch(batch);
+                if (!running) {
+                    break;
+                }
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error in message writer", e);
+                fail(batch);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingMessage> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(INSERT_SQL)) {
+                for (PendingMessage pending : batch) {
+                    pending.addTo(stmt);
+                }
+                stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                rollback(conn, e);
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            batchesCommitted.incrementAndGet();
+            messagesCommitted.addAndGet(batch.size());
+            for (PendingMessage pending : batch) {
+                pending.committed.complete(true);
+            }
+        } catch (SQLException e) {
+            // One bad row fails the whole batch, retry one by one so the others still land
+            logger.warn("Batch of {} messages failed, retrying individually", batch.size(), e);
+            writeIndividually(batch);
+        }
+    }
+
+    private void writeIndividually(List<PendingMessage> messages) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(INSERT_SQL)) {
+            for (PendingMessage pending : messages) {
+                try {
+                    conn.setAutoCommit(false);
+                    pending.addTo(stmt);
+                    stmt.executeBatch();
+                    conn.commit();
+                    messagesCommitted.incrementAndGet();
+                    pending.committed.complete(true);
+                } catch (SQLException e) {
+                    rollback(conn, e);
+                    stmt.clearBatch();
+                    logger.error("Error saving message to database for session {}", pending.sessionId, e);
+                    failedMessages.incrementAndGet();
+                    pending.committed.complete(false);
+                }
+            }
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            logger.error("Error saving messages to database", e);
+            fail(messages);
+        }
+    }
+
+    /**
+     * Rolls back without letting a failing rollback hide the error that caused it
+     */
+    private static void rollback(Connection conn, SQLException cause) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private void fail(List<PendingMessage> messages) {
+        for (PendingMessage pending : messages) {
+            if (pending.committed.complete(false)) {
+                failedMessages.incrementAndGet();
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getBatchesCommitted() {
+        return batchesCommitted.get();
+    }
+
+    public long getMessagesCommitted() {
+        return messagesCommitted.get();
+    }
+
+    public long getFailedMessages() {
+        return failedMessages.get();
+    }
+
+    /**
+     * @return a one-line summary of the writer's counters, e.g. for logs
+     */
+    public String getStats() {
+        long batches = batchesCommitted.get();
+        return String.format("depth=%d, maxDepth=%d, batches=%d, committed=%d, avgBatch=%.1f, failed=%d, overflow=%d",
+                queue.size(), maxQueueDepth.get(), batches, messagesCommitted.get(),
+                batches == 0 ? 0.0 : (double) messagesCommitted.get() / batches,
+                failedMessages.get(), overflowWrites.get());
+    }
+
+    /**
+     * Stops accepting new pairs and flushes whatever is still queued
+     */
+    public void shutdown() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Message writer stopped ({})", getStats());
+    }
+
+    /**
+     * One queued exchange, stored as two rows like ChatService always did
+     */
+    private static class PendingMessage {
+        final int sessionId;
+        final String userMessage;
+        final String aiResponse;
+        final CompletableFuture<Boolean> committed = new CompletableFuture<>();
+
+        PendingMessage(int sessionId, String userMessage, String aiResponse) {
+            this.sessionId = sessionId;
+            this.userMessage = userMessage;
+            this.aiResponse = aiResponse;
+        }
+
+        void addTo(PreparedStatement stmt) throws SQLException {
+            // User message row
+            stmt.setInt(1, sessionId);
+            stmt.setString(2, userMessage);
+            stmt.setString(3, null);
+            stmt.setBoolean(4, true);
+            stmt.addBatch();
+
+            // AI response row
+            stmt.setInt(1, sessionId);
+            stmt.setString(2, null);
+            stmt.setString(3, aiResponse);
+            stmt.setBoolean(4, false);
+            stmt.addBatch();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+import com.aichatapp.metrics.ServerMetrics;
+import org.mindrot.jbcrypt.BCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs BCrypt on its own small pool, sized to the CPU, so a login burst can only
+ * take that many cores and queue a bounded number of hashes; beyond that callers
+ * are turned away with {@link RejectedExecutionException} instead of stalling chat traffic.
+ * The cost factor is calibrated at startup so one hash takes about the target time
+ * on this machine, unless aichat.bcrypt.cost pins it.
+ */
+public class PasswordHasher {
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHasher.class);
+    // BCrypt's own default, never go below it
+    private static final int MIN_COST = 10;
+    private static final int MAX_COST = 16;
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMs;
+    private final int cost;
+
+    public PasswordHasher() {
+        this(ServerConfig.getInt("aichat.bcrypt.threads", Runtime.getRuntime().availableProcessors()),
+                ServerConfig.getInt("aichat.bcrypt.queue", 256),
+                ServerConfig.getLong("aichat.bcrypt.timeoutMs", 10_000),
+                configuredCost());
+    }
+
+    /**
+     * @param threads       hashes computed at once
+     * @param queueCapacity hashes waiting for a thread before new ones are rejected
+     * @param timeoutMs     longest a caller waits for its hash, queueing included
+     * @param cost          BCrypt log2 rounds for new hashes
+     */
+    public PasswordHasher(int threads, int queueCapacity, long timeoutMs, int cost) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "bcrypt-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.timeoutMs = timeoutMs;
+        this.cost = cost;
+        logger.info("Password hashing on {} threads (queue={}, cost={})", threads, queueCapacity, cost);
+    }
+
+    private static int configuredCost() {
+        int cost = ServerConfig.getInt("aichat.bcrypt.cost", 0);
+        return cost > 0 ? cost : calibrate(ServerConfig.getLong("aichat.bcrypt.targetMs", 250), MIN_COST, MAX_COST);
+    }
+
+    /**
+     * Finds the highest cost whose hash stays within the target time. Every extra
+     * round doubles the work, so one measurement at the lowest cost is extrapolated.
+     */
+    public static int calibrate(long targetMs, int minCost, int maxCost) {
+        // Warm up the JIT first, otherwise the measurement is several times too slow
+        for (int i = 0; i < 3; i++) {
+            BCrypt.hashpw("calibration", BCrypt.gensalt(Math.max(4, minCost - 4)));
+        }
+        long start = System.nanoTime();
+        BCrypt.hashpw("calibration", BCrypt.gensalt(minCost));
+        double measuredMs = Math.max(0.001, (System.nanoTime() - start) / 1e6);
+
+        int cost = minCost;
+        while (cost < maxCost && measuredMs * (1L << (cost + 1 - minCost)) <= targetMs) {
+            cost++;
+        }
+        logger.info("BCrypt cost {} takes {}ms here, using cost {} for a {}ms target",
+                minCost, Math.round(measuredMs), cost, targetMs);
+        return cost;
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * @return a new hash of the password at the calibrated cost
+     * @throws RejectedExecutionException when too many hashes are already queued
+     */
+    public String hash(String password) {
+        return await(submit(() -> BCrypt.hashpw(password, BCrypt.gensalt(cost))));
+    }
+
+    /**
+     * @throws RejectedExecutionException when too many hashes are already queued
+     */
+    public boolean check(String password, String storedHash) {
+        return await(submit(() -> BCrypt.checkpw(password, storedHash)));
+    }
+
+    /**
+     * Hashes in the background, for work nobody is waiting on
+     * @return future failed with RejectedExecutionException when the queue is full
+     */
+    public CompletableFuture<String> hashAsync(String password) {
+        try {
+            return CompletableFuture.supplyAsync(() -> timed(() -> BCrypt.hashpw(password, BCrypt.gensalt(cost))), executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @return true when the stored hash was made with a different cost than new hashes get
+     */
+    public boolean needsRehash(String storedHash) {
+        int storedCost = costOf(storedHash);
+        return storedCost > 0 && storedCost != cost;
+    }
+
+    /**
+     * @return the cost encoded in a "$2a$10$..." hash, -1 if it is not a BCrypt hash
+     */
+    static int costOf(String storedHash) {
+        if (storedHash == null || storedHash.length() < 7 || storedHash.charAt(0) != '$') {
+            return -1;
+        }
+        int end = storedHash.indexOf('$', 1);
+        try {
+            return end < 0 ? -1 : Integer.parseInt(storedHash.substring(end + 1, end + 3));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(() -> timed(task));
+    }
+
+    private static <T> T timed(Callable<T> task) {
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            ServerMetrics.BCRYPT.recordSince(start);
+        }
+    }
+
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new RejectedExecutionException("Password hashing did not finish within " + timeoutMs + "ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for password hashing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
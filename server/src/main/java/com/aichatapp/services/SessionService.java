@@ -1,7 +1,10 @@
 package com.aichatapp.services;
 
+import com.aichatapp.config.ServerConfig;
+import com.aichatapp.events.ChatEvent;
+import com.aichatapp.events.EventBus;
+import com.aichatapp.models.ChatSession;
 import com.aichatapp.models.DatabaseConnection;
-import com.google.gson.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,7 +15,32 @@ import java.util.List;
 public class SessionService {
     private static final Logger logger = LoggerFactory.getLogger(SessionService.class);
 
+    // session_id -> owning user_id, null (cached briefly) for sessions that do not exist
+    private final TtlCache<Integer, Integer> sessionOwnerCache = new TtlCache<>("sessionOwners",
+            ServerConfig.getInt("aichat.cache.maxEntries", 100_000),
+            ServerConfig.getLong("aichat.cache.ttlMs", 600_000),
+            ServerConfig.getLong("aichat.cache.negativeTtlMs", 30_000));
+    private final EventBus eventBus;
+
+    public SessionService() {
+        this(null);
+    }
+
+    /**
+     * @param eventBus told about every created session, or null
+     */
+    public SessionService(EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
     public int createSession(int userId, String sessionName) {
+        return createSession(userId, sessionName, null);
+    }
+
+    /**
+     * @param origin connection asking for it, left out of the session_created push; null for none
+     */
+    public int createSession(int userId, String sessionName, Object origin) {
         String sql = "INSERT INTO chat_sessions (user_id, session_name, created_at) VALUES (?, ?, NOW())";
 
         try (Connection conn = DatabaseConnection.getConnection();
@@ -28,7 +56,12 @@ public class SessionService {
 
             try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
                 if (generatedKeys.next()) {
-                    return generatedKeys.getInt(1); // return the generated session_id
+                    int sessionId = generatedKeys.getInt(1);
+                    sessionOwnerCache.put(sessionId, userId);
+                    if (eventBus != null) {
+                        eventBus.publish(ChatEvent.sessionCreated(userId, sessionId, sessionName, origin));
+                    }
+                    return sessionId; // return the generated session_id
                 } else {
                     throw new SQLException("Creating session failed, no ID obtained.");
                 }
@@ -41,25 +74,17 @@ public class SessionService {
 
 
     public boolean validateSession(int userId, int sessionId) {
-        String sql = "SELECT 1 FROM chat_sessions WHERE session_id = ? AND user_id = ?";
-
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setInt(1, sessionId);
-            stmt.setInt(2, userId);
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next(); // Returns true if session exists and belongs to user
-            }
-
+        try {
+            Integer ownerId = getSessionOwner(sessionId);
+            return ownerId != null && ownerId == userId; // true if session exists and belongs to user
         } catch (SQLException e) {
             logger.error("Session validation failed", e);
             return false;
         }
     }
-    public List<JsonObject> getUserSessions(int userId) {
-        List<JsonObject> sessions = new ArrayList<>();
+
+    public List<ChatSession> getUserSessions(int userId) {
+        List<ChatSession> sessions = new ArrayList<>();
         String sql = "SELECT session_id, session_name, created_at FROM chat_sessions WHERE user_id = ? ORDER BY created_at DESC";
 
         try (Connection conn = DatabaseConnection.getConnection();
@@ -68,11 +93,10 @@ public class SessionService {
             stmt.setInt(1, userId);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    JsonObject session = new JsonObject();
-                    session.addProperty("id", rs.getInt("session_id"));
-                    session.addProperty("name", rs.getString("session_name"));
-                    session.addProperty("created", rs.getTimestamp("created_at").toString());
-                    sessions.add(session);
+                    sessions.add(new ChatSession(
+                            rs.getInt("session_id"),
+                            rs.getString("session_name"),
+                            rs.getTimestamp("created_at").toString()));
                 }
             }
             logger.info("Retrieved {} sessions for user ID: {}", sessions.size(), userId);
@@ -81,4 +105,46 @@ public class SessionService {
         }
         return sessions;
     }
-}
\ No newline at end of file
+
+    public boolean sessionExists(int sessionId) throws SQLException {
+        return sessionId > 0 && getSessionOwner(sessionId) != null;
+    }
+
+    /**
+     * @return the user_id owning the session, or null if there is no such session
+     */
+    public Integer getSessionOwner(int sessionId) throws SQLException {
+        return sessionOwnerCache.get(sessionId, this::loadSessionOwner);
+    }
+
+    private Integer loadSessionOwner(int sessionId) throws SQLException {
+        String sql = "SELECT user_id FROM chat_sessions WHERE session_id = ?";
+
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setInt(1, sessionId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt("user_id") : null;
+            }
+        }
+    }
+
+    public int getSessionIdByName(int userId, String sessionName) throws SQLException {
+        String sql = "SELECT session_id FROM chat_sessions WHERE user_id = ? AND session_name = ? LIMIT 1";
+
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setInt(1, userId);
+            stmt.setString(2, sessionName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt("session_id") : -1;
+            }
+        }
+    }
+
+    public String getCacheStats() {
+        return sessionOwnerCache.getStats();
+    }
+}
@@ -0,0 +1,144 @@
+package com.aichatapp.services;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small bounded LRU cache with expiry, used in front of lookups that rarely change.
+ * A loader result of null means "does not exist" and is only cached when a
+ * negative TTL is configured.
+ */
+public class TtlCache<K, V> {
+
+    @FunctionalInterface
+    public interface Loader<K, V> {
+        V load(K key) throws SQLException;
+    }
+
+    private final String name;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries    least recently used entries are dropped beyond this size
+     * @param ttlMillis     lifetime of a found value
+     * @param negativeTtlMillis lifetime of a "not found" result, 0 to never cache misses
+     */
+    public TtlCache(String name, int maxEntries, long ttlMillis, long negativeTtlMillis) {
+        this.name = name;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.negativeTtlNanos = negativeTtlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value, or loads and caches it.
+     * The loader runs outside the lock, so concurrent misses for one key may both load.
+     */
+    public V get(K key, Loader<K, V> loader) throws SQLException {
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt - now > 0) {
+                    hits.increment();
+                    return entry.value;
+                }
+                entries.remove(key);
+            }
+        }
+
+        misses.increment();
+        V value = loader.load(key);
+        if (value != null) {
+            put(key, value);
+        } else if (negativeTtlNanos > 0) {
+            store(key, null, negativeTtlNanos);
+        }
+        return value;
+    }
+
+    /**
+     * @return the cached value, or null when absent or expired
+     */
+    public V getIfPresent(K key) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt - now > 0) {
+                    hits.increment();
+                    return entry.value;
+                }
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(K key, V value) {
+        store(key, value, ttlNanos);
+    }
+
+    private synchronized void store(K key, V value, long lifetimeNanos) {
+        entries.put(key, new Entry<>(value, System.nanoTime() + lifetimeNanos));
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return a one-line summary of the cache's counters, e.g. for logs
+     */
+    public String getStats() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return String.format("%s: size=%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d",
+                name, size(), hitCount, total - hitCount,
+                total == 0 ? 0.0 : 100.0 * hitCount / total, evictions.sum());
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared, pooled HTTP client for calls to the LLM provider.
+ * Connections are kept alive and reused, so a chat turn does not pay for DNS, TCP and TLS setup.
+ */
+public class UpstreamHttpClient implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamHttpClient.class);
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    /**
+     * Builds the client from the aichat.upstream.* settings
+     */
+    public UpstreamHttpClient() {
+        this(ServerConfig.getInt("aichat.upstream.maxConnections", 100),
+                ServerConfig.getInt("aichat.upstream.maxPerRoute", 50),
+                ServerConfig.getInt("aichat.upstream.connectTimeoutMs", 5_000),
+                ServerConfig.getInt("aichat.upstream.readTimeoutMs", 60_000),
+                ServerConfig.getInt("aichat.upstream.poolTimeoutMs", 10_000),
+                ServerConfig.getLong("aichat.upstream.keepAliveMs", 60_000));
+    }
+
+    /**
+     * @param maxConnections   connections across all hosts
+     * @param maxPerRoute      connections to a single host
+     * @param connectTimeoutMs TCP/TLS connect timeout
+     * @param readTimeoutMs    max silence between two packets of a response
+     * @param poolTimeoutMs    max wait for a free pooled connection
+     * @param keepAliveMs      idle time after which a connection is dropped when the server does not say otherwise
+     */
+    public UpstreamHttpClient(int maxConnections, int maxPerRoute, int connectTimeoutMs,
+                              int readTimeoutMs, int poolTimeoutMs, long keepAliveMs) {
+        connectionManager = new PoolingHttpClientConnectionManager(keepAliveMs, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        // Re-check connections that sat idle for a while before handing them out
+        connectionManager.setValidateAfterInactivity(2_000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMs)
+                .setSocketTimeout(readTimeoutMs)
+                .setConnectionRequestTimeout(poolTimeoutMs)
+                .build();
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy(keepAliveMs))
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAliveMs, TimeUnit.MILLISECONDS)
+                .disableCookieManagement()
+                .build();
+
+        logger.info("Upstream HTTP pool ready (max={}, perRoute={}, connect={}ms, read={}ms)",
+                maxConnections, maxPerRoute, connectTimeoutMs, readTimeoutMs);
+    }
+
+    /**
+     * Honors the server's Keep-Alive timeout, falling back to our default
+     */
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(long defaultKeepAliveMs) {
+        return (response, context) -> {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Long.parseLong(element.getValue()) * 1000;
+                    } catch (NumberFormatException ignored) {
+                        // fall through to the default
+                    }
+                }
+            }
+            return defaultKeepAliveMs;
+        };
+    }
+
+    /**
+     * Executes the request on a pooled connection.
+     * The caller must close the response; fully consumed responses return their connection to the pool.
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        return httpClient.execute(request);
+    }
+
+    /**
+     * @return a one-line summary of pool usage, e.g. for logs
+     */
+    public String getPoolStats() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return String.format("leased=%d, available=%d, pending=%d, max=%d",
+                stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax());
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.warn("Error closing upstream HTTP client", e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.aichatapp.services;
+
+/**
+ * The AI API is rate limited and the call could not be made within the allowed wait
+ */
+public class UpstreamRateLimitException extends RuntimeException {
+
+    public UpstreamRateLimitException(String message) {
+        super(message);
+    }
+}
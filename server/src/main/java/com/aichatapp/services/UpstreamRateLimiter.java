@@ -0,0 +1,278 @@
+package com.aichatapp.services;
+
+import com.aichatapp.config.ServerConfig;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps calls to the LLM provider inside its limits. Two token buckets, requests per
+ * minute and tokens per minute, are charged before every call; a caller that would
+ * overdraw them waits its turn, up to a bounded time, instead of being rejected
+ * upstream. The provider's Retry-After and x-ratelimit-* headers pause every caller
+ * until the provider says the limit resets.
+ */
+public class UpstreamRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamRateLimiter.class);
+    // Go style durations used by the x-ratelimit-reset-* headers, e.g. "2m59.56s", "7.66s", "500ms"
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    private final TokenBucket requests;
+    private final TokenBucket tokens;
+    private final long maxWaitNanos;
+    private final long retryBaseNanos;
+    private final long retryMaxNanos;
+    // Guarded by this; System.nanoTime() before which nobody may call upstream
+    private long pausedUntil = System.nanoTime();
+
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder waitedNanos = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder rateLimitResponses = new LongAdder();
+
+    public UpstreamRateLimiter() {
+        this(ServerConfig.getInt("aichat.ratelimit.requestsPerMinute", 0),
+                ServerConfig.getInt("aichat.ratelimit.tokensPerMinute", 0),
+                ServerConfig.getLong("aichat.ratelimit.maxWaitMs", 30_000),
+                ServerConfig.getLong("aichat.ratelimit.retryBaseMs", 500),
+                ServerConfig.getLong("aichat.ratelimit.retryMaxMs", 8_000));
+    }
+
+    /**
+     * @param requestsPerMinute 0 for no local request limit, the provider's headers still apply
+     * @param tokensPerMinute   0 for no local token limit
+     * @param maxWaitMs         longest a caller queues before giving up
+     * @param retryBaseMs       first retry backoff when the provider gives no hint, doubled per attempt
+     * @param retryMaxMs        cap of that backoff
+     */
+    public UpstreamRateLimiter(int requestsPerMinute, int tokensPerMinute, long maxWaitMs,
+                               long retryBaseMs, long retryMaxMs) {
+        this.requests = requestsPerMinute > 0 ? new TokenBucket(requestsPerMinute) : null;
+        this.tokens = tokensPerMinute > 0 ? new TokenBucket(tokensPerMinute) : null;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        this.retryBaseNanos = TimeUnit.MILLISECONDS.toNanos(retryBaseMs);
+        this.retryMaxNanos = TimeUnit.MILLISECONDS.toNanos(retryMaxMs);
+    }
+
+    /**
+     * Takes one request and the estimated tokens from the buckets, waiting until they are available
+     * @param deadline System.nanoTime() after which the caller stops waiting
+     * @throws UpstreamRateLimitException when the wait would pass the deadline
+     */
+    public void acquire(int estimatedTokens, long deadline) {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            wait = Math.max(0, pausedUntil - now);
+            if (requests != null) {
+                wait = Math.max(wait, requests.waitFor(1, now));
+            }
+            if (tokens != null) {
+                wait = Math.max(wait, tokens.waitFor(estimatedTokens, now));
+            }
+            if (now + wait - deadline > 0) {
+                rejected.increment();
+                throw new UpstreamRateLimitException("AI API rate limit: no capacity within "
+                        + TimeUnit.NANOSECONDS.toMillis(deadline - now) + "ms");
+            }
+            // Reserve now, so callers queue in arrival order instead of racing when capacity returns
+            if (requests != null) {
+                requests.take(1, now);
+            }
+            if (tokens != null) {
+                tokens.take(estimatedTokens, now);
+            }
+        }
+        if (wait > 0) {
+            throttled.increment();
+            waitedNanos.add(wait);
+            sleep(wait);
+        }
+    }
+
+    /**
+     * @return System.nanoTime() after which a caller starting now gives up waiting
+     */
+    public long deadline() {
+        return System.nanoTime() + maxWaitNanos;
+    }
+
+    /**
+     * Corrects the token bucket once the real usage of a call is known
+     */
+    public synchronized void recordUsage(int estimatedTokens, int actualTokens) {
+        if (tokens != null) {
+            tokens.correct(estimatedTokens, actualTokens, System.nanoTime());
+        }
+    }
+
+    /**
+     * Reads the provider's x-ratelimit-* headers; when a limit is exhausted nobody calls until it resets
+     */
+    public void observe(HttpResponse response) {
+        long now = System.nanoTime();
+        if (intHeader(response, "x-ratelimit-remaining-requests") == 0) {
+            pauseUntil(now + durationHeader(response, "x-ratelimit-reset-requests"));
+        }
+        if (intHeader(response, "x-ratelimit-remaining-tokens") == 0) {
+            pauseUntil(now + durationHeader(response, "x-ratelimit-reset-tokens"));
+        }
+    }
+
+    /**
+     * Handles a 429/503: pauses every caller for as long as the provider asks, or for a
+     * jittered exponential backoff when it does not say
+     * @param attempt retries made so far for this call, starting at 0
+     * @return how long to wait before retrying, in nanoseconds
+     */
+    public long onRejected(HttpResponse response, int attempt) {
+        rateLimitResponses.increment();
+        long delay = retryAfter(response);
+        if (delay < 0) {
+            delay = Math.max(durationHeader(response, "x-ratelimit-reset-requests"),
+                    durationHeader(response, "x-ratelimit-reset-tokens"));
+        }
+        if (delay <= 0) {
+            // Full jitter, so callers that were rejected together do not come back together
+            long cap = Math.min(retryMaxNanos, retryBaseNanos << Math.min(attempt, 20));
+            delay = ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+        }
+        pauseUntil(System.nanoTime() + delay);
+        return delay;
+    }
+
+    private synchronized void pauseUntil(long until) {
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+    }
+
+    /**
+     * @return the Retry-After delay in nanoseconds (seconds or an HTTP date), -1 when absent
+     */
+    static long retryAfter(HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if (header == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return (long) (Double.parseDouble(value) * 1_000_000_000L);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? -1 : Math.max(0, TimeUnit.MILLISECONDS.toNanos(date.getTime() - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * @return the duration in nanoseconds, 0 when absent or malformed
+     */
+    static long durationHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        if (header == null) {
+            return 0;
+        }
+        double nanos = 0;
+        Matcher matcher = DURATION_PART.matcher(header.getValue().trim());
+        while (matcher.find()) {
+            double amount = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "h":
+                    nanos += amount * 3_600_000_000_000L;
+                    break;
+                case "m":
+                    nanos += amount * 60_000_000_000L;
+                    break;
+                case "s":
+                    nanos += amount * 1_000_000_000L;
+                    break;
+                default:
+                    nanos += amount * 1_000_000L;
+                    break;
+            }
+        }
+        return (long) nanos;
+    }
+
+    private static int intHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(header.getValue().trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UpstreamRateLimitException("Interrupted while waiting for the AI API rate limit");
+        }
+    }
+
+    /**
+     * @return a one-line summary of the limiter's counters, e.g. for logs
+     */
+    public String getStats() {
+        long throttledCount = throttled.sum();
+        return String.format("throttled=%d, avgWaitMs=%.1f, gaveUp=%d, upstream429=%d",
+                throttledCount, throttledCount == 0 ? 0.0 : waitedNanos.sum() / 1e6 / throttledCount,
+                rejected.sum(), rateLimitResponses.sum());
+    }
+
+    /**
+     * Refills continuously at capacity per minute, may go into debt for reservations; guarded by the limiter
+     */
+    private static class TokenBucket {
+        final double capacity;
+        final double perNano;
+        double available;
+        long lastRefill = System.nanoTime();
+
+        TokenBucket(int perMinute) {
+            this.capacity = perMinute;
+            this.perNano = perMinute / 60e9;
+            this.available = perMinute;
+        }
+
+        private void refill(long now) {
+            available = Math.min(capacity, available + (now - lastRefill) * perNano);
+            lastRefill = now;
+        }
+
+        long waitFor(int amount, long now) {
+            refill(now);
+            // A single call larger than the bucket only has to wait for a full one
+            double missing = Math.min(amount, capacity) - available;
+            return missing <= 0 ? 0 : (long) Math.ceil(missing / perNano);
+        }
+
+        void take(int amount, long now) {
+            refill(now);
+            available -= Math.min(amount, capacity);
+        }
+
+        /**
+         * Replaces a reservation by the real amount; only what take() actually reserved
+         * is given back, and a refund never fills the bucket past its capacity
+         */
+        void correct(int reserved, int actual, long now) {
+            refill(now);
+            available = Math.min(capacity, available + Math.min(reserved, capacity) - Math.min(actual, capacity));
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package com.aichatapp.services;
 
+import com.aichatapp.config.ServerConfig;
 import com.aichatapp.models.DatabaseConnection;
-import org.mindrot.jbcrypt.BCrypt;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -11,8 +11,24 @@ import java.sql.SQLException;
 import static com.aichatapp.Server.logger;
 
 public class UserService {
+    // username -> user_id, "unknown user" results are cached briefly too
+    private final TtlCache<String, Integer> userIdCache = new TtlCache<>("userIds",
+            ServerConfig.getInt("aichat.cache.maxEntries", 100_000),
+            ServerConfig.getLong("aichat.cache.ttlMs", 600_000),
+            ServerConfig.getLong("aichat.cache.negativeTtlMs", 30_000));
+
+    private final PasswordHasher passwordHasher;
+
+    public UserService() {
+        this(new PasswordHasher());
+    }
+
+    public UserService(PasswordHasher passwordHasher) {
+        this.passwordHasher = passwordHasher;
+    }
+
     public boolean registerUser(String username, String email, String password) {
-        String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt());
+        String hashedPassword = passwordHasher.hash(password);
         String sql = "INSERT INTO users (username, email, password_hash) VALUES (?, ?, ?)";
 
         try (Connection conn = DatabaseConnection.getConnection();
@@ -34,6 +50,8 @@ public class UserService {
                 return false;
             }
 
+            // Drop a cached "unknown user" result for this name
+            userIdCache.invalidate(username);
             logger.info("Successfully registered user: {}", username);
             return true;
         } catch (SQLException e) {
@@ -55,6 +73,7 @@ public class UserService {
     }
     public boolean authenticateUser(String username, String password) {
         String sql = "SELECT password_hash FROM users WHERE username = ?";
+        String storedHash;
 
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -65,20 +84,58 @@ public class UserService {
                     logger.warn("Login attempt for non-existent user: {}", username);
                     return false;
                 }
-
-                String storedHash = rs.getString("password_hash");
-                boolean passwordMatch = BCrypt.checkpw(password, storedHash);
-
-                logger.info("Login attempt for user {}: {}", username,
-                        passwordMatch ? "success" : "invalid password");
-                return passwordMatch;
+                storedHash = rs.getString("password_hash");
             }
         } catch (SQLException e) {
             logger.error("Authentication error for user {}", username, e);
             return false;
         }
+
+        // Outside the try, so the pooled connection is not held while BCrypt runs
+        boolean passwordMatch = passwordHasher.check(password, storedHash);
+        logger.info("Login attempt for user {}: {}", username,
+                passwordMatch ? "success" : "invalid password");
+        if (passwordMatch && passwordHasher.needsRehash(storedHash)) {
+            rehash(username, password, storedHash);
+        }
+        return passwordMatch;
+    }
+
+    /**
+     * Replaces a hash made with an outdated cost, in the background so the login does not wait for it.
+     * The update only applies while the old hash is still stored, a concurrent password change wins.
+     */
+    private void rehash(String username, String password, String oldHash) {
+        String sql = "UPDATE users SET password_hash = ? WHERE username = ? AND password_hash = ?";
+        passwordHasher.hashAsync(password).thenAccept(newHash -> {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, newHash);
+                stmt.setString(2, username);
+                stmt.setString(3, oldHash);
+                if (stmt.executeUpdate() > 0) {
+                    logger.info("Rehashed password of user {} with cost {}", username, passwordHasher.getCost());
+                }
+            } catch (SQLException e) {
+                logger.warn("Failed to store rehashed password of user {}", username, e);
+            }
+        }).exceptionally(e -> {
+            // Pool busy: try again on a later login
+            logger.debug("Rehash of user {} skipped", username, e);
+            return null;
+        });
     }
     public int getUserIdByUsername(String username) {
+        try {
+            Integer userId = userIdCache.get(username, this::loadUserId);
+            return userId != null ? userId : -1;
+        } catch (SQLException e) {
+            logger.error("Error retrieving user ID for username: {}", username, e);
+        }
+        return -1;
+    }
+
+    private Integer loadUserId(String username) throws SQLException {
         String sql = "SELECT user_id FROM users WHERE username = ?";
 
         try (Connection conn = DatabaseConnection.getConnection();
@@ -90,18 +147,11 @@ public class UserService {
                     return rs.getInt("user_id");
                 }
             }
-        } catch (SQLException e) {
-            logger.error("Error retrieving user ID for username: {}", username, e);
         }
-        return -1;
-    }
-
-    private String hashPassword(String password) {
-
-        return BCrypt.hashpw(password, BCrypt.gensalt());
+        return null;
     }
 
-    private boolean checkPassword(String password, String storedHash) {
-        return BCrypt.checkpw(password, storedHash);
+    public String getCacheStats() {
+        return userIdCache.getStats();
     }
-}
\ No newline at end of file
+}
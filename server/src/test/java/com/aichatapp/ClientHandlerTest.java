@@ -0,0 +1,188 @@
+package com.aichatapp;
+
+import com.aichatapp.models.ChatMessage;
+import com.aichatapp.models.ChatSession;
+import com.aichatapp.models.HistoryPage;
+import com.aichatapp.network.ClientConnection;
+import com.aichatapp.protocol.ProtocolCodec;
+import com.aichatapp.services.AuthTokenService;
+import com.aichatapp.services.ChatService;
+import com.aichatapp.services.PasswordHasher;
+import com.aichatapp.services.SessionService;
+import com.aichatapp.services.UserService;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import junit.framework.TestCase;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ClientHandlerTest extends TestCase {
+    // The three history reads of the batch only get past it together
+    private final CyclicBarrier historyReads = new CyclicBarrier(3);
+    private static final int BROKEN_SESSION = 99;
+    private final Gson gson = new Gson();
+    private final AuthTokenService tokens = new AuthTokenService(new byte[32], 3600, 100);
+    private ExecutorService batchExecutor;
+    private CapturingConnection connection;
+    private ClientHandler handler;
+
+    private class FakeChatService extends ChatService {
+        @Override
+        public HistoryPage getChatHistoryPage(int sessionId, int beforeMessageId, int limit) throws SQLException {
+            if (sessionId == BROKEN_SESSION) {
+                throw new SQLException("Connection refused");
+            }
+            try {
+                historyReads.await(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException("History reads did not run concurrently", e);
+            }
+            return new HistoryPage(List.of(
+                    new ChatMessage(sessionId * 10, sessionId, "hi", null, true, LocalDateTime.now())), false);
+        }
+
+        @Override
+        public HistoryPage getMessagesAfter(int sessionId, int afterMessageId, int limit) throws SQLException {
+            throw new SQLException("Connection refused");
+        }
+    }
+
+    private static class FakeSessionService extends SessionService {
+        @Override
+        public List<ChatSession> getUserSessions(int userId) {
+            return userId == 10 ? List.of(new ChatSession(1, "First", "2026-01-01")) : List.of();
+        }
+    }
+
+    private static class FakeUserService extends UserService {
+        FakeUserService() {
+            super(new PasswordHasher(1, 1, 1_000, 4));
+        }
+
+        @Override
+        public int getUserIdByUsername(String username) {
+            return "alice".equals(username) ? 10 : 20;
+        }
+    }
+
+    private static class CapturingConnection implements ClientConnection {
+        volatile String last;
+
+        @Override
+        public void send(String message) {
+            last = message;
+        }
+
+        @Override
+        public void sendFrame(byte[] payload) {
+        }
+
+        @Override
+        public void enableBinaryFraming() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "test";
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        batchExecutor = Executors.newFixedThreadPool(3);
+        connection = new CapturingConnection();
+        // Services these requests do not use are left out
+        handler = new ClientHandler(connection, new FakeUserService(), tokens, new FakeChatService(),
+                new FakeSessionService(), null, null, null, null, null, null, null,
+                Runnable::run, batchExecutor, new ProtocolCodec());
+    }
+
+    @Override
+    protected void tearDown() {
+        batchExecutor.shutdownNow();
+    }
+
+    private JsonObject answer(String request) {
+        handler.onMessage(request);
+        return gson.fromJson(connection.last, JsonObject.class);
+    }
+
+    private void resumeAs(String username) {
+        JsonObject resumed = answer("{\"action\":\"resume\",\"authToken\":\"" + tokens.issue(username) + "\"}");
+        assertTrue(resumed.get("success").getAsBoolean());
+    }
+
+    public void testBatchRunsReadsConcurrentlyAndRefusesWrites() {
+        resumeAs("alice");
+        JsonObject response = answer("{\"action\":\"batch\",\"requestId\":7,\"requests\":["
+                + "{\"action\":\"get_history\",\"sessionId\":1,\"limit\":10,\"requestId\":\"a\"},"
+                + "{\"action\":\"get_history\",\"sessionId\":2,\"limit\":10},"
+                + "{\"action\":\"get_sessions\",\"username\":\"alice\"},"
+                + "{\"action\":\"get_history\",\"sessionId\":3,\"limit\":10},"
+                + "{\"action\":\"send_message\",\"message\":\"hi\",\"requestId\":\"w\"},"
+                + "{\"action\":\"batch\",\"requests\":[{\"action\":\"get_sessions\"}]}]}");
+
+        assertTrue(response.get("success").getAsBoolean());
+        assertEquals(7, response.get("requestId").getAsInt());
+        JsonArray responses = response.getAsJsonArray("responses");
+        assertEquals(6, responses.size());
+        for (int i : new int[]{0, 1, 3}) {
+            JsonObject history = responses.get(i).getAsJsonObject();
+            assertTrue(history.toString(), history.get("success").getAsBoolean());
+            int sessionId = i == 3 ? 3 : i + 1;
+            assertEquals(sessionId * 10, history.getAsJsonArray("history").get(0).getAsJsonObject()
+                    .get("messageId").getAsInt());
+        }
+        assertEquals("a", responses.get(0).getAsJsonObject().get("requestId").getAsString());
+        assertEquals(1, responses.get(2).getAsJsonObject().getAsJsonArray("sessions").size());
+        // Writes and nested batches are refused, each with its own error
+        JsonObject write = responses.get(4).getAsJsonObject();
+        assertEquals("Only reads can be batched", write.get("error").getAsString());
+        assertEquals("w", write.get("requestId").getAsString());
+        assertFalse(responses.get(5).getAsJsonObject().get("success").getAsBoolean());
+    }
+
+    public void testUserActionsActForTheLoggedInUser() {
+        String getSessions = "{\"action\":\"get_sessions\",\"username\":\"alice\"}";
+        assertEquals("Not logged in", answer(getSessions).get("error").getAsString());
+
+        // The token's user, not the one the request names
+        resumeAs("mallory");
+        assertEquals(0, answer(getSessions).getAsJsonArray("sessions").size());
+    }
+
+    public void testUnreadableHistoryIsAnErrorNotAnEmptyPage() {
+        JsonObject response = answer("{\"action\":\"get_history\",\"sessionId\":" + BROKEN_SESSION + ",\"limit\":10}");
+
+        assertFalse(response.get("success").getAsBoolean());
+        assertEquals("History retrieval error", response.get("error").getAsString());
+        assertFalse(response.has("history"));
+
+        // A delta sync must not take it for "nothing newer" either
+        response = answer("{\"action\":\"get_history\",\"sessionId\":1,\"afterId\":5}");
+        assertEquals("History retrieval error", response.get("error").getAsString());
+    }
+
+    public void testEmptyOrOversizedBatchFails() {
+        assertEquals("Empty batch", answer("{\"action\":\"batch\",\"requests\":[]}").get("error").getAsString());
+
+        StringBuilder requests = new StringBuilder("{\"action\":\"batch\",\"requests\":[");
+        for (int i = 0; i < 33; i++) {
+            requests.append(i > 0 ? "," : "").append("{\"action\":\"get_sessions\"}");
+        }
+        JsonObject response = answer(requests.append("]}").toString());
+        assertFalse(response.get("success").getAsBoolean());
+        assertFalse(response.has("responses"));
+    }
+}
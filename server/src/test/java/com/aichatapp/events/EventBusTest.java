@@ -0,0 +1,122 @@
+package com.aichatapp.events;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EventBusTest extends TestCase {
+    private EventBus bus;
+
+    @Override
+    protected void setUp() {
+        bus = new EventBus(1, 4);
+    }
+
+    @Override
+    protected void tearDown() {
+        bus.shutdown();
+    }
+
+    /**
+     * Collects deliveries; reports itself backed up until released, so events pile up meanwhile
+     */
+    private static class Recorder implements EventBus.Subscriber {
+        final List<String> events = new ArrayList<>();
+        volatile boolean backedUp;
+        volatile CountDownLatch expected = new CountDownLatch(0);
+
+        @Override
+        public synchronized void deliver(ChatEvent event) {
+            events.add(event.getType().getWireName() + ":" + event.getSessionId());
+            expected.countDown();
+        }
+
+        @Override
+        public boolean isBackedUp() {
+            return backedUp;
+        }
+
+        void expect(int count) {
+            expected = new CountDownLatch(count);
+        }
+
+        List<String> await() throws InterruptedException {
+            assertTrue("deliveries missing", expected.await(5, TimeUnit.SECONDS));
+            synchronized (this) {
+                return new ArrayList<>(events);
+            }
+        }
+    }
+
+    public void testDeliversOnlyToTheUsersOtherSubscriptions() throws Exception {
+        Object sender = new Object();
+        Recorder own = new Recorder();
+        Recorder other = new Recorder();
+        Recorder stranger = new Recorder();
+        bus.subscribe(10, sender, own);
+        bus.subscribe(10, new Object(), other);
+        bus.subscribe(20, new Object(), stranger);
+
+        other.expect(2);
+        own.expect(1);
+        bus.publish(ChatEvent.sessionCreated(10, 5, "Work", sender));
+        bus.publish(ChatEvent.messagesAppended(10, 5, null));
+
+        List<String> events = other.await();
+        assertEquals(List.of("session_created:5", "messages_appended:5"), events);
+        // The sender hears only about what it did not cause itself
+        assertEquals(List.of("messages_appended:5"), own.await());
+        Thread.sleep(50);
+        assertTrue(stranger.events.isEmpty());
+    }
+
+    public void testBackedUpSubscriberGetsCoalescedEvents() throws Exception {
+        Recorder slow = new Recorder();
+        slow.backedUp = true;
+        bus.subscribe(10, null, slow);
+
+        for (int i = 0; i < 50; i++) {
+            bus.publish(ChatEvent.messagesAppended(10, 1, null));
+            bus.publish(ChatEvent.messagesAppended(10, 2, null));
+        }
+        slow.expect(2);
+        slow.backedUp = false;
+
+        assertEquals(List.of("messages_appended:1", "messages_appended:2"), slow.await());
+        assertTrue(bus.getStats(), bus.getStats().contains("coalesced=98"));
+    }
+
+    public void testOverflowIsReplacedByOneResync() throws Exception {
+        Recorder slow = new Recorder();
+        slow.backedUp = true;
+        bus.subscribe(10, null, slow);
+
+        for (int i = 1; i <= 10; i++) {
+            bus.publish(ChatEvent.messagesAppended(10, i, null));
+        }
+        slow.expect(1);
+        slow.backedUp = false;
+
+        assertEquals(List.of("resync:0"), slow.await());
+        // Buffering starts over after the resync
+        slow.expect(1);
+        bus.publish(ChatEvent.messagesAppended(10, 3, null));
+        assertEquals(List.of("resync:0", "messages_appended:3"), slow.await());
+    }
+
+    public void testClosedSubscriptionStopsDelivery() throws Exception {
+        Recorder recorder = new Recorder();
+        EventBus.Subscription subscription = bus.subscribe(10, null, recorder);
+        assertEquals(1, bus.getSubscriptionCount());
+
+        subscription.close();
+        bus.publish(ChatEvent.messagesAppended(10, 1, null));
+
+        assertEquals(0, bus.getSubscriptionCount());
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertTrue(recorder.events.isEmpty());
+    }
+}
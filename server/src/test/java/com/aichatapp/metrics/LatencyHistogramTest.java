@@ -0,0 +1,46 @@
+package com.aichatapp.metrics;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBucketsCoverEveryValueWithinTwentyPercent() {
+        int previous = -1;
+        for (long micros = 0; micros < 5_000_000; micros += 1 + micros / 50) {
+            int bucket = LatencyHistogram.bucket(micros);
+            assertTrue(bucket >= previous);
+            long upper = LatencyHistogram.bucketUpperBound(bucket);
+            assertTrue(micros + " above its bucket " + upper, micros <= upper);
+            assertTrue(micros + " far below its bucket " + upper, upper <= Math.max(3, micros * 1.25));
+            previous = bucket;
+        }
+    }
+
+    public void testQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50.5, snapshot.getMeanMillis(), 0.001);
+        assertEquals(50, histogram.getP50Millis(), 50 * 0.2);
+        assertEquals(99, histogram.getP99Millis(), 99 * 0.2);
+        assertEquals(100.0, histogram.getMaxMillis(), 0.001);
+    }
+
+    public void testPrometheusRendering() {
+        ServerMetrics.action("get_history").record(2_000_000L);
+        ServerMetrics.gauge("aichat_test_gauge", () -> 42);
+
+        String text = ServerMetrics.renderPrometheus();
+
+        assertTrue(text.contains("# TYPE aichat_request_seconds summary"));
+        assertTrue(text.contains("aichat_request_seconds_count{action=\"get_history\"} "));
+        assertTrue(text.contains("aichat_request_seconds{action=\"get_history\",quantile=\"0.99\"} "));
+        assertTrue(text.contains("aichat_phase_seconds_count{phase=\"db\"} "));
+        assertTrue(text.contains("aichat_test_gauge 42\n"));
+    }
+}
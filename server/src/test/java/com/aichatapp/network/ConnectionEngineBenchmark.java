@@ -0,0 +1,89 @@
+package com.aichatapp.network;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens a growing number of idle client connections against each engine and
+ * prints live threads and used heap of this JVM at every step.
+ *
+ * Run from the server module after `mvn test-compile`:
+ * java -cp "target/classes:target/test-classes:$(cat cp.txt)" com.aichatapp.network.ConnectionEngineBenchmark 10000
+ * (use `mvn dependency:build-classpath -Dmdep.outputFile=cp.txt` for the classpath).
+ * Large counts need a raised open-file limit (ulimit -n).
+ */
+public class ConnectionEngineBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxConnections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int steps = 4;
+
+        System.out.printf("%-8s %12s %10s %12s%n", "engine", "connections", "threads", "heap (MB)");
+        for (String mode : new String[]{"thread", "nio"}) {
+            run(mode, maxConnections, steps);
+        }
+    }
+
+    private static void run(String mode, int maxConnections, int steps) throws Exception {
+        ConnectionEngine engine = ConnectionEngine.create(mode, connection -> new ConnectionHandler() {
+            @Override
+            public void onMessage(String message) {
+                connection.send(message);
+            }
+
+            @Override
+            public void onDisconnect() {
+            }
+        });
+
+        Thread serverThread = new Thread(() -> {
+            try {
+                engine.start(0);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "engine-" + mode);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        while (engine.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+
+        List<SocketChannel> clients = new ArrayList<>();
+        try {
+            report(mode, engine);
+            for (int step = 1; step <= steps; step++) {
+                int target = maxConnections * step / steps;
+                while (clients.size() < target) {
+                    clients.add(SocketChannel.open(new InetSocketAddress("localhost", engine.getLocalPort())));
+                }
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (engine.getActiveConnections() < target && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(20);
+                }
+                report(mode, engine);
+            }
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            engine.shutdown();
+            serverThread.join(5_000);
+        }
+    }
+
+    private static void report(String mode, ConnectionEngine engine) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapMb = memory.getHeapMemoryUsage().getUsed() / (1024 * 1024);
+        System.out.printf("%-8s %12d %10d %12d%n", mode, engine.getActiveConnections(),
+                threads.getThreadCount(), heapMb);
+    }
+}
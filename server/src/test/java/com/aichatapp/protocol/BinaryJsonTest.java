@@ -0,0 +1,100 @@
+package com.aichatapp.protocol;
+
+import com.aichatapp.models.ChatMessage;
+import com.aichatapp.models.LocalDateTimeAdapter;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.MalformedJsonException;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+public class BinaryJsonTest extends TestCase {
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .create();
+
+    public void testTreeRoundTrip() {
+        JsonObject original = JsonParser.parseString("{"
+                + "\"action\":\"send_message\",\"requestId\":-17,\"big\":9007199254740993,"
+                + "\"ratio\":0.7,\"precise\":1.00000000000000000001,\"stream\":true,\"cache\":false,"
+                + "\"message\":\"line one\\nline \\\"two\\\" é中😀\","
+                + "\"nested\":{\"empty\":{},\"list\":[1,\"two\",[3],{\"four\":4},null]}}").getAsJsonObject();
+
+        JsonObject decoded = BinaryJson.decodeObject(gson, BinaryJson.encode(gson, original));
+
+        assertEquals(original, decoded);
+        assertEquals(-17, decoded.get("requestId").getAsInt());
+        assertEquals(9007199254740993L, decoded.get("big").getAsLong());
+    }
+
+    public void testNullMembersAreDroppedLikeInJson() {
+        JsonObject original = new JsonObject();
+        original.addProperty("kept", "yes");
+        original.add("dropped", null);
+
+        JsonObject decoded = BinaryJson.decodeObject(gson, BinaryJson.encode(gson, original));
+
+        assertEquals(gson.fromJson(gson.toJson(original), JsonObject.class), decoded);
+        assertFalse(decoded.has("dropped"));
+    }
+
+    public void testTypedObjectsStreamThroughGson() throws Exception {
+        ChatMessage message = new ChatMessage(42, 7, null, "Tunis.", false,
+                LocalDateTime.of(2025, 4, 28, 1, 58, 30));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryJsonWriter writer = new BinaryJsonWriter(bytes)) {
+            gson.toJson(message, ChatMessage.class, writer);
+        }
+
+        ChatMessage decoded = gson.fromJson(new BinaryJsonReader(bytes.toByteArray()), ChatMessage.class);
+
+        assertEquals(42, decoded.getMessageId());
+        assertEquals(7, decoded.getSessionId());
+        assertNull(decoded.getUserMessage());
+        assertEquals("Tunis.", decoded.getAiResponse());
+        assertEquals(message.getTimestamp(), decoded.getTimestamp());
+    }
+
+    public void testSmallerThanJsonForHistory() {
+        JsonArray history = new JsonArray();
+        for (int i = 0; i < 50; i++) {
+            JsonObject message = new JsonObject();
+            message.addProperty("messageId", 1000 + i);
+            message.addProperty("sessionId", 7);
+            message.addProperty("aiResponse", "Answer with \"quotes\" and\nnew lines " + i);
+            message.addProperty("isUserMessage", false);
+            history.add(message);
+        }
+        JsonObject response = new JsonObject();
+        response.add("history", history);
+
+        int jsonBytes = gson.toJson(response).getBytes(StandardCharsets.UTF_8).length;
+        int binaryBytes = BinaryJson.encode(gson, response).length;
+
+        assertTrue("binary " + binaryBytes + " vs json " + jsonBytes, binaryBytes < jsonBytes);
+    }
+
+    public void testTruncatedPayloadIsRejected() {
+        JsonObject original = new JsonObject();
+        original.addProperty("message", "this string gets cut off");
+        byte[] encoded = BinaryJson.encode(gson, original);
+
+        try {
+            BinaryJson.decodeObject(gson, Arrays.copyOf(encoded, encoded.length - 5));
+            fail("expected a parse error");
+        } catch (RuntimeException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof MalformedJsonException);
+        }
+    }
+
+    public void testEmptyPayloadDecodesToNull() {
+        assertNull(BinaryJson.decodeObject(gson, new byte[0]));
+    }
+}
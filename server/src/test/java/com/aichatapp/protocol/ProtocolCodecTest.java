@@ -0,0 +1,51 @@
+package com.aichatapp.protocol;
+
+import com.aichatapp.models.ChatMessage;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import junit.framework.TestCase;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+public class ProtocolCodecTest extends TestCase {
+    private final ProtocolCodec codec = new ProtocolCodec();
+
+    public void testDecodesLineAndFrameAlike() {
+        String line = "{\"action\":\"get_history\",\"sessionId\":7,\"limit\":50,\"stream\":true,\"requestId\":\"abc\"}";
+        byte[] frame = BinaryJson.encode(new Gson(), JsonParser.parseString(line));
+
+        for (Request request : new Request[]{codec.decodeLine(line), codec.decodeFrame(frame)}) {
+            assertEquals("get_history", request.getAction());
+            assertEquals(Integer.valueOf(7), request.getSessionId());
+            assertEquals(Integer.valueOf(50), request.getLimit());
+            assertNull(request.getBeforeId());
+            assertTrue(request.isStream());
+            assertEquals("abc", request.getRequestId().getAsString());
+        }
+    }
+
+    public void testResponseLeavesOutUnsetFields() {
+        Response response = Response.error(JsonParser.parseString("12"), "Unknown action");
+
+        JsonObject json = JsonParser.parseString(codec.encodeLine(response)).getAsJsonObject();
+
+        assertEquals(JsonParser.parseString("{\"success\":false,\"error\":\"Unknown action\",\"requestId\":12}"), json);
+    }
+
+    public void testHistoryFrameMatchesLine() {
+        Response response = new Response();
+        response.setSuccess(true);
+        response.setHistory(Collections.singletonList(new ChatMessage(3, 7, "Hi", null, true,
+                LocalDateTime.of(2025, 4, 28, 1, 58, 30))));
+        response.setHasMore(false);
+
+        JsonObject fromLine = JsonParser.parseString(codec.encodeLine(response)).getAsJsonObject();
+        JsonObject fromFrame = BinaryJson.decodeObject(new Gson(), codec.encodeFrame(response));
+
+        assertEquals(fromLine, fromFrame);
+        assertEquals("2025-04-28T01:58:30",
+                fromLine.getAsJsonArray("history").get(0).getAsJsonObject().get("timestamp").getAsString());
+    }
+}
@@ -0,0 +1,126 @@
+package com.aichatapp.search;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+public class InvertedIndexTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("search-index").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testTokenizerLowercasesAndDropsStopWords() {
+        assertEquals(Arrays.asList("how", "do", "parse", "json", "java", "17"),
+                Tokenizer.tokenize("How do I parse JSON in Java 17?"));
+        assertEquals(Arrays.asList("café", "déjà", "vu"), Tokenizer.tokenize("Café: déjà-vu"));
+        assertTrue(Tokenizer.tokenize(null).isEmpty());
+    }
+
+    public void testMatchesEveryTermOfOnlyTheUsersMessages() {
+        InvertedIndex index = new InvertedIndex();
+        index.add(1, 10, 100, "How do I parse JSON in Java?");
+        index.add(2, 10, 100, "Use Gson to parse JSON, it maps JSON objects to Java classes");
+        index.add(3, 10, 101, "Java records are immutable");
+        index.add(4, 20, 200, "Parsing JSON in Java with Jackson");
+
+        SearchResult result = index.search(10, null, "java json", 0, 10);
+
+        assertEquals(2, result.getTotal());
+        // The message mentioning JSON twice ranks first
+        assertEquals(Arrays.asList(2, 1), result.getMessageIds());
+        assertEquals(Arrays.asList(4), index.search(20, null, "JAVA Json", 0, 10).getMessageIds());
+        assertEquals(0, index.search(10, null, "jackson", 0, 10).getTotal());
+        assertEquals(0, index.search(30, null, "java", 0, 10).getTotal());
+        assertEquals(0, index.search(10, null, "the of", 0, 10).getTotal());
+    }
+
+    public void testPagesAndSessionFilter() {
+        InvertedIndex index = new InvertedIndex();
+        for (int i = 1; i <= 25; i++) {
+            index.add(i, 10, i % 2 == 0 ? 100 : 101, "kafka consumer question q" + (100 + i));
+        }
+
+        SearchResult first = index.search(10, null, "kafka", 0, 10);
+        SearchResult third = index.search(10, null, "kafka", 20, 10);
+
+        assertEquals(25, first.getTotal());
+        // Equal scores: newest first, and pages do not overlap
+        assertEquals(Arrays.asList(25, 24, 23, 22, 21, 20, 19, 18, 17, 16), first.getMessageIds());
+        assertEquals(Arrays.asList(5, 4, 3, 2, 1), third.getMessageIds());
+        assertEquals(12, index.search(10, 100, "kafka consumer", 0, 5).getTotal());
+        assertEquals(Arrays.asList(24, 22), index.search(10, 100, "kafka", 0, 2).getMessageIds());
+    }
+
+    public void testSegmentsSurviveRestartAndCompaction() throws Exception {
+        Path dir = directory.toPath();
+        InvertedIndex index = new InvertedIndex();
+        index.add(1, 10, 100, "first segment about rust");
+        index.add(2, 10, 100, "still the first segment");
+        assertTrue(index.flush(dir));
+        assertFalse(index.flush(dir));
+        index.add(3, 10, 100, "second segment about rust and go");
+        index.add(5, 10, 100, "!!!");
+        assertTrue(index.flush(dir));
+        assertEquals(2, InvertedIndex.segments(dir).size());
+
+        InvertedIndex restarted = new InvertedIndex();
+        assertEquals(2, restarted.load(dir));
+        assertEquals(3, restarted.getDocumentCount());
+        // Messages without terms still move the tail forward
+        assertEquals(5, restarted.getMaxMessageId());
+        assertEquals(Arrays.asList(1, 3), sorted(restarted.search(10, null, "rust", 0, 10).getMessageIds()));
+
+        restarted.add(6, 10, 100, "third segment about rust");
+        restarted.flush(dir);
+        restarted.compact(dir);
+        assertEquals(1, InvertedIndex.segments(dir).size());
+
+        InvertedIndex compacted = new InvertedIndex();
+        assertEquals(1, compacted.load(dir));
+        assertEquals(Arrays.asList(1, 3, 6), sorted(compacted.search(10, null, "rust", 0, 10).getMessageIds()));
+        assertEquals(Arrays.asList(3), compacted.search(10, null, "rust go", 0, 10).getMessageIds());
+    }
+
+    public void testLoadStopsAtCorruptSegment() throws Exception {
+        Path dir = directory.toPath();
+        InvertedIndex index = new InvertedIndex();
+        index.add(1, 10, 100, "intact segment");
+        index.flush(dir);
+        index.add(2, 10, 100, "damaged segment");
+        index.flush(dir);
+        Path damaged = InvertedIndex.segments(dir).get(1);
+        byte[] bytes = Files.readAllBytes(damaged);
+        Files.write(damaged, Arrays.copyOf(bytes, bytes.length - 3));
+
+        InvertedIndex restarted = new InvertedIndex();
+
+        assertEquals(1, restarted.load(dir));
+        assertEquals(1, restarted.getMaxMessageId());
+        assertEquals(1, restarted.search(10, null, "segment", 0, 10).getTotal());
+        // Removed, the next flush writes those messages again
+        assertEquals(1, InvertedIndex.segments(dir).size());
+    }
+
+    private static List<Integer> sorted(List<Integer> ids) {
+        ids.sort(null);
+        return ids;
+    }
+}
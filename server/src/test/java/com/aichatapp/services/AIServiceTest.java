@@ -0,0 +1,137 @@
+package com.aichatapp.services;
+
+import com.google.gson.JsonObject;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs AIService against a local stand-in endpoint
+ */
+public class AIServiceTest extends TestCase {
+    private StubCompletionServer stub;
+    private UpstreamHttpClient httpClient;
+    private AIService aiService;
+
+    @Override
+    protected void setUp() throws Exception {
+        stub = new StubCompletionServer("The capital of Tunisia is Tunis.");
+        httpClient = new UpstreamHttpClient(10, 5, 1_000, 5_000, 1_000, 30_000);
+        aiService = new AIService(httpClient, stub.url(), "test-key", "test-model");
+    }
+
+    @Override
+    protected void tearDown() {
+        httpClient.close();
+        stub.close();
+    }
+
+    private static List<JsonObject> conversation(String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "user");
+        message.addProperty("content", content);
+        List<JsonObject> messages = new ArrayList<>();
+        messages.add(message);
+        return messages;
+    }
+
+    public void testCompleteReturnsReply() {
+        String reply = aiService.complete(conversation("what is the capital of tunisia"));
+
+        assertEquals("The capital of Tunisia is Tunis.", reply);
+        assertTrue(stub.requestBodies.get(0).contains("\"model\":\"test-model\""));
+    }
+
+    public void testStreamCompletionReportsDeltasInOrder() {
+        List<String> deltas = new ArrayList<>();
+
+        String reply = aiService.streamCompletion(conversation("capital?"), deltas::add);
+
+        assertEquals("The capital of Tunisia is Tunis.", reply);
+        assertTrue(deltas.size() > 1);
+        assertEquals(reply, String.join("", deltas));
+    }
+
+    public void testStreamedUsageIsRecorded() {
+        List<Integer> recorded = new ArrayList<>();
+        UpstreamRateLimiter limiter = new UpstreamRateLimiter(0, 1_000, 5_000, 10, 100) {
+            @Override
+            public synchronized void recordUsage(int estimatedTokens, int actualTokens) {
+                recorded.add(actualTokens);
+                super.recordUsage(estimatedTokens, actualTokens);
+            }
+        };
+        AIService limited = new AIService(httpClient, stub.url(), "test-key", "test-model", limiter, 3);
+
+        limited.streamCompletion(conversation("capital?"), delta -> { });
+
+        assertEquals(List.of(42), recorded);
+    }
+
+    public void testConnectionIsReusedAcrossCalls() {
+        aiService.complete(conversation("one"));
+        aiService.streamCompletion(conversation("two"), delta -> { });
+        aiService.complete(conversation("three"));
+
+        assertEquals(3, stub.clientPorts.size());
+        assertEquals("all calls should share one kept-alive connection",
+                1, stub.clientPorts.stream().distinct().count());
+    }
+
+    public void testRateLimitedCallIsRetriedAfterTheAdvertisedReset() {
+        AIService limited = new AIService(httpClient, stub.url(), "test-key", "test-model",
+                new UpstreamRateLimiter(0, 0, 5_000, 10, 100), 3);
+        stub.rateLimitNext(2, null, "150ms");
+
+        long start = System.nanoTime();
+        String reply = limited.complete(conversation("capital?"));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("The capital of Tunisia is Tunis.", reply);
+        assertEquals(3, stub.requestBodies.size());
+        assertTrue("waited " + elapsedMs + "ms", elapsedMs >= 300);
+    }
+
+    public void testStreamingCallIsRetriedAfterRetryAfter() {
+        AIService limited = new AIService(httpClient, stub.url(), "test-key", "test-model",
+                new UpstreamRateLimiter(0, 0, 5_000, 10, 100), 3);
+        stub.rateLimitNext(1, "0.1", null);
+        List<String> deltas = new ArrayList<>();
+
+        String reply = limited.streamCompletion(conversation("capital?"), deltas::add);
+
+        assertEquals("The capital of Tunisia is Tunis.", reply);
+        assertEquals(reply, String.join("", deltas));
+        assertEquals(2, stub.requestBodies.size());
+    }
+
+    public void testGivesUpWhenRetryAfterExceedsTheAllowedWait() {
+        AIService limited = new AIService(httpClient, stub.url(), "test-key", "test-model",
+                new UpstreamRateLimiter(0, 0, 500, 10, 100), 3);
+        stub.rateLimitNext(1, "60", null);
+
+        long start = System.nanoTime();
+        try {
+            limited.complete(conversation("capital?"));
+            fail("expected the call to give up");
+        } catch (UpstreamRateLimitException e) {
+            assertTrue((System.nanoTime() - start) / 1_000_000 < 5_000);
+        }
+        assertEquals(1, stub.requestBodies.size());
+    }
+
+    public void testGivesUpAfterMaxRetries() {
+        AIService limited = new AIService(httpClient, stub.url(), "test-key", "test-model",
+                new UpstreamRateLimiter(0, 0, 5_000, 10, 20), 2);
+        stub.rateLimitNext(10, null, null);
+
+        try {
+            limited.complete(conversation("capital?"));
+            fail("expected the call to give up");
+        } catch (UpstreamRateLimitException e) {
+            assertTrue(e.getMessage().contains("Rate limit reached for requests"));
+        }
+        assertEquals(3, stub.requestBodies.size());
+    }
+}
@@ -0,0 +1,71 @@
+package com.aichatapp.services;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class AuthTokenServiceTest extends TestCase {
+    private static final byte[] SECRET = new byte[32];
+
+    static {
+        Arrays.fill(SECRET, (byte) 7);
+    }
+
+    private final AuthTokenService tokens = new AuthTokenService(SECRET, 3600, 100);
+
+    public void testIssuedTokenResolvesToItsUser() {
+        assertEquals("alice", tokens.validate(tokens.issue("alice")));
+        assertEquals("odd|name", tokens.validate(tokens.issue("odd|name")));
+    }
+
+    public void testTokenSurvivesRestartWithTheSameSecret() {
+        String token = tokens.issue("alice");
+
+        assertEquals("alice", new AuthTokenService(SECRET, 3600, 100).validate(token));
+        assertNull(new AuthTokenService(new byte[32], 3600, 100).validate(token));
+    }
+
+    public void testTamperedTokenIsRejected() {
+        String token = tokens.issue("alice");
+        String otherUser = tokens.issue("mallory");
+        // Alice's signature on Mallory's payload
+        String spliced = otherUser.substring(0, otherUser.indexOf('.')) + token.substring(token.indexOf('.'));
+
+        assertNull(tokens.validate(spliced));
+        assertNull(tokens.validate(token.substring(0, token.length() - 2)));
+        assertNull(tokens.validate("garbage"));
+        assertNull(tokens.validate(null));
+    }
+
+    public void testExpiredTokenIsRejected() {
+        AuthTokenService shortLived = new AuthTokenService(SECRET, 0, 100);
+
+        assertNull(shortLived.validate(shortLived.issue("alice")));
+    }
+
+    public void testRevokedTokenIsRejected() {
+        String token = tokens.issue("alice");
+        String other = tokens.issue("alice");
+
+        tokens.revoke(token);
+
+        assertNull(tokens.validate(token));
+        assertEquals("only the revoked token stops working", "alice", tokens.validate(other));
+    }
+
+    public void testFullRevocationStoreStopsIssuingInsteadOfForgetting() {
+        AuthTokenService small = new AuthTokenService(SECRET, 3600, 2);
+        String first = small.issue("victim");
+        String second = small.issue("mallory");
+        String third = small.issue("mallory");
+
+        small.revoke(first);
+        small.revoke(second);
+
+        assertNull("no token that could not be revoked", small.issue("mallory"));
+        small.revoke(third);
+        assertNull(small.validate(first));
+        assertNull(small.validate(second));
+        assertNull(small.validate(third));
+    }
+}
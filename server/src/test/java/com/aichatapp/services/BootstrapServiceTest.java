@@ -0,0 +1,104 @@
+package com.aichatapp.services;
+
+import com.aichatapp.models.ChatMessage;
+import com.aichatapp.models.ChatSession;
+import com.aichatapp.models.HistoryPage;
+import junit.framework.TestCase;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class BootstrapServiceTest extends TestCase {
+    // Counted down once the history page was read
+    private final CountDownLatch historyLoaded = new CountDownLatch(1);
+    private BootstrapService service;
+
+    /**
+     * Only answers the password check once the history lookup is done, which never happens
+     * if the lookups wait for the check
+     */
+    private class FakeUserService extends UserService {
+        FakeUserService() {
+            super(new PasswordHasher(1, 1, 1_000, 4));
+        }
+
+        @Override
+        public boolean authenticateUser(String username, String password) {
+            try {
+                return historyLoaded.await(5, TimeUnit.SECONDS) && "secret".equals(password);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public int getUserIdByUsername(String username) {
+            return "alice".equals(username) ? 10 : -1;
+        }
+    }
+
+    private static class FakeSessionService extends SessionService {
+        @Override
+        public List<ChatSession> getUserSessions(int userId) {
+            return List.of(new ChatSession(7, "Newest", "2026-01-02"), new ChatSession(3, "Older", "2026-01-01"));
+        }
+    }
+
+    private class FakeChatService extends ChatService {
+        @Override
+        public HistoryPage getChatHistoryPage(int sessionId, int beforeMessageId, int limit) {
+            historyLoaded.countDown();
+            return new HistoryPage(List.of(
+                    new ChatMessage(41, sessionId, "hi", null, true, LocalDateTime.now()),
+                    new ChatMessage(42, sessionId, null, "hello", false, LocalDateTime.now())), true);
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        service = new BootstrapService(new FakeUserService(), new FakeSessionService(), new FakeChatService(), 1, 4);
+    }
+
+    @Override
+    protected void tearDown() {
+        service.shutdown();
+    }
+
+    public void testLooksUpSessionsAndHistoryWhileCheckingThePassword() throws Exception {
+        BootstrapService.Result result = service.bootstrap("alice", "secret", 50);
+
+        assertNotNull(result);
+        assertEquals(2, result.getSessions().size());
+        // The most recent session's newest page
+        assertEquals(7, result.getSessionId());
+        assertEquals(41, result.getHistory().getOldestMessageId());
+        assertTrue(result.getHistory().hasMore());
+    }
+
+    public void testRejectedLookupsRunOnlyAfterTheCheck() throws Exception {
+        BootstrapService rejecting = new BootstrapService(new UserService(new PasswordHasher(1, 1, 1_000, 4)) {
+            @Override
+            public boolean authenticateUser(String username, String password) {
+                // Nothing may have been looked up yet
+                return historyLoaded.getCount() == 1 && "secret".equals(password);
+            }
+
+            @Override
+            public int getUserIdByUsername(String username) {
+                return 10;
+            }
+        }, new FakeSessionService(), new FakeChatService(), 1, 1);
+        // A stopped pool turns every lookup away, like a saturated one
+        rejecting.shutdown();
+
+        assertNull(rejecting.bootstrap("alice", "wrong", 50));
+        assertEquals(1, historyLoaded.getCount());
+        assertEquals(7, rejecting.bootstrap("alice", "secret", 50).getSessionId());
+    }
+
+    public void testWrongPasswordGetsNothing() throws Exception {
+        assertNull(service.bootstrap("alice", "wrong", 50));
+    }
+}
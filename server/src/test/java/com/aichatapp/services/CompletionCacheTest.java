@@ -0,0 +1,109 @@
+package com.aichatapp.services;
+
+import com.google.gson.JsonObject;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompletionCacheTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("completion-cache").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static List<JsonObject> prompt(String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "user");
+        message.addProperty("content", content);
+        List<JsonObject> messages = new ArrayList<>();
+        messages.add(message);
+        return messages;
+    }
+
+    public void testKeyIgnoresWhitespaceButNotModelOrTemperature() {
+        String key = CompletionCache.key("llama", 0.7, prompt("What is  the capital\nof Tunisia?"));
+
+        assertEquals(key, CompletionCache.key("llama", 0.7, prompt(" What is the capital of Tunisia? ")));
+        assertFalse(key.equals(CompletionCache.key("mixtral", 0.7, prompt("What is the capital of Tunisia?"))));
+        assertFalse(key.equals(CompletionCache.key("llama", 0.2, prompt("What is the capital of Tunisia?"))));
+        assertFalse(key.equals(CompletionCache.key("llama", 0.7, prompt("What is the capital of Libya?"))));
+    }
+
+    public void testHitReportsSavedLatency() {
+        CompletionCache cache = new CompletionCache(true, 10, 60_000, "", 0);
+
+        assertNull(cache.get("k"));
+        cache.put("k", "Tunis.", 250_000_000L);
+
+        assertEquals("Tunis.", cache.get("k"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(250, cache.getSavedMillis());
+    }
+
+    public void testDiskTierSurvivesRestart() {
+        CompletionCache first = new CompletionCache(true, 10, 60_000, directory.getPath(), 100);
+        first.put("k", "Tunis.", 1_000_000L);
+
+        CompletionCache second = new CompletionCache(true, 10, 60_000, directory.getPath(), 100);
+
+        assertEquals("Tunis.", second.get("k"));
+        assertEquals(1, second.getHitCount());
+    }
+
+    public void testExpiredEntriesAreNotServed() throws Exception {
+        CompletionCache cache = new CompletionCache(true, 10, 1, directory.getPath(), 100);
+        cache.put("k", "Tunis.", 1_000_000L);
+        Thread.sleep(20);
+
+        assertNull(cache.get("k"));
+        assertNull(new CompletionCache(true, 10, 1, directory.getPath(), 100).get("k"));
+    }
+
+    public void testCorruptFileIsDropped() throws Exception {
+        new CompletionCache(true, 10, 60_000, directory.getPath(), 100).put("k", "cached reply", 1_000_000);
+        File file = directory.listFiles()[0];
+        // Header intact, length field claiming 2GB
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(16);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+
+        assertNull(new CompletionCache(true, 10, 60_000, directory.getPath(), 100).get("k"));
+        assertFalse(file.exists());
+    }
+
+    public void testDiskTierIsBounded() {
+        CompletionCache cache = new CompletionCache(true, 10, 60_000, directory.getPath(), 10);
+        for (int i = 0; i < 25; i++) {
+            cache.put("k" + i, "reply " + i, 1_000_000L);
+        }
+
+        assertTrue(directory.listFiles().length <= 10);
+    }
+
+    public void testDisabledCacheStoresNothing() {
+        CompletionCache cache = new CompletionCache(false, 10, 60_000, directory.getPath(), 100);
+        cache.put("k", "Tunis.", 1_000_000L);
+
+        assertNull(cache.get("k"));
+        assertEquals(0, directory.listFiles().length);
+    }
+}
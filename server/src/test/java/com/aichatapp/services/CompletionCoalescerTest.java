@@ -0,0 +1,178 @@
+package com.aichatapp.services;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompletionCoalescerTest extends TestCase {
+    private final CompletionCoalescer coalescer = new CompletionCoalescer(true);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Override
+    protected void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void testConcurrentIdenticalCallsShareOneUpstreamCall() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CompletionCoalescer.Upstream upstream = delta -> {
+            upstreamCalls.incrementAndGet();
+            await(release);
+            return "Tunis.";
+        };
+
+        Future<String> leader = executor.submit(() -> coalescer.complete("k", null, upstream));
+        waitForFlight();
+        List<Future<String>> joiners = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            joiners.add(executor.submit(() -> coalescer.complete("k", null, upstream)));
+        }
+        waitForJoined(3);
+        release.countDown();
+
+        assertEquals("Tunis.", leader.get(5, TimeUnit.SECONDS));
+        for (Future<String> joiner : joiners) {
+            assertEquals("Tunis.", joiner.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, upstreamCalls.get());
+    }
+
+    public void testLateStreamingJoinerReplaysTokens() throws Exception {
+        CountDownLatch halfway = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletionCoalescer.Upstream upstream = delta -> {
+            delta.accept("The capital ");
+            delta.accept("is ");
+            halfway.countDown();
+            await(release);
+            delta.accept("Tunis.");
+            return "The capital is Tunis.";
+        };
+        List<String> leaderTokens = Collections.synchronizedList(new ArrayList<>());
+        List<String> joinerTokens = Collections.synchronizedList(new ArrayList<>());
+
+        Future<String> leader = executor.submit(() -> coalescer.complete("k", leaderTokens::add, upstream));
+        await(halfway);
+        Future<String> joiner = executor.submit(() -> coalescer.complete("k", joinerTokens::add, upstream));
+        waitForJoined(1);
+        release.countDown();
+
+        assertEquals("The capital is Tunis.", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("The capital is Tunis.", joiner.get(5, TimeUnit.SECONDS));
+        assertEquals(leaderTokens, joinerTokens);
+        assertEquals(3, joinerTokens.size());
+    }
+
+    public void testStalledJoinerDoesNotHoldUpTheCall() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch joinerIn = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch unstall = new CountDownLatch(1);
+        CompletionCoalescer.Upstream upstream = delta -> {
+            delta.accept("The capital ");
+            started.countDown();
+            await(release);
+            delta.accept("is ");
+            delta.accept("Tunis.");
+            return "The capital is Tunis.";
+        };
+        List<String> joinerTokens = Collections.synchronizedList(new ArrayList<>());
+
+        Future<String> leader = executor.submit(() -> coalescer.complete("k", delta -> { }, upstream));
+        await(started);
+        Future<String> joiner = executor.submit(() -> coalescer.complete("k", delta -> {
+            // Like a client that stopped reading
+            joinerIn.countDown();
+            await(unstall);
+            joinerTokens.add(delta);
+        }, upstream));
+        await(joinerIn);
+        release.countDown();
+
+        assertEquals("The capital is Tunis.", leader.get(5, TimeUnit.SECONDS));
+        unstall.countDown();
+        assertEquals("The capital is Tunis.", joiner.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("The capital ", "is ", "Tunis."), joinerTokens);
+    }
+
+    public void testStreamingJoinerOfPlainCallGetsWholeReply() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletionCoalescer.Upstream upstream = delta -> {
+            await(release);
+            return "Tunis.";
+        };
+        List<String> joinerTokens = new ArrayList<>();
+
+        Future<String> leader = executor.submit(() -> coalescer.complete("k", null, upstream));
+        waitForFlight();
+        Future<String> joiner = executor.submit(() -> coalescer.complete("k", joinerTokens::add, upstream));
+        waitForJoined(1);
+        release.countDown();
+
+        leader.get(5, TimeUnit.SECONDS);
+        joiner.get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("Tunis."), joinerTokens);
+    }
+
+    public void testFailureReachesJoinersAndIsNotRemembered() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletionCoalescer.Upstream failing = delta -> {
+            await(release);
+            throw new RuntimeException("AI API returned HTTP 500");
+        };
+
+        Future<String> leader = executor.submit(() -> coalescer.complete("k", null, failing));
+        waitForFlight();
+        Future<String> joiner = executor.submit(() -> coalescer.complete("k", null, failing));
+        waitForJoined(1);
+        release.countDown();
+
+        assertFails(leader);
+        assertFails(joiner);
+        assertEquals("Tunis.", coalescer.complete("k", null, delta -> "Tunis."));
+        assertEquals(2, coalescer.getCallCount());
+    }
+
+    private static void assertFails(Future<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected the upstream failure");
+        } catch (ExecutionException e) {
+            assertEquals("AI API returned HTTP 500", e.getCause().getMessage());
+        }
+    }
+
+    private void waitForFlight() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (coalescer.getCallCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void waitForJoined(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (coalescer.getJoinedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        // Joined is counted just before the caller subscribes
+        Thread.sleep(20);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
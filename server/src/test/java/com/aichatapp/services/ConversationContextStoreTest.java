@@ -0,0 +1,108 @@
+package com.aichatapp.services;
+
+import com.aichatapp.models.ChatMessage;
+import com.google.gson.JsonObject;
+import junit.framework.TestCase;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConversationContextStoreTest extends TestCase {
+
+    /**
+     * Serves a fixed history for session 1 and counts database loads
+     */
+    private static class FakeChatService extends ChatService {
+        int loads;
+        boolean failing;
+
+        @Override
+        public List<ChatMessage> getRecentMessages(int sessionId, int limit) throws SQLException {
+            loads++;
+            if (failing) {
+                throw new SQLException("database unavailable");
+            }
+            List<ChatMessage> messages = new ArrayList<>();
+            if (sessionId == 1) {
+                messages.add(new ChatMessage(1, 1, "hello", null, true, LocalDateTime.now()));
+                messages.add(new ChatMessage(2, 1, null, "hi there", false, LocalDateTime.now()));
+            }
+            return messages;
+        }
+    }
+
+    private static List<String> contents(List<JsonObject> context) {
+        List<String> contents = new ArrayList<>();
+        for (JsonObject message : context) {
+            contents.add(message.get("role").getAsString() + ":" + message.get("content").getAsString());
+        }
+        return contents;
+    }
+
+    public void testHydratesOnceFromDatabase() {
+        FakeChatService chatService = new FakeChatService();
+        ConversationContextStore store = new ConversationContextStore(chatService, 1_000, 10_000, 50);
+
+        List<JsonObject> context = store.buildContext(1, "how are you");
+        store.recordTurn(1, "how are you", "fine");
+        List<JsonObject> next = store.buildContext(1, "bye");
+
+        assertEquals(List.of("user:hello", "assistant:hi there", "user:how are you"), contents(context));
+        assertEquals(List.of("user:hello", "assistant:hi there", "user:how are you", "assistant:fine", "user:bye"),
+                contents(next));
+        assertEquals(1, chatService.loads);
+    }
+
+    public void testFailedLoadIsNotCachedAsEmptyContext() {
+        FakeChatService chatService = new FakeChatService();
+        ConversationContextStore store = new ConversationContextStore(chatService, 1_000, 10_000, 50);
+
+        chatService.failing = true;
+        assertEquals(List.of("user:how are you"), contents(store.buildContext(1, "how are you")));
+        store.recordTurn(1, "how are you", "fine");
+        assertEquals(0, store.getSessionCount());
+
+        chatService.failing = false;
+        assertEquals(List.of("user:hello", "assistant:hi there", "user:bye"),
+                contents(store.buildContext(1, "bye")));
+        assertEquals(1, store.getSessionCount());
+    }
+
+    public void testSessionsDoNotShareContext() {
+        ConversationContextStore store = new ConversationContextStore(new FakeChatService(), 1_000, 10_000, 50);
+        store.recordTurn(2, "question for two", "answer for two");
+
+        List<JsonObject> context = store.buildContext(3, "question for three");
+
+        assertEquals(List.of("user:question for three"), contents(context));
+    }
+
+    public void testOldestTurnsAreDroppedOverSessionBudget() {
+        ConversationContextStore store = new ConversationContextStore(new FakeChatService(), 20, 10_000, 50);
+        store.recordTurn(2, "aaaaa", "bbbbb");
+        store.recordTurn(2, "ccccc", "ddddd");
+        store.recordTurn(2, "eeeee", "fffff");
+
+        List<JsonObject> context = store.buildContext(2, "next");
+
+        assertEquals(List.of("user:ccccc", "assistant:ddddd", "user:eeeee", "assistant:fffff", "user:next"),
+                contents(context));
+    }
+
+    public void testLeastRecentlyUsedSessionIsEvictedOverTotalBudget() {
+        FakeChatService chatService = new FakeChatService();
+        ConversationContextStore store = new ConversationContextStore(chatService, 100, 25, 50);
+        store.recordTurn(2, "aaaaa", "bbbbb");
+        store.recordTurn(3, "ccccc", "ddddd");
+        store.recordTurn(4, "eeeee", "fffff");
+
+        assertEquals(2, store.getSessionCount());
+        assertEquals(20, store.getTotalChars());
+
+        int loadsBefore = chatService.loads;
+        store.buildContext(2, "again");
+        assertEquals("evicted session is hydrated again", loadsBefore + 1, chatService.loads);
+    }
+}
@@ -0,0 +1,58 @@
+package com.aichatapp.services;
+
+import junit.framework.TestCase;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.concurrent.RejectedExecutionException;
+
+public class PasswordHasherTest extends TestCase {
+    private PasswordHasher hasher;
+
+    @Override
+    protected void setUp() {
+        hasher = new PasswordHasher(2, 8, 10_000, 5);
+    }
+
+    @Override
+    protected void tearDown() {
+        hasher.shutdown();
+    }
+
+    public void testHashUsesConfiguredCostAndChecks() {
+        String hash = hasher.hash("secret");
+
+        assertEquals(5, PasswordHasher.costOf(hash));
+        assertTrue(hasher.check("secret", hash));
+        assertFalse(hasher.check("wrong", hash));
+    }
+
+    public void testNeedsRehashOnlyForOtherCosts() {
+        assertTrue(hasher.needsRehash(BCrypt.hashpw("secret", BCrypt.gensalt(4))));
+        assertFalse(hasher.needsRehash(BCrypt.hashpw("secret", BCrypt.gensalt(5))));
+        assertFalse("not a bcrypt hash", hasher.needsRehash("plain"));
+    }
+
+    public void testCalibrationStaysWithinBounds() {
+        assertEquals(4, PasswordHasher.calibrate(0, 4, 8));
+        int cost = PasswordHasher.calibrate(60_000, 4, 8);
+        assertEquals("a minute allows every cost up to the cap", 8, cost);
+    }
+
+    public void testFullQueueRejectsInsteadOfWaiting() throws Exception {
+        PasswordHasher tiny = new PasswordHasher(1, 1, 10_000, 12);
+        try {
+            // One hashing, one queued, the third has no room
+            tiny.hashAsync("a");
+            tiny.hashAsync("b");
+            assertTrue(tiny.hashAsync("c").isCompletedExceptionally());
+            try {
+                tiny.hash("d");
+                fail("expected the hash to be rejected");
+            } catch (RejectedExecutionException expected) {
+                // turned away right away
+            }
+        } finally {
+            tiny.shutdown();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.aichatapp.services;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the chat completion endpoint.
+ * Answers with a fixed reply, streamed as SSE when the request asks for it,
+ * and remembers the client port of every request so tests can check connection reuse.
+ * {@link #rateLimitNext} makes it answer 429 the way the provider does when over its limits.
+ */
+class StubCompletionServer implements AutoCloseable {
+    private final HttpServer server;
+    private final String reply;
+    final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+    final List<String> requestBodies = new CopyOnWriteArrayList<>();
+    private final AtomicInteger rateLimited = new AtomicInteger();
+    private volatile String retryAfter;
+    private volatile String resetRequests;
+
+    StubCompletionServer(String reply) throws IOException {
+        this.reply = reply;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v1/chat/completions", this::handle);
+        server.start();
+    }
+
+    String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/v1/chat/completions";
+    }
+
+    /**
+     * Answers the next requests with 429
+     * @param retryAfter Retry-After header value, null to leave it out
+     * @param resetRequests x-ratelimit-reset-requests header value, null to leave it out
+     */
+    void rateLimitNext(int requests, String retryAfter, String resetRequests) {
+        this.retryAfter = retryAfter;
+        this.resetRequests = resetRequests;
+        rateLimited.set(requests);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        requestBodies.add(body);
+
+        if (rateLimited.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            if (retryAfter != null) {
+                exchange.getResponseHeaders().set("Retry-After", retryAfter);
+            }
+            if (resetRequests != null) {
+                exchange.getResponseHeaders().set("x-ratelimit-remaining-requests", "0");
+                exchange.getResponseHeaders().set("x-ratelimit-reset-requests", resetRequests);
+            }
+            send(exchange, 429, "application/json",
+                    "{\"error\":{\"message\":\"Rate limit reached for requests\",\"type\":\"requests\"}}");
+            return;
+        }
+
+        if (body.contains("\"stream\":true")) {
+            StringBuilder events = new StringBuilder();
+            events.append("data: {\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}\n\n");
+            for (String word : reply.split("(?<= )")) {
+                events.append("data: {\"choices\":[{\"delta\":{\"content\":\"").append(word).append("\"}}]}\n\n");
+            }
+            if (body.contains("\"include_usage\":true")) {
+                events.append("data: {\"choices\":[],\"usage\":{\"total_tokens\":42}}\n\n");
+            }
+            events.append("data: [DONE]\n\n");
+            send(exchange, 200, "text/event-stream", events.toString());
+        } else {
+            send(exchange, 200, "application/json",
+                    "{\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"" + reply + "\"}}]}");
+        }
+    }
+
+    static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
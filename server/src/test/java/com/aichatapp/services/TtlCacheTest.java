@@ -0,0 +1,62 @@
+package com.aichatapp.services;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TtlCacheTest extends TestCase {
+
+    public void testHitsAfterFirstLoad() throws Exception {
+        TtlCache<String, Integer> cache = new TtlCache<>("test", 10, 60_000, 0);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(Integer.valueOf(7), cache.get("alice", key -> { loads.incrementAndGet(); return 7; }));
+        assertEquals(Integer.valueOf(7), cache.get("alice", key -> { loads.incrementAndGet(); return 8; }));
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testMissesAreOnlyCachedWithNegativeTtl() throws Exception {
+        TtlCache<Integer, Integer> withoutNegative = new TtlCache<>("test", 10, 60_000, 0);
+        TtlCache<Integer, Integer> withNegative = new TtlCache<>("test", 10, 60_000, 60_000);
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            assertNull(withoutNegative.get(99, key -> { loads.incrementAndGet(); return null; }));
+            assertNull(withNegative.get(99, key -> { loads.incrementAndGet(); return null; }));
+        }
+
+        assertEquals("two loads without negative caching plus one with it", 3, loads.get());
+    }
+
+    public void testPutOverridesCachedMiss() throws Exception {
+        TtlCache<Integer, Integer> cache = new TtlCache<>("test", 10, 60_000, 60_000);
+        cache.get(5, key -> null);
+
+        cache.put(5, 42);
+
+        assertEquals(Integer.valueOf(42), cache.get(5, key -> null));
+    }
+
+    public void testExpiredEntriesAreReloaded() throws Exception {
+        TtlCache<String, Integer> cache = new TtlCache<>("test", 10, 1, 0);
+        cache.get("bob", key -> 1);
+        Thread.sleep(5);
+
+        assertEquals(Integer.valueOf(2), cache.get("bob", key -> 2));
+    }
+
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        TtlCache<String, Integer> cache = new TtlCache<>("test", 2, 60_000, 0);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a", key -> -1);
+        cache.put("c", 3);
+
+        assertEquals(2, cache.size());
+        assertEquals(Integer.valueOf(1), cache.get("a", key -> -1));
+        assertEquals(Integer.valueOf(-1), cache.get("b", key -> -1));
+    }
+}
@@ -0,0 +1,99 @@
+package com.aichatapp.services;
+
+import junit.framework.TestCase;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+
+import java.util.concurrent.TimeUnit;
+
+public class UpstreamRateLimiterTest extends TestCase {
+
+    public void testRequestBucketAllowsBurstThenQueues() {
+        // 600/min refills one request every 100ms
+        UpstreamRateLimiter limiter = new UpstreamRateLimiter(600, 0, 1_000, 10, 100);
+        for (int i = 0; i < 600; i++) {
+            limiter.acquire(0, limiter.deadline());
+        }
+
+        long start = System.nanoTime();
+        limiter.acquire(0, limiter.deadline());
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("waited " + waitedMs + "ms", waitedMs >= 50);
+    }
+
+    public void testGivesUpInsteadOfWaitingPastTheDeadline() {
+        UpstreamRateLimiter limiter = new UpstreamRateLimiter(0, 1_000, 50, 10, 100);
+        limiter.acquire(1_000, limiter.deadline());
+
+        try {
+            // Refilling 500 tokens takes 30s
+            limiter.acquire(500, limiter.deadline());
+            fail("expected the limiter to give up");
+        } catch (UpstreamRateLimitException expected) {
+            // the bucket must not have been charged for the failed call
+        }
+        assertTrue(limiter.getStats().contains("gaveUp=1"));
+    }
+
+    public void testRefundedUsageFreesTokens() {
+        UpstreamRateLimiter limiter = new UpstreamRateLimiter(0, 1_000, 50, 10, 100);
+        limiter.acquire(1_000, limiter.deadline());
+
+        limiter.recordUsage(1_000, 100);
+
+        limiter.acquire(800, limiter.deadline());
+    }
+
+    public void testRefundNeverExceedsWhatWasReserved() {
+        UpstreamRateLimiter limiter = new UpstreamRateLimiter(0, 1_000, 50, 10, 100);
+        // Larger than the bucket, so only the full bucket was reserved
+        limiter.acquire(5_000, limiter.deadline());
+
+        limiter.recordUsage(5_000, 100);
+
+        // The call used 100 of the 1_000 reserved, so 900 are back and not a full bucket
+        limiter.acquire(900, limiter.deadline());
+        try {
+            limiter.acquire(100, limiter.deadline());
+            fail("refund should only return what was reserved");
+        } catch (UpstreamRateLimitException expected) {
+        }
+    }
+
+    public void testExhaustedProviderLimitPausesCallers() {
+        UpstreamRateLimiter limiter = new UpstreamRateLimiter(0, 0, 5_000, 10, 100);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setHeader("x-ratelimit-remaining-requests", "0");
+        response.setHeader("x-ratelimit-reset-requests", "0.2s");
+
+        limiter.observe(response);
+        long start = System.nanoTime();
+        limiter.acquire(0, limiter.deadline());
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+    }
+
+    public void testParsesProviderDurations() {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 429, "Too Many Requests");
+        response.setHeader("x-ratelimit-reset-tokens", "2m59.5s");
+        response.setHeader("x-ratelimit-reset-requests", "500ms");
+        response.setHeader("Retry-After", "7");
+
+        assertEquals(179_500, TimeUnit.NANOSECONDS.toMillis(UpstreamRateLimiter.durationHeader(response, "x-ratelimit-reset-tokens")));
+        assertEquals(500, TimeUnit.NANOSECONDS.toMillis(UpstreamRateLimiter.durationHeader(response, "x-ratelimit-reset-requests")));
+        assertEquals(7_000, TimeUnit.NANOSECONDS.toMillis(UpstreamRateLimiter.retryAfter(response)));
+    }
+
+    public void testBackoffWithoutHintsIsJitteredAndCapped() {
+        UpstreamRateLimiter limiter = new UpstreamRateLimiter(0, 0, 5_000, 100, 400);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 429, "Too Many Requests");
+
+        long first = TimeUnit.NANOSECONDS.toMillis(limiter.onRejected(response, 0));
+        long late = TimeUnit.NANOSECONDS.toMillis(limiter.onRejected(response, 10));
+
+        assertTrue("first " + first, first >= 50 && first <= 100);
+        assertTrue("late " + late, late >= 200 && late <= 400);
+    }
+}